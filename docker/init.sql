@@ -59,6 +59,9 @@ CREATE TABLE variant_properties (
                                     CONSTRAINT variant_properties_pk PRIMARY KEY (id)
 );
 
+-- Used to collect property display texts of a product for the search index
+CREATE INDEX idx_variant_properties_variant_id ON variant_properties (variant_id);
+
 -- Table: variant_reservations
 CREATE TABLE variant_reservations (
                                       id uuid  NOT NULL,
@@ -68,7 +71,26 @@ CREATE TABLE variant_reservations (
                                       created_at timestamp  NOT NULL,
                                       expires_at timestamp  NOT NULL,
                                       status text  NOT NULL CHECK (status IN ('ACTIVE','CANCELLED','EXPIRED', 'PAYMENT_COMPLETED', 'PAYMENT_FAILED')),
-                                      CONSTRAINT variant_reservations_pk PRIMARY KEY (id)
+                                      stock_flushed boolean DEFAULT TRUE NOT NULL,
+                                      CONSTRAINT variant_reservations_pk PRIMARY KEY (id),
+                                      -- A reservation (order) reserves each variant once, which makes creating it idempotent
+                                      CONSTRAINT variant_reservations_reservation_variant_uq UNIQUE (reservation_id, variant_id)
+);
+
+-- Used by the reservation expiry sweeper to find overdue reservations
+CREATE INDEX idx_variant_reservations_active_expires_at ON variant_reservations (expires_at) WHERE status = 'ACTIVE';
+
+-- Used by the hot variant ledger to flush reservations it granted in memory
+CREATE INDEX idx_variant_reservations_unflushed ON variant_reservations (variant_id) WHERE stock_flushed = FALSE;
+
+-- Table: hot_variant_leases
+-- Instance owning the in-memory stock counter of a hot variant. Only the owner grants reservations of the
+-- variant, and it renews the lease while it is alive.
+CREATE TABLE hot_variant_leases (
+                                    variant_id uuid  NOT NULL,
+                                    owner_id uuid  NOT NULL,
+                                    expires_at timestamptz  NOT NULL,
+                                    CONSTRAINT hot_variant_leases_pk PRIMARY KEY (variant_id)
 );
 
 -- Table: variant_images
@@ -83,6 +105,9 @@ CREATE TABLE variant_images (
                                 CONSTRAINT variant_images_pk PRIMARY KEY (id)
 );
 
+-- Used to find the first image of a variant for the product listing
+CREATE INDEX idx_variant_images_variant_id_position ON variant_images (variant_id, position);
+
 -- Table: variants
 CREATE TABLE variants (
                           id uuid  NOT NULL,
@@ -97,6 +122,19 @@ CREATE TABLE variants (
                           CONSTRAINT variants_pk PRIMARY KEY (id)
 );
 
+-- Used to find the cheapest variant of a product for the product listing
+CREATE INDEX idx_variants_product_id_price ON variants (product_id, price);
+
+-- Table: variant_stock_buckets
+-- Stock of a contended variant split across sub-counter rows. When a variant has buckets, they hold its stock
+-- and variants.stock_quantity is kept in sync with their sum by the rebalancer.
+CREATE TABLE variant_stock_buckets (
+                                       variant_id uuid  NOT NULL,
+                                       bucket int  NOT NULL,
+                                       stock_quantity int  NOT NULL CHECK (stock_quantity >= 0),
+                                       CONSTRAINT variant_stock_buckets_pk PRIMARY KEY (variant_id, bucket)
+);
+
 -- Table: deliveries
 CREATE TABLE deliveries (
                             id uuid  NOT NULL,
@@ -186,6 +224,23 @@ ALTER TABLE variant_reservations ADD CONSTRAINT variant_reservations_variants
             INITIALLY IMMEDIATE
 ;
 
+-- Reference: variant_stock_buckets_variants (table: variant_stock_buckets)
+ALTER TABLE variant_stock_buckets ADD CONSTRAINT variant_stock_buckets_variants
+    FOREIGN KEY (variant_id)
+        REFERENCES variants (id)
+        NOT DEFERRABLE
+            INITIALLY IMMEDIATE
+;
+
+-- Reference: hot_variant_leases_variants (table: hot_variant_leases)
+ALTER TABLE hot_variant_leases ADD CONSTRAINT hot_variant_leases_variants
+    FOREIGN KEY (variant_id)
+        REFERENCES variants (id)
+        ON DELETE CASCADE
+        NOT DEFERRABLE
+            INITIALLY IMMEDIATE
+;
+
 -- Reference: delivery_items_deliveries (table: delivery_items)
 ALTER TABLE delivery_items ADD CONSTRAINT delivery_items_deliveries
     FOREIGN KEY (delivery_id)
@@ -230,18 +285,249 @@ AFTER INSERT OR DELETE ON default_property_options
 FOR EACH ROW
 EXECUTE FUNCTION update_has_default_options();
 
+-- Product listing read model: one row per product with a variant, holding what category listings are read from.
+-- Kept up to date by the triggers below in the transaction that changes a product, its variants or their images.
+CREATE TABLE product_listing (
+                                 product_id uuid  NOT NULL,
+                                 category_id uuid  NOT NULL,
+                                 -- '/<root category id>/.../<category id>/', so the products of a category and all of
+                                 -- its subcategories are one range of idx_product_listing_category_path
+                                 category_path text COLLATE "C"  NOT NULL,
+                                 product_name varchar(255)  NOT NULL,
+                                 -- The cheapest variant of the product
+                                 variant_id uuid  NOT NULL,
+                                 -- Stock is not kept here; listings read the current stock from variants
+                                 price decimal(12,2)  NOT NULL,
+                                 -- First image of the variant
+                                 image_id uuid  NULL,
+                                 image_url text  NULL,
+                                 CONSTRAINT product_listing_pk PRIMARY KEY (product_id)
+);
+
+CREATE INDEX idx_product_listing_category_path ON product_listing (category_path, product_id);
+
+-- Path of a category in product_listing.category_path, or NULL for an unknown category
+CREATE OR REPLACE FUNCTION category_path(leaf_category_id UUID)
+RETURNS TEXT AS $$
+    WITH RECURSIVE ancestors (id, parent_category_id, depth) AS (
+        SELECT c.id, c.parent_category_id, 0
+        FROM categories c
+        WHERE c.id = leaf_category_id
+        UNION ALL
+        SELECT c.id, c.parent_category_id, a.depth + 1
+        FROM categories c
+        JOIN ancestors a ON c.id = a.parent_category_id
+        WHERE a.depth < 100
+    )
+    SELECT '/' || string_agg(a.id::text, '/' ORDER BY a.depth DESC) || '/'
+    FROM ancestors a
+$$ LANGUAGE sql STABLE;
+
+CREATE OR REPLACE FUNCTION refresh_product_listing(refreshed_product_id UUID)
+RETURNS VOID AS $$
+BEGIN
+    INSERT INTO product_listing (product_id, category_id, category_path, product_name, variant_id, price, image_id, image_url)
+    SELECT p.id, p.category_id, category_path(p.category_id), p.name, v.id, v.price, vi.id, vi.url
+    FROM products p
+    CROSS JOIN LATERAL (
+        SELECT cheapest.id, cheapest.price
+        FROM variants cheapest
+        WHERE cheapest.product_id = p.id
+        ORDER BY cheapest.price, cheapest.id
+        LIMIT 1
+    ) v
+    LEFT JOIN LATERAL (
+        SELECT first.id, first.url
+        FROM variant_images first
+        WHERE first.variant_id = v.id
+        ORDER BY first.position
+        LIMIT 1
+    ) vi ON TRUE
+    WHERE p.id = refreshed_product_id
+    ON CONFLICT (product_id) DO UPDATE
+    SET category_id = EXCLUDED.category_id,
+        category_path = EXCLUDED.category_path,
+        product_name = EXCLUDED.product_name,
+        variant_id = EXCLUDED.variant_id,
+        price = EXCLUDED.price,
+        image_id = EXCLUDED.image_id,
+        image_url = EXCLUDED.image_url;
+
+    -- A product without variants, or one that was deleted, is not listed
+    IF NOT FOUND THEN
+        DELETE FROM product_listing WHERE product_id = refreshed_product_id;
+    END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION product_listing_product_changed()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM refresh_product_listing(OLD.id);
+    ELSE
+        PERFORM refresh_product_listing(NEW.id);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
 
+CREATE OR REPLACE FUNCTION product_listing_variant_changed()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP <> 'INSERT' THEN
+        PERFORM refresh_product_listing(OLD.product_id);
+    END IF;
+    IF TG_OP <> 'DELETE' AND (TG_OP = 'INSERT' OR NEW.product_id <> OLD.product_id) THEN
+        PERFORM refresh_product_listing(NEW.product_id);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION product_listing_variant_image_changed()
+RETURNS TRIGGER AS $$
+BEGIN
+    -- Images deleted along with their variant find no variant; deleting the variant refreshes the listing
+    IF TG_OP <> 'INSERT' THEN
+        PERFORM refresh_product_listing(v.product_id) FROM variants v WHERE v.id = OLD.variant_id;
+    END IF;
+    IF TG_OP <> 'DELETE' AND (TG_OP = 'INSERT' OR NEW.variant_id <> OLD.variant_id) THEN
+        PERFORM refresh_product_listing(v.product_id) FROM variants v WHERE v.id = NEW.variant_id;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Moving a category changes the path of every product listed under it
+CREATE OR REPLACE FUNCTION product_listing_category_moved()
+RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE product_listing l
+    SET category_path = category_path(l.category_id)
+    WHERE l.category_path LIKE '%/' || NEW.id::text || '/%';
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The triggers are deferred to commit, so a transaction locks listing rows only after all the rows it changes.
+-- Reservations lock variants in a fixed order, and would otherwise deadlock on the listing row of a product they
+-- both reserve variants of. Stock changes do not refresh the listing, so reservations never lock listing rows.
+CREATE CONSTRAINT TRIGGER trg_product_listing_products
+AFTER INSERT OR DELETE OR UPDATE OF name, category_id ON products
+DEFERRABLE INITIALLY DEFERRED
+FOR EACH ROW
+EXECUTE FUNCTION product_listing_product_changed();
+
+CREATE CONSTRAINT TRIGGER trg_product_listing_variants_inserted_or_deleted
+AFTER INSERT OR DELETE ON variants
+DEFERRABLE INITIALLY DEFERRED
+FOR EACH ROW
+EXECUTE FUNCTION product_listing_variant_changed();
+
+CREATE CONSTRAINT TRIGGER trg_product_listing_variants_updated
+AFTER UPDATE OF product_id, price ON variants
+DEFERRABLE INITIALLY DEFERRED
+FOR EACH ROW
+WHEN (OLD.product_id <> NEW.product_id OR OLD.price <> NEW.price)
+EXECUTE FUNCTION product_listing_variant_changed();
+
+CREATE CONSTRAINT TRIGGER trg_product_listing_variant_images
+AFTER INSERT OR DELETE OR UPDATE OF variant_id, url, position ON variant_images
+DEFERRABLE INITIALLY DEFERRED
+FOR EACH ROW
+EXECUTE FUNCTION product_listing_variant_image_changed();
+
+CREATE TRIGGER trg_product_listing_categories
+AFTER UPDATE OF parent_category_id ON categories
+FOR EACH ROW
+WHEN (OLD.parent_category_id IS DISTINCT FROM NEW.parent_category_id)
+EXECUTE FUNCTION product_listing_category_moved();
+
+-- Lists products already in the database
+SELECT refresh_product_listing(p.id) FROM products p;
+
+
+-- Partitioned by day of created_at, so retention drops whole partitions of processed events instead of deleting rows
 CREATE TABLE kafka_outbox
 (
-    event_id     UUID PRIMARY KEY,
-    payload      TEXT,
-    created_at   TIMESTAMP    NOT NULL,
-    processed    BOOLEAN      NOT NULL DEFAULT FALSE,
-    processed_at TIMESTAMP,
-    event_type   TEXT
-);
+    event_id        UUID         NOT NULL,
+    -- JSON events are stored in payload, events in any other format in payload_bytes, tagged with content_type;
+    -- content_type is NULL for JSON events written before it was stored
+    payload         TEXT,
+    payload_bytes   BYTEA,
+    content_type    TEXT,
+    created_at      TIMESTAMP    NOT NULL,
+    -- Orders events of the same created_at, such as events saved together in one batch, in the order they were written
+    sequence_number BIGSERIAL    NOT NULL,
+    processed       BOOLEAN      NOT NULL DEFAULT FALSE,
+    processed_at    TIMESTAMP,
+    -- Processed without being published, because a newer event with the latest value of the variant replaced it
+    superseded      BOOLEAN      NOT NULL DEFAULT FALSE,
+    locked_until    TIMESTAMP,
+    -- Failed publish attempts; a failed event is not claimed again before next_attempt_at
+    attempts        INT          NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP,
+    last_error      TEXT,
+    -- Processed without being published, because it failed too many times; reset processed and attempts to retry it
+    dead_lettered   BOOLEAN      NOT NULL DEFAULT FALSE,
+    event_type      TEXT,
+    -- Kafka topic and message key, resolved when the event is written; NULL for events written before they were stored
+    topic           TEXT,
+    message_key     TEXT,
+    PRIMARY KEY (event_id, created_at)
+) PARTITION BY RANGE (created_at);
+
+-- There is no default partition: partitions can only be detached concurrently without one. Partitions are
+-- created a week ahead instead, as an event for a day without a partition cannot be written
 
-CREATE INDEX idx_kafka_outbox_processed ON kafka_outbox (processed);
 CREATE INDEX idx_kafka_outbox_created_at ON kafka_outbox (created_at);
-CREATE INDEX idx_kafka_outbox_processed_at ON kafka_outbox (processed_at) WHERE processed = TRUE;
+-- Used by outbox processors to claim the oldest unprocessed events
+CREATE INDEX idx_kafka_outbox_unprocessed_created_at ON kafka_outbox (created_at, sequence_number) WHERE processed = FALSE;
+-- Used when claiming to find earlier unprocessed events of the same key
+CREATE INDEX idx_kafka_outbox_unprocessed_message_key ON kafka_outbox (message_key, created_at, sequence_number) WHERE processed = FALSE;
+
+-- Creates the missing daily partitions kafka_outbox_pYYYYMMDD from from_day to days_ahead days later. A day that
+-- fails, e.g. on a lock timeout, is skipped with a warning and the following days are still created
+CREATE OR REPLACE FUNCTION create_kafka_outbox_partitions(from_day DATE, days_ahead INT)
+RETURNS INT AS $$
+DECLARE
+    partition_day  DATE;
+    partition_name TEXT;
+    created        INT := 0;
+BEGIN
+    -- Instances maintaining partitions at the same time would otherwise race on the same names
+    PERFORM pg_advisory_xact_lock(hashtext('kafka_outbox_partitions'));
+
+    FOR i IN 0..days_ahead LOOP
+        partition_day := from_day + i;
+        partition_name := 'kafka_outbox_p' || to_char(partition_day, 'YYYYMMDD');
+        IF to_regclass(partition_name) IS NULL THEN
+            BEGIN
+                EXECUTE format('CREATE TABLE %I PARTITION OF kafka_outbox FOR VALUES FROM (%L) TO (%L)',
+                               partition_name, partition_day, partition_day + 1);
+                created := created + 1;
+            EXCEPTION WHEN OTHERS THEN
+                RAISE WARNING 'Could not create outbox partition %: %', partition_name, SQLERRM;
+            END;
+        END IF;
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_kafka_outbox_partitions(CURRENT_DATE - 1, 8);
+
+-- Wakes outbox dispatchers listening on the kafka_outbox channel; the notification is delivered on commit
+CREATE OR REPLACE FUNCTION notify_kafka_outbox()
+RETURNS TRIGGER AS $$
+BEGIN
+    PERFORM pg_notify('kafka_outbox', '');
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
 
+CREATE TRIGGER trg_notify_kafka_outbox
+AFTER INSERT ON kafka_outbox
+FOR EACH STATEMENT
+EXECUTE FUNCTION notify_kafka_outbox();
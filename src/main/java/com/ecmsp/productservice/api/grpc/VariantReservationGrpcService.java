@@ -4,10 +4,14 @@ import com.ecmsp.product.v1.reservation.v1.*;
 import com.ecmsp.productservice.domain.VariantReservation;
 import com.ecmsp.productservice.dto.variant_reservation.VariantReservationResultDTO;
 import com.ecmsp.productservice.dto.variant_reservation.VariantsReservationCreateRequestDTO;
+import com.ecmsp.productservice.exception.HotVariantNotOwnedException;
+import com.ecmsp.productservice.exception.ReservationConflictException;
 import com.ecmsp.productservice.repository.VariantRepository;
 import com.ecmsp.productservice.service.ProductService;
+import com.ecmsp.productservice.service.ReservationGroupCommitter;
 import com.ecmsp.productservice.service.VariantReservationService;
 import com.ecmsp.productservice.service.VariantService;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import net.devh.boot.grpc.server.service.GrpcService;
 
@@ -27,16 +31,19 @@ public class VariantReservationGrpcService extends VariantReservationServiceGrpc
 
     private final VariantService variantService;
     private final VariantRepository variantRepository;
+    private final ReservationGroupCommitter reservationGroupCommitter;
 
     public VariantReservationGrpcService(
             VariantReservationService variantReservationService,
             ProductService productService,
             VariantService variantService,
-            VariantRepository variantRepository) {
+            VariantRepository variantRepository,
+            ReservationGroupCommitter reservationGroupCommitter) {
         this.productService = productService;
         this.variantService = variantService;
         this.variantRepository = variantRepository;
         this.variantReservationService = variantReservationService;
+        this.reservationGroupCommitter = reservationGroupCommitter;
     }
 
     @Override
@@ -56,8 +63,56 @@ public class VariantReservationGrpcService extends VariantReservationServiceGrpc
                 .variants(variants)
                 .build();
 
-        VariantReservationResultDTO result = variantReservationService.createVariantsReservation(bRequest);
+        // With group commit the response is sent once the group holding this request has committed
+        if (reservationGroupCommitter.isEnabled()) {
+            reservationGroupCommitter.submit(bRequest).whenComplete((result, error) -> {
+                if (error != null) {
+                    sendCreateVariantsReservationError(error, responseObserver);
+                    return;
+                }
+                sendCreateVariantsReservationResponse(result, responseObserver);
+            });
+            return;
+        }
+
+        try {
+            VariantReservationResultDTO result = variantReservationService.createVariantsReservation(bRequest);
+            sendCreateVariantsReservationResponse(result, responseObserver);
+        } catch (RuntimeException e) {
+            sendCreateVariantsReservationError(e, responseObserver);
+        }
+    }
+
+    private void sendCreateVariantsReservationError(
+            Throwable error,
+            StreamObserver<CreateVariantsReservationResponse> responseObserver) {
+        // A reservation that kept losing to concurrent transactions left nothing behind, so the caller may retry it
+        if (error instanceof ReservationConflictException) {
+            logger.warning("Variant reservation aborted: " + error.getMessage());
+            responseObserver.onError(Status.ABORTED
+                    .withDescription(error.getMessage())
+                    .asRuntimeException());
+            return;
+        }
+
+        // Hot variants are reserved only by the instance owning them, so the caller may retry on another instance
+        if (error instanceof HotVariantNotOwnedException) {
+            logger.warning("Variant reservation rejected: " + error.getMessage());
+            responseObserver.onError(Status.UNAVAILABLE
+                    .withDescription(error.getMessage())
+                    .asRuntimeException());
+            return;
+        }
+
+        logger.severe("Error creating variant reservation: " + error.getMessage());
+        responseObserver.onError(Status.INTERNAL
+                .withDescription(error.getMessage())
+                .asRuntimeException());
+    }
 
+    private void sendCreateVariantsReservationResponse(
+            VariantReservationResultDTO result,
+            StreamObserver<CreateVariantsReservationResponse> responseObserver) {
         List<String> reservedVariantIds = result.getReservedVariantIds().stream()
                 .map(UUID::toString)
                 .toList();
@@ -1,14 +1,21 @@
 package com.ecmsp.productservice.api.rest.controllers;
 
 import com.ecmsp.productservice.dto.rest.variant.GetVariantResponseDTO;
+import com.ecmsp.productservice.dto.rest.variant.GetVariantsAvailabilityRequestDTO;
+import com.ecmsp.productservice.dto.rest.variant.GetVariantsAvailabilityResponseDTO;
+import com.ecmsp.productservice.dto.variant.VariantAvailabilityDTO;
 import com.ecmsp.productservice.dto.variant_property.VariantPropertyResponseDTO;
 import com.ecmsp.productservice.service.ProductDisplayService;
 import com.ecmsp.productservice.service.PropertyService;
+import com.ecmsp.productservice.service.VariantAvailabilityService;
 import com.ecmsp.productservice.service.VariantPropertyService;
 import com.ecmsp.productservice.service.VariantService;
+import jakarta.validation.Valid;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -23,16 +30,19 @@ public class VariantController {
     private final VariantPropertyService variantPropertyService;
     private final PropertyService propertyService;
     private final ProductDisplayService productDisplayService;
+    private final VariantAvailabilityService variantAvailabilityService;
 
     public VariantController(
             VariantService variantService,
             VariantPropertyService variantPropertyService,
             PropertyService propertyService,
-            ProductDisplayService productDisplayService) {
+            ProductDisplayService productDisplayService,
+            VariantAvailabilityService variantAvailabilityService) {
         this.variantService = variantService;
         this.variantPropertyService = variantPropertyService;
         this.propertyService = propertyService;
         this.productDisplayService = productDisplayService;
+        this.variantAvailabilityService = variantAvailabilityService;
     }
 
     @GetMapping("/variant/{variantId}/details")
@@ -60,4 +70,17 @@ public class VariantController {
         Map<String, List<VariantPropertyResponseDTO>> response = variantPropertyService.getVariantPropertiesByVariantIdGrouped(variantId);
         return ResponseEntity.ok(response);
     }
+
+    @PostMapping("/variants/availability")
+    public ResponseEntity<GetVariantsAvailabilityResponseDTO> getVariantsAvailability(
+            @Valid @RequestBody GetVariantsAvailabilityRequestDTO request
+    ) {
+        List<VariantAvailabilityDTO> variants = variantAvailabilityService.getAvailability(request.variantIds());
+
+        GetVariantsAvailabilityResponseDTO response = GetVariantsAvailabilityResponseDTO.builder()
+                .variants(variants)
+                .build();
+
+        return ResponseEntity.ok(response);
+    }
 }
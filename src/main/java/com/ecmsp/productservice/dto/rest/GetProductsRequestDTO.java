@@ -1,7 +1,13 @@
 package com.ecmsp.productservice.dto.rest;
 
+/**
+ * @param cursor {@code nextCursor} of the previous page; pages by cursor instead of page number when set
+ * @param includeTotalCount whether to count all products of the listing, which is skipped by default
+ */
 public record GetProductsRequestDTO(
         Integer pageNumber,
-        Integer pageSize
+        Integer pageSize,
+        String cursor,
+        Boolean includeTotalCount
 ) {
 }
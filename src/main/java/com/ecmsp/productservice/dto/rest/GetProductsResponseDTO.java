@@ -4,10 +4,17 @@ import lombok.Builder;
 
 import java.util.List;
 
+/**
+ * @param nextPageNumber set when paging by page number
+ * @param nextCursor cursor of the next page, or {@code null} on the last page
+ * @param totalCount set only when requested
+ */
 @Builder
 public record GetProductsResponseDTO(
         List<ProductRepresentationDTO> productsRepresentation,
-        Integer nextPageNumber
+        Integer nextPageNumber,
+        String nextCursor,
+        Long totalCount
 ) {
 
 }
@@ -0,0 +1,17 @@
+package com.ecmsp.productservice.dto.rest.variant;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.Builder;
+
+import java.util.List;
+import java.util.UUID;
+
+@Builder
+public record GetVariantsAvailabilityRequestDTO(
+        @NotEmpty(message = "At least one variant id is required")
+        @Size(max = 5000, message = "At most 5000 variant ids can be checked at once")
+        List<@NotNull(message = "Variant id must not be null") UUID> variantIds
+) {
+}
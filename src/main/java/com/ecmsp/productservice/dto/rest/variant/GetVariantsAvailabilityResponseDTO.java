@@ -0,0 +1,12 @@
+package com.ecmsp.productservice.dto.rest.variant;
+
+import com.ecmsp.productservice.dto.variant.VariantAvailabilityDTO;
+import lombok.Builder;
+
+import java.util.List;
+
+@Builder
+public record GetVariantsAvailabilityResponseDTO(
+        List<VariantAvailabilityDTO> variants
+) {
+}
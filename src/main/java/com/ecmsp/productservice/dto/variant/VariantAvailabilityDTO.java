@@ -0,0 +1,13 @@
+package com.ecmsp.productservice.dto.variant;
+
+import lombok.Builder;
+
+import java.util.UUID;
+
+@Builder
+public record VariantAvailabilityDTO(
+        UUID variantId,
+        int stockQuantity,
+        boolean available
+) {
+}
@@ -0,0 +1,15 @@
+package com.ecmsp.productservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.Collection;
+import java.util.UUID;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class HotVariantNotOwnedException extends RuntimeException {
+
+    public HotVariantNotOwnedException(Collection<UUID> variantIds) {
+        super(String.format("Hot variants %s are reserved by another instance", variantIds));
+    }
+}
@@ -0,0 +1,12 @@
+package com.ecmsp.productservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class ReservationConflictException extends RuntimeException {
+
+    public ReservationConflictException(String operation, int attempts, Throwable cause) {
+        super(String.format("Reservation %s aborted after %d attempts because of concurrent transactions", operation, attempts), cause);
+    }
+}
@@ -0,0 +1,318 @@
+package com.ecmsp.productservice.kafka.publisher;
+
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaProductDeletedEvent;
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantDeletedEvent;
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantImageUpdatedEvent;
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantPriceChangedEvent;
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantStockChangedEvent;
+import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantSoldEvent;
+import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantStockUpdatedEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Binary encoding of the events, a fraction of the size of their JSON. Fields are written in the order of the record
+ * components, without names:
+ * <pre>
+ * message := version:u8 type:u8 field*
+ * id      := 0 (null) | 1 most:i64 least:i64 (UUID) | 2 string (any other text)
+ * string  := 0 (null) | length+1:varint utf8
+ * int     := 0 (null) | 1 value:zigzag-varint
+ * decimal := 0 (null) | 1 scale:zigzag-varint length:varint unscaled:two's-complement
+ * boolean := 0 (null) | 1 (false) | 2 (true)
+ * ids     := 0 (null) | count+1:varint id*
+ * </pre>
+ * Types: 1 variant price changed, 2 variant stock changed, 3 variant deleted, 4 product deleted, 5 variant image updated,
+ * 6 variant sold, 7 variant stock updated. Ids of the events are strings, so an id is stored as a UUID only if it
+ * reads back to the same string. Changing the fields of an event requires a new {@link #VERSION}.
+ */
+public final class CompactEventCodec {
+
+    public static final int VERSION = 1;
+    public static final String CONTENT_TYPE = "application/vnd.ecmsp.compact-event.v" + VERSION;
+
+    private static final int VARIANT_PRICE_CHANGED = 1;
+    private static final int VARIANT_STOCK_CHANGED = 2;
+    private static final int VARIANT_DELETED = 3;
+    private static final int PRODUCT_DELETED = 4;
+    private static final int VARIANT_IMAGE_UPDATED = 5;
+    private static final int VARIANT_SOLD = 6;
+    private static final int VARIANT_STOCK_UPDATED = 7;
+
+    private CompactEventCodec() {
+    }
+
+    public static byte[] encode(Object event) {
+        Writer writer = new Writer();
+        writer.writeByte(VERSION);
+        switch (event) {
+            case KafkaVariantPriceChangedEvent e -> {
+                writer.writeByte(VARIANT_PRICE_CHANGED);
+                writer.writeId(e.variantId());
+                writer.writeDecimal(e.oldPrice());
+                writer.writeDecimal(e.newPrice());
+            }
+            case KafkaVariantStockChangedEvent e -> {
+                writer.writeByte(VARIANT_STOCK_CHANGED);
+                writer.writeId(e.variantId());
+                writer.writeInt(e.stockQuantity());
+                writer.writeBoolean(e.isAvailable());
+            }
+            case KafkaVariantDeletedEvent e -> {
+                writer.writeByte(VARIANT_DELETED);
+                writer.writeId(e.variantId());
+                writer.writeId(e.productId());
+            }
+            case KafkaProductDeletedEvent e -> {
+                writer.writeByte(PRODUCT_DELETED);
+                writer.writeId(e.productId());
+                writer.writeIds(e.variantIds());
+            }
+            case KafkaVariantImageUpdatedEvent e -> {
+                writer.writeByte(VARIANT_IMAGE_UPDATED);
+                writer.writeId(e.variantId());
+                writer.writeString(e.imageUrl());
+            }
+            case KafkaVariantSoldEvent e -> {
+                writer.writeByte(VARIANT_SOLD);
+                writer.writeId(e.eventId());
+                writer.writeId(e.variantId());
+                writer.writeId(e.productId());
+                writer.writeString(e.productName());
+                writer.writeDecimal(e.soldAt());
+                writer.writeInt(e.quantitySold());
+                writer.writeDecimal(e.margin());
+                writer.writeInt(e.stockRemaining());
+            }
+            case KafkaVariantStockUpdatedEvent e -> {
+                writer.writeByte(VARIANT_STOCK_UPDATED);
+                writer.writeId(e.eventId());
+                writer.writeId(e.variantId());
+                writer.writeInt(e.deliveredQuantity());
+                writer.writeString(e.deliveredAt());
+            }
+            default -> throw new IllegalArgumentException("Unknown event type: " + event.getClass().getName());
+        }
+        return writer.toByteArray();
+    }
+
+    public static Object decode(byte[] payload) {
+        Reader reader = new Reader(ByteBuffer.wrap(payload));
+        int version = reader.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported compact event version: " + version);
+        }
+
+        int type = reader.readByte();
+        return switch (type) {
+            case VARIANT_PRICE_CHANGED -> new KafkaVariantPriceChangedEvent(
+                    reader.readId(), reader.readDecimal(), reader.readDecimal());
+            case VARIANT_STOCK_CHANGED -> new KafkaVariantStockChangedEvent(
+                    reader.readId(), reader.readInt(), reader.readBoolean());
+            case VARIANT_DELETED -> new KafkaVariantDeletedEvent(
+                    reader.readId(), reader.readId());
+            case PRODUCT_DELETED -> new KafkaProductDeletedEvent(
+                    reader.readId(), reader.readIds());
+            case VARIANT_IMAGE_UPDATED -> new KafkaVariantImageUpdatedEvent(
+                    reader.readId(), reader.readString());
+            case VARIANT_SOLD -> new KafkaVariantSoldEvent(
+                    reader.readId(), reader.readId(), reader.readId(), reader.readString(),
+                    reader.readDecimal(), reader.readInt(), reader.readDecimal(), reader.readInt());
+            case VARIANT_STOCK_UPDATED -> new KafkaVariantStockUpdatedEvent(
+                    reader.readId(), reader.readId(), reader.readInt(), reader.readString());
+            default -> throw new IllegalArgumentException("Unknown compact event type: " + type);
+        };
+    }
+
+    private static final class Writer {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+
+        void writeByte(int value) {
+            out.write(value);
+        }
+
+        void writeId(String id) {
+            if (id == null) {
+                writeByte(0);
+                return;
+            }
+
+            UUID uuid = parseUuid(id);
+            if (uuid == null) {
+                writeByte(2);
+                writeString(id);
+                return;
+            }
+            writeByte(1);
+            writeLong(uuid.getMostSignificantBits());
+            writeLong(uuid.getLeastSignificantBits());
+        }
+
+        void writeIds(List<String> ids) {
+            if (ids == null) {
+                writeByte(0);
+                return;
+            }
+            writeVarint(ids.size() + 1L);
+            ids.forEach(this::writeId);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeByte(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            out.writeBytes(bytes);
+        }
+
+        void writeInt(Integer value) {
+            if (value == null) {
+                writeByte(0);
+                return;
+            }
+            writeByte(1);
+            writeVarint(zigzag(value));
+        }
+
+        void writeDecimal(BigDecimal value) {
+            if (value == null) {
+                writeByte(0);
+                return;
+            }
+            byte[] unscaled = value.unscaledValue().toByteArray();
+            writeByte(1);
+            writeVarint(zigzag(value.scale()));
+            writeVarint(unscaled.length);
+            out.writeBytes(unscaled);
+        }
+
+        void writeBoolean(Boolean value) {
+            writeByte(value == null ? 0 : value ? 2 : 1);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (value >>> shift));
+            }
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        private static long zigzag(int value) {
+            return Integer.toUnsignedLong((value << 1) ^ (value >> 31));
+        }
+
+        private static UUID parseUuid(String id) {
+            try {
+                UUID uuid = UUID.fromString(id);
+                return uuid.toString().equals(id) ? uuid : null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final ByteBuffer in;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        int readByte() {
+            return in.get() & 0xFF;
+        }
+
+        String readId() {
+            return switch (readByte()) {
+                case 0 -> null;
+                case 1 -> new UUID(in.getLong(), in.getLong()).toString();
+                case 2 -> readString();
+                default -> throw new IllegalArgumentException("Malformed compact event id");
+            };
+        }
+
+        List<String> readIds() {
+            int count = (int) readVarint() - 1;
+            if (count < 0) {
+                return null;
+            }
+            List<String> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(readId());
+            }
+            return ids;
+        }
+
+        String readString() {
+            int length = (int) readVarint() - 1;
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        Integer readInt() {
+            return readByte() == 0 ? null : unzigzag(readVarint());
+        }
+
+        BigDecimal readDecimal() {
+            if (readByte() == 0) {
+                return null;
+            }
+            int scale = unzigzag(readVarint());
+            byte[] unscaled = new byte[(int) readVarint()];
+            in.get(unscaled);
+            return new BigDecimal(new BigInteger(unscaled), scale);
+        }
+
+        Boolean readBoolean() {
+            return switch (readByte()) {
+                case 0 -> null;
+                case 1 -> false;
+                case 2 -> true;
+                default -> throw new IllegalArgumentException("Malformed compact event boolean");
+            };
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed compact event varint");
+        }
+
+        private static int unzigzag(long value) {
+            int n = (int) value;
+            return (n >>> 1) ^ -(n & 1);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.ecmsp.productservice.kafka.publisher;
+
+/**
+ * Wire format of an event payload. Messages carry it in the {@value #CONTENT_TYPE_HEADER} header, so consumers can
+ * tell the formats apart while they migrate; a message without the header is JSON.
+ */
+public enum EventPayloadFormat {
+
+    JSON("application/json"),
+    /**
+     * See {@link CompactEventCodec}.
+     */
+    COMPACT(CompactEventCodec.CONTENT_TYPE);
+
+    public static final String CONTENT_TYPE_HEADER = "content-type";
+
+    private final String contentType;
+
+    EventPayloadFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,7 @@
+package com.ecmsp.productservice.kafka.publisher;
+
+/**
+ * Kafka topic and message key an event is published with.
+ */
+public record EventRoute(String topic, String key) {
+}
@@ -1,10 +1,14 @@
 package com.ecmsp.productservice.kafka.publisher.cart;
 
+import com.ecmsp.productservice.kafka.publisher.EventRoute;
 import com.ecmsp.productservice.kafka.publisher.cart.events.*;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.util.concurrent.CompletableFuture;
 
 
 public class KafkaCartEventPublisher {
@@ -53,32 +57,31 @@ public class KafkaCartEventPublisher {
 
 
 
-    public void publish(CartEvent event){
-        switch (event){
-            case KafkaVariantPriceChangedEvent variantPriceChangedEvent -> {
-                sendEvent(variantPriceChangedTopic, variantPriceChangedEvent.variantId(), variantPriceChangedEvent);
-            }
-            case KafkaVariantStockChangedEvent variantStockChangedEvent -> {
-                sendEvent(variantStockChangedTopic, variantStockChangedEvent.variantId(), variantStockChangedEvent);
-            }
-            case KafkaVariantDeletedEvent variantDeletedEvent -> {
-                sendEvent(variantDeletedTopic, variantDeletedEvent.variantId(), variantDeletedEvent);
-            }
-            case KafkaProductDeletedEvent productDeletedEvent -> {
-                sendEvent(productDeletedTopic, productDeletedEvent.productId(), productDeletedEvent);
-            }
-            case KafkaVariantImageUpdatedEvent variantImageUpdatedEvent -> {
-                sendEvent(variantImageUpdatedTopic, variantImageUpdatedEvent.variantId(), variantImageUpdatedEvent);
-            }
-        }
+    public CompletableFuture<SendResult<String, String>> publish(CartEvent event){
+        EventRoute route = route(event);
+        return sendEvent(route.topic(), route.key(), event);
+    }
 
+    public EventRoute route(CartEvent event){
+        return switch (event){
+            case KafkaVariantPriceChangedEvent variantPriceChangedEvent ->
+                    new EventRoute(variantPriceChangedTopic, variantPriceChangedEvent.variantId());
+            case KafkaVariantStockChangedEvent variantStockChangedEvent ->
+                    new EventRoute(variantStockChangedTopic, variantStockChangedEvent.variantId());
+            case KafkaVariantDeletedEvent variantDeletedEvent ->
+                    new EventRoute(variantDeletedTopic, variantDeletedEvent.variantId());
+            case KafkaProductDeletedEvent productDeletedEvent ->
+                    new EventRoute(productDeletedTopic, productDeletedEvent.productId());
+            case KafkaVariantImageUpdatedEvent variantImageUpdatedEvent ->
+                    new EventRoute(variantImageUpdatedTopic, variantImageUpdatedEvent.variantId());
+        };
     }
 
 
-    private void sendEvent(String topic, String key, Object event) {
+    private CompletableFuture<SendResult<String, String>> sendEvent(String topic, String key, Object event) {
         try {
             String eventJson = objectMapper.writeValueAsString(event);
-            kafkaTemplate.send(topic, key, eventJson);
+            return kafkaTemplate.send(topic, key, eventJson);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("Failed to serialize event", e);
         }
@@ -1,5 +1,6 @@
 package com.ecmsp.productservice.kafka.publisher.statistics;
 
+import com.ecmsp.productservice.kafka.publisher.EventRoute;
 import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantSoldEvent;
 import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantStockUpdatedEvent;
 import com.ecmsp.productservice.kafka.publisher.statistics.events.StatisticsEvent;
@@ -7,6 +8,9 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.util.concurrent.CompletableFuture;
 
 
 public class KafkaStatisticsEventPublisher {
@@ -29,21 +33,24 @@ public class KafkaStatisticsEventPublisher {
         this.objectMapper = objectMapper;
     }
 
-    public void publish(StatisticsEvent event) {
-        switch (event) {
-            case KafkaVariantSoldEvent variantSoldEvent -> {
-                sendEvent(variantSoldTopic, variantSoldEvent.eventId(), variantSoldEvent);
-            }
-            case KafkaVariantStockUpdatedEvent variantStockUpdatedEvent -> {
-                sendEvent(variantStockUpdatedTopic, variantStockUpdatedEvent.eventId(), variantStockUpdatedEvent);
-            }
-        }
+    public CompletableFuture<SendResult<String, String>> publish(StatisticsEvent event) {
+        EventRoute route = route(event);
+        return sendEvent(route.topic(), route.key(), event);
+    }
+
+    public EventRoute route(StatisticsEvent event) {
+        return switch (event) {
+            case KafkaVariantSoldEvent variantSoldEvent ->
+                    new EventRoute(variantSoldTopic, variantSoldEvent.eventId());
+            case KafkaVariantStockUpdatedEvent variantStockUpdatedEvent ->
+                    new EventRoute(variantStockUpdatedTopic, variantStockUpdatedEvent.eventId());
+        };
     }
 
-    private void sendEvent(String topic, String key, Object event) {
+    private CompletableFuture<SendResult<String, String>> sendEvent(String topic, String key, Object event) {
         try {
             String eventJson = objectMapper.writeValueAsString(event);
-            kafkaTemplate.send(topic, key, eventJson);
+            return kafkaTemplate.send(topic, key, eventJson);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("Failed to serialize event", e);
         }
@@ -28,9 +28,20 @@ class Outbox {
     @JdbcTypeCode(SqlTypes.LONGVARCHAR)
     private String payload;
 
+    // Payload of events in a format other than JSON; see EventPayloadFormat
+    @Column(name = "payload_bytes")
+    private byte[] payloadBytes;
+
+    @Column(name = "content_type")
+    private String contentType;
+
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt;
 
+    // Assigned by the database when the event is written; orders events of the same createdAt
+    @Column(name = "sequence_number", insertable = false, updatable = false)
+    private Long sequenceNumber;
+
     @Column(name = "processed", nullable = false)
     @Builder.Default
     private boolean processed = false;
@@ -38,7 +49,38 @@ class Outbox {
     @Column(name = "processed_at")
     private LocalDateTime processedAt;
 
+    // Processed without being published, because a newer event for the same variant replaced it
+    @Column(name = "superseded", nullable = false)
+    @Builder.Default
+    private boolean superseded = false;
+
+    // Set while a processor instance holds the event; once it passes, another instance may claim the event again
+    @Column(name = "locked_until")
+    private LocalDateTime lockedUntil;
+
+    // Failed publish attempts; the event is not claimed again before nextAttemptAt
+    @Column(name = "attempts", nullable = false)
+    @Builder.Default
+    private int attempts = 0;
+
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    // Processed without being published, because it failed too many times
+    @Column(name = "dead_lettered", nullable = false)
+    @Builder.Default
+    private boolean deadLettered = false;
+
 
     @Column(name = "event_type", nullable = false)
     private String eventType;
+
+    @Column(name = "topic")
+    private String topic;
+
+    @Column(name = "message_key")
+    private String messageKey;
 }
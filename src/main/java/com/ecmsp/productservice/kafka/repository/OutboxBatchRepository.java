@@ -0,0 +1,259 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * JDBC statements on {@code kafka_outbox}: batch writes, used when a single business operation emits many events,
+ * and claiming of unprocessed events by processor instances.
+ */
+@Repository
+class OutboxBatchRepository {
+
+    private static final String INSERT_SQL = """
+            INSERT INTO kafka_outbox (event_id, payload, payload_bytes, content_type, created_at, processed, event_type, topic, message_key)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    // An event is not claimed while an earlier event with its key is leased or waiting to be retried, so events of a key
+    // are published in order even when an earlier one failed or is being published by another instance. Events created
+    // at the same time are ordered by the sequence number they were written with.
+    private static final String CLAIMABLE_CONDITION = """
+            candidate.processed = FALSE
+            AND (candidate.locked_until IS NULL OR candidate.locked_until < ?)
+            AND (candidate.next_attempt_at IS NULL OR candidate.next_attempt_at <= ?)
+            AND NOT EXISTS (
+                SELECT 1
+                FROM kafka_outbox earlier
+                WHERE earlier.message_key = candidate.message_key
+                  AND earlier.processed = FALSE
+                  AND (earlier.locked_until >= ? OR earlier.next_attempt_at > ?)
+                  AND (earlier.created_at, earlier.sequence_number) < (candidate.created_at, candidate.sequence_number)
+            )
+            """;
+
+    // The claim only sees leases committed before it started, so an instance still claiming the earliest event of a key
+    // would go unnoticed. Claimers therefore first lock the keys they are about to claim, skipping keys another claimer
+    // holds until it commits. The LIMIT keeps the lock function from running on more rows than the batch needs.
+    private static final String LOCK_KEYS_SQL = """
+            SELECT claimable.message_key
+            FROM (
+                SELECT DISTINCT batch.message_key
+                FROM (
+                    SELECT candidate.message_key
+                    FROM kafka_outbox candidate
+                    WHERE %s
+                    ORDER BY candidate.created_at, candidate.sequence_number
+                    LIMIT ?
+                ) batch
+                WHERE batch.message_key IS NOT NULL
+            ) claimable
+            WHERE pg_try_advisory_xact_lock(hashtext('kafka_outbox'), hashtext(claimable.message_key))
+            """.formatted(CLAIMABLE_CONDITION);
+
+    // Runs with a snapshot taken after the keys were locked, so it sees the leases of claimers that held them.
+    // SKIP LOCKED lets instances claiming at the same time take disjoint batches instead of waiting on each other.
+    private static final String CLAIM_SQL = """
+            UPDATE kafka_outbox o
+            SET locked_until = ?
+            WHERE o.event_id IN (
+                SELECT candidate.event_id
+                FROM kafka_outbox candidate
+                WHERE %s
+                  AND (candidate.message_key IS NULL OR candidate.message_key = ANY(CAST(? AS text[])))
+                ORDER BY candidate.created_at, candidate.sequence_number
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING o.event_id, o.payload, o.payload_bytes, o.content_type, o.created_at, o.sequence_number, o.processed,
+                      o.processed_at, o.locked_until, o.attempts, o.event_type, o.topic, o.message_key
+            """.formatted(CLAIMABLE_CONDITION);
+
+    private static final String MARK_PROCESSED_SQL = """
+            UPDATE kafka_outbox o
+            SET processed = TRUE,
+                processed_at = ?,
+                locked_until = NULL
+            WHERE o.event_id = ANY(CAST(? AS uuid[]))
+            """;
+
+    private static final String MARK_SUPERSEDED_SQL = """
+            UPDATE kafka_outbox o
+            SET processed = TRUE,
+                superseded = TRUE,
+                processed_at = ?,
+                locked_until = NULL
+            WHERE o.event_id = ANY(CAST(? AS uuid[]))
+            """;
+
+    // Failed events are released for their next attempt, or dead-lettered on their last one
+    private static final String RECORD_FAILURES_SQL = """
+            UPDATE kafka_outbox o
+            SET attempts = o.attempts + 1,
+                last_error = failure.error,
+                locked_until = NULL,
+                next_attempt_at = CAST(? AS timestamp) + LEAST(? * power(2, LEAST(o.attempts, 30)), ?) * INTERVAL '1 millisecond',
+                dead_lettered = o.attempts + 1 >= ?,
+                processed = o.attempts + 1 >= ?,
+                processed_at = CASE WHEN o.attempts + 1 >= ? THEN CAST(? AS timestamp) END
+            FROM unnest(CAST(? AS uuid[]), CAST(? AS text[])) AS failure(event_id, error)
+            WHERE o.event_id = failure.event_id
+            RETURNING o.event_id, o.dead_lettered
+            """;
+
+    private static final String RELEASE_LEASES_SQL = """
+            UPDATE kafka_outbox o
+            SET locked_until = NULL
+            WHERE o.event_id = ANY(CAST(? AS uuid[]))
+            """;
+
+    private static final String FIND_BACKLOG_SQL = """
+            SELECT COUNT(*) AS events, MIN(o.created_at) AS oldest_created_at
+            FROM kafka_outbox o
+            WHERE o.processed = FALSE
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    OutboxBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    void insertAll(List<Outbox> events) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, events, events.size(), (ps, event) -> {
+            ps.setObject(1, event.getEventId());
+            ps.setString(2, event.getPayload());
+            ps.setBytes(3, event.getPayloadBytes());
+            ps.setString(4, event.getContentType());
+            ps.setTimestamp(5, Timestamp.valueOf(event.getCreatedAt()));
+            ps.setBoolean(6, event.isProcessed());
+            ps.setString(7, event.getEventType());
+            ps.setString(8, event.getTopic());
+            ps.setString(9, event.getMessageKey());
+        });
+    }
+
+    /**
+     * Leases up to {@code limit} of the oldest unprocessed events that are not leased by another instance and do not
+     * wait behind a leased or failed event of their key. Events waiting for their next attempt are skipped. Must be
+     * called within a transaction, which holds the keys of the claimed events until the leases are committed.
+     * @return claimed events, oldest first
+     */
+    List<Outbox> claim(LocalDateTime now, LocalDateTime lockedUntil, int limit) {
+        List<String> lockedKeys = jdbcTemplate.query(
+                LOCK_KEYS_SQL,
+                ps -> {
+                    setClaimableParameters(ps, 1, now);
+                    ps.setInt(5, limit);
+                },
+                (rs, rowNum) -> rs.getString("message_key")
+        );
+
+        List<Outbox> claimed = jdbcTemplate.query(
+                CLAIM_SQL,
+                ps -> {
+                    ps.setTimestamp(1, Timestamp.valueOf(lockedUntil));
+                    setClaimableParameters(ps, 2, now);
+                    ps.setArray(6, ps.getConnection().createArrayOf("text", lockedKeys.toArray()));
+                    ps.setInt(7, limit);
+                },
+                (rs, rowNum) -> Outbox.builder()
+                        .eventId(rs.getObject("event_id", UUID.class))
+                        .payload(rs.getString("payload"))
+                        .payloadBytes(rs.getBytes("payload_bytes"))
+                        .contentType(rs.getString("content_type"))
+                        .createdAt(rs.getTimestamp("created_at").toLocalDateTime())
+                        .sequenceNumber(rs.getLong("sequence_number"))
+                        .processed(rs.getBoolean("processed"))
+                        .processedAt(toLocalDateTime(rs.getTimestamp("processed_at")))
+                        .lockedUntil(toLocalDateTime(rs.getTimestamp("locked_until")))
+                        .attempts(rs.getInt("attempts"))
+                        .eventType(rs.getString("event_type"))
+                        .topic(rs.getString("topic"))
+                        .messageKey(rs.getString("message_key"))
+                        .build()
+        );
+
+        return claimed.stream()
+                .sorted(Comparator.comparing(Outbox::getCreatedAt).thenComparing(Outbox::getSequenceNumber))
+                .toList();
+    }
+
+    private static void setClaimableParameters(PreparedStatement ps, int firstIndex, LocalDateTime now) throws SQLException {
+        for (int i = 0; i < 4; i++) {
+            ps.setTimestamp(firstIndex + i, Timestamp.valueOf(now));
+        }
+    }
+
+    int markProcessed(List<UUID> eventIds, LocalDateTime processedAt) {
+        return jdbcTemplate.update(MARK_PROCESSED_SQL, ps -> {
+            ps.setTimestamp(1, Timestamp.valueOf(processedAt));
+            ps.setArray(2, ps.getConnection().createArrayOf("uuid", eventIds.toArray()));
+        });
+    }
+
+    int markSuperseded(List<UUID> eventIds, LocalDateTime processedAt) {
+        return jdbcTemplate.update(MARK_SUPERSEDED_SQL, ps -> {
+            ps.setTimestamp(1, Timestamp.valueOf(processedAt));
+            ps.setArray(2, ps.getConnection().createArrayOf("uuid", eventIds.toArray()));
+        });
+    }
+
+    /**
+     * Counts a failed attempt of each event and schedules its next attempt.
+     * @param failures error of each failed event
+     * @return events dead-lettered because this was their last attempt
+     */
+    List<UUID> recordFailures(Map<UUID, String> failures, OutboxRetrySchedule retrySchedule, LocalDateTime now) {
+        List<UUID> eventIds = List.copyOf(failures.keySet());
+        List<String> errors = eventIds.stream().map(failures::get).toList();
+
+        return jdbcTemplate.query(
+                RECORD_FAILURES_SQL,
+                ps -> {
+                    ps.setTimestamp(1, Timestamp.valueOf(now));
+                    ps.setLong(2, retrySchedule.initialBackoff().toMillis());
+                    ps.setLong(3, retrySchedule.maxBackoff().toMillis());
+                    ps.setInt(4, retrySchedule.maxAttempts());
+                    ps.setInt(5, retrySchedule.maxAttempts());
+                    ps.setInt(6, retrySchedule.maxAttempts());
+                    ps.setTimestamp(7, Timestamp.valueOf(now));
+                    ps.setArray(8, ps.getConnection().createArrayOf("uuid", eventIds.toArray()));
+                    ps.setArray(9, ps.getConnection().createArrayOf("text", errors.toArray()));
+                },
+                (rs, rowNum) -> rs.getBoolean("dead_lettered") ? rs.getObject("event_id", UUID.class) : null
+        ).stream().filter(Objects::nonNull).toList();
+    }
+
+    int releaseLeases(List<UUID> eventIds) {
+        return jdbcTemplate.update(RELEASE_LEASES_SQL, ps ->
+                ps.setArray(1, ps.getConnection().createArrayOf("uuid", eventIds.toArray())));
+    }
+
+    OutboxBacklog findBacklog() {
+        return jdbcTemplate.queryForObject(FIND_BACKLOG_SQL, (rs, rowNum) -> new OutboxBacklog(
+                rs.getLong("events"),
+                toLocalDateTime(rs.getTimestamp("oldest_created_at"))
+        ));
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+
+    /**
+     * Unprocessed events, including ones waiting for their next attempt.
+     */
+    record OutboxBacklog(long events, LocalDateTime oldestCreatedAt) {
+    }
+}
@@ -0,0 +1,78 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Worker lanes publishing outbox events in parallel. The lane of an event is chosen by its message key, so events
+ * with the same key are sent one after another in the order they were dispatched, while events with other keys are
+ * sent by the other lanes at the same time. Each lane has a bounded queue, and an event for a full lane is refused
+ * instead of blocking the dispatcher, so one busy key cannot hold up the rest of the stream.
+ */
+@Component
+class OutboxDispatchLanes {
+
+    private final List<ThreadPoolExecutor> lanes;
+    private final Counter rejectedCounter;
+
+    OutboxDispatchLanes(
+            MeterRegistry meterRegistry,
+            @Value("${product.outbox.lanes:4}") int laneCount,
+            @Value("${product.outbox.lane-queue-depth:200}") int queueDepth) {
+        this.lanes = IntStream.range(0, laneCount)
+                .mapToObj(lane -> {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                            1, 1, 0, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(queueDepth),
+                            Thread.ofPlatform().name("outbox-lane-" + lane).daemon().factory());
+                    Gauge.builder("product.outbox.lane.queue.size", executor, laneExecutor -> laneExecutor.getQueue().size())
+                            .description("Outbox events waiting to be sent by the lane")
+                            .tag("lane", String.valueOf(lane))
+                            .register(meterRegistry);
+                    return executor;
+                })
+                .toList();
+
+        this.rejectedCounter = Counter.builder("product.outbox.lane.rejected")
+                .description("Outbox events refused because their lane queue was full")
+                .register(meterRegistry);
+        Gauge.builder("product.outbox.lanes", lanes, List::size)
+                .description("Outbox dispatch lanes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs the send on the lane of the key.
+     * @return the future of the send, completed once the broker acknowledged it
+     * @throws RejectedExecutionException when the queue of the lane is full
+     */
+    <T> CompletableFuture<T> dispatch(String key, Supplier<CompletableFuture<T>> send) {
+        ThreadPoolExecutor lane = lanes.get(Math.floorMod(key.hashCode(), lanes.size()));
+        try {
+            return CompletableFuture.supplyAsync(send, lane).thenCompose(Function.identity());
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lanes.forEach(ExecutorService::shutdownNow);
+    }
+}
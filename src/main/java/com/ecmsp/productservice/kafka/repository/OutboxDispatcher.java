@@ -0,0 +1,187 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+/**
+ * Runs the {@link OutboxEventProcessor} on a dedicated thread. The thread listens on the {@code kafka_outbox}
+ * channel, which an insert trigger notifies on commit, so new events are published right away instead of on the
+ * next poll. While the processor reports a backlog it runs again without waiting. When idle it waits for a
+ * notification, or at most the poll interval, which doubles after every empty run up to the maximum; the poll
+ * picks up events whose lease ran out and covers the time the listen connection is down. Like the scheduler it
+ * replaces, the dispatcher starts once the context is refreshed and stops before any bean is destroyed.
+ */
+@Component
+@Slf4j
+class OutboxDispatcher implements SmartLifecycle {
+
+    private static final String CHANNEL = "kafka_outbox";
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(10);
+
+    private final OutboxEventProcessor outboxEventProcessor;
+    private final DataSourceProperties dataSourceProperties;
+    private final boolean listenEnabled;
+    private final Duration minPollInterval;
+    private final Duration maxPollInterval;
+
+    private volatile Thread dispatcherThread;
+    private volatile Connection listenConnection;
+    private boolean listenFailing;
+
+    OutboxDispatcher(
+            OutboxEventProcessor outboxEventProcessor,
+            DataSourceProperties dataSourceProperties,
+            @Value("${product.outbox.listen.enabled:true}") boolean listenEnabled,
+            @Value("${product.outbox.min-poll-interval:100ms}") Duration minPollInterval,
+            @Value("${product.outbox.max-poll-interval:2s}") Duration maxPollInterval) {
+        this.outboxEventProcessor = outboxEventProcessor;
+        this.dataSourceProperties = dataSourceProperties;
+        this.listenEnabled = listenEnabled;
+        this.minPollInterval = minPollInterval;
+        this.maxPollInterval = maxPollInterval;
+    }
+
+    @Override
+    public void start() {
+        dispatcherThread = Thread.ofPlatform()
+                .name("outbox-dispatcher")
+                .daemon()
+                .start(this::run);
+    }
+
+    @Override
+    public void stop() {
+        Thread thread = dispatcherThread;
+        if (thread == null) {
+            return;
+        }
+
+        thread.interrupt();
+        closeListenConnection();
+        try {
+            thread.join(SHUTDOWN_TIMEOUT.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatcherThread = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return dispatcherThread != null;
+    }
+
+    private void run() {
+        long pollIntervalMillis = minPollInterval.toMillis();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            if (outboxEventProcessor.processOutboxEvents()) {
+                pollIntervalMillis = minPollInterval.toMillis();
+                continue;
+            }
+
+            try {
+                if (awaitNotification(pollIntervalMillis)) {
+                    pollIntervalMillis = minPollInterval.toMillis();
+                } else {
+                    pollIntervalMillis = Math.min(pollIntervalMillis * 2, maxPollInterval.toMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        closeListenConnection();
+    }
+
+    /**
+     * Waits for an insert notification, or sleeps through the interval when there is no listen connection.
+     * @return whether a notification arrived
+     */
+    private boolean awaitNotification(long timeoutMillis) throws InterruptedException {
+        Connection connection = listenConnection();
+        if (connection == null) {
+            Thread.sleep(timeoutMillis);
+            return false;
+        }
+
+        try {
+            PGNotification[] notifications = connection.unwrap(PGConnection.class).getNotifications((int) Math.max(timeoutMillis, 1));
+            return notifications != null && notifications.length > 0;
+        } catch (SQLException e) {
+            if (!Thread.currentThread().isInterrupted()) {
+                log.warn("Outbox listen connection lost - falling back to polling: {}", e.getMessage());
+            }
+            closeListenConnection();
+            Thread.sleep(timeoutMillis);
+            return false;
+        }
+    }
+
+    /**
+     * @return the listen connection, reconnecting if it was lost, or null when listening is disabled or unavailable
+     */
+    private Connection listenConnection() {
+        if (!listenEnabled || listenConnection != null) {
+            return listenConnection;
+        }
+
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(
+                    dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(),
+                    dataSourceProperties.determinePassword());
+            connection.unwrap(PGConnection.class);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + CHANNEL);
+            }
+            listenConnection = connection;
+            listenFailing = false;
+            // A stop while connecting found no connection to close, and getNotifications does not see the interrupt
+            if (Thread.currentThread().isInterrupted()) {
+                closeListenConnection();
+                return null;
+            }
+            log.info("Listening for outbox events on channel {}", CHANNEL);
+        } catch (SQLException | RuntimeException e) {
+            // Reconnecting is attempted on every poll, so only the first failure of a streak is worth a warning
+            if (!listenFailing) {
+                log.warn("Cannot listen for outbox events - polling instead: {}", e.getMessage());
+            } else {
+                log.debug("Cannot listen for outbox events: {}", e.getMessage());
+            }
+            listenFailing = true;
+            close(connection);
+        }
+        return listenConnection;
+    }
+
+    private void closeListenConnection() {
+        Connection connection = listenConnection;
+        listenConnection = null;
+        close(connection);
+    }
+
+    private static void close(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Failed to close outbox listen connection", e);
+        }
+    }
+}
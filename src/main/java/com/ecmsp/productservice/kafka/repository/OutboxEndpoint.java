@@ -0,0 +1,25 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.kafka.repository.OutboxMetrics.OutboxSnapshot;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code /actuator/outbox}: backlog, publish rate and per event type counts and latency of the outbox in one read.
+ */
+@Component
+@Endpoint(id = "outbox")
+class OutboxEndpoint {
+
+    private final OutboxMetrics outboxMetrics;
+
+    OutboxEndpoint(OutboxMetrics outboxMetrics) {
+        this.outboxMetrics = outboxMetrics;
+    }
+
+    @ReadOperation
+    public OutboxSnapshot outbox() {
+        return outboxMetrics.snapshot();
+    }
+}
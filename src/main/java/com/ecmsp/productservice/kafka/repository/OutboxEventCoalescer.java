@@ -0,0 +1,61 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantPriceChangedEvent;
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantStockChangedEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drops events superseded within a claimed batch. Events of the types below carry the latest value of a variant, so
+ * consumers only need the newest one per variant; every other event, such as a sale, is kept as it is.
+ */
+final class OutboxEventCoalescer {
+
+    private static final Set<String> LATEST_VALUE_EVENT_TYPES = Set.of(
+            KafkaVariantStockChangedEvent.class.getName(),
+            KafkaVariantPriceChangedEvent.class.getName()
+    );
+
+    private OutboxEventCoalescer() {
+    }
+
+    /**
+     * @param events claimed events, oldest first
+     * @return events to publish, in their original order, and the events superseded by a newer one
+     */
+    static CoalescedBatch coalesce(List<Outbox> events) {
+        Map<LatestValueKey, Outbox> newestEvents = new HashMap<>();
+        for (Outbox event : events) {
+            if (isLatestValue(event)) {
+                newestEvents.put(new LatestValueKey(event.getEventType(), event.getMessageKey()), event);
+            }
+        }
+
+        List<Outbox> published = new ArrayList<>();
+        List<Outbox> superseded = new ArrayList<>();
+        for (Outbox event : events) {
+            if (isLatestValue(event) && newestEvents.get(new LatestValueKey(event.getEventType(), event.getMessageKey())) != event) {
+                superseded.add(event);
+            } else {
+                published.add(event);
+            }
+        }
+
+        return new CoalescedBatch(published, superseded);
+    }
+
+    private static boolean isLatestValue(Outbox event) {
+        // Events stored before their key was resolved cannot be told apart per variant without reading them
+        return event.getMessageKey() != null && LATEST_VALUE_EVENT_TYPES.contains(event.getEventType());
+    }
+
+    record CoalescedBatch(List<Outbox> published, List<Outbox> superseded) {
+    }
+
+    private record LatestValueKey(String eventType, String messageKey) {
+    }
+}
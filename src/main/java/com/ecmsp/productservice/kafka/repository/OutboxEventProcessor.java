@@ -3,76 +3,271 @@ import com.ecmsp.productservice.kafka.publisher.cart.KafkaCartEventPublisher;
 import com.ecmsp.productservice.kafka.publisher.cart.events.CartEvent;
 import com.ecmsp.productservice.kafka.publisher.statistics.KafkaStatisticsEventPublisher;
 import com.ecmsp.productservice.kafka.publisher.statistics.events.StatisticsEvent;
+import com.ecmsp.productservice.kafka.repository.OutboxEventCoalescer.CoalescedBatch;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Publishes outbox events, run by the {@link OutboxDispatcher}. Every run claims bounded batches of events, so several
+ * instances can share the backlog without publishing the same event twice, and a large backlog never has to be loaded
+ * at once. Events are sent by the {@link OutboxDispatchLanes}, in order per message key. An event is marked processed
+ * only once the broker acknowledged it; one that fails to publish is claimed again after a growing backoff, and is
+ * dead-lettered once it failed too many times, so a poison event stops taking up batches.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 class OutboxEventProcessor {
 
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final IllegalStateException HELD_BACK = new IllegalStateException("An earlier event with the same key was not sent");
+
     private final OutboxService outboxService;
     private final KafkaCartEventPublisher cartEventPublisher;
     private final KafkaStatisticsEventPublisher statisticsEventPublisher;
     private final ObjectMapper objectMapper;
+    private final OutboxMessageSender outboxMessageSender;
+    private final OutboxDispatchLanes outboxDispatchLanes;
+    private final OutboxMetrics outboxMetrics;
+    private final int batchSize;
+    private final Duration leaseTimeout;
+    private final Duration ackTimeout;
+    private final int maxBatchesPerRun;
+    private final OutboxRetrySchedule retrySchedule;
+
+    OutboxEventProcessor(
+            OutboxService outboxService,
+            KafkaCartEventPublisher cartEventPublisher,
+            KafkaStatisticsEventPublisher statisticsEventPublisher,
+            ObjectMapper objectMapper,
+            OutboxMessageSender outboxMessageSender,
+            OutboxDispatchLanes outboxDispatchLanes,
+            OutboxMetrics outboxMetrics,
+            @Value("${product.outbox.batch-size:100}") int batchSize,
+            @Value("${product.outbox.lease-timeout:30s}") Duration leaseTimeout,
+            @Value("${product.outbox.ack-timeout:10s}") Duration ackTimeout,
+            @Value("${product.outbox.max-batches-per-run:10}") int maxBatchesPerRun,
+            @Value("${product.outbox.retry.max-attempts:10}") int maxAttempts,
+            @Value("${product.outbox.retry.initial-backoff:1s}") Duration initialBackoff,
+            @Value("${product.outbox.retry.max-backoff:5m}") Duration maxBackoff) {
+        this.outboxService = outboxService;
+        this.cartEventPublisher = cartEventPublisher;
+        this.statisticsEventPublisher = statisticsEventPublisher;
+        this.objectMapper = objectMapper;
+        this.outboxMessageSender = outboxMessageSender;
+        this.outboxDispatchLanes = outboxDispatchLanes;
+        this.outboxMetrics = outboxMetrics;
+        this.batchSize = batchSize;
+        this.leaseTimeout = leaseTimeout;
+        this.ackTimeout = ackTimeout;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.retrySchedule = new OutboxRetrySchedule(maxAttempts, initialBackoff, maxBackoff);
+    }
 
-    @Scheduled(fixedDelay = 2000)
-    public void processOutboxEvents() {
+    /**
+     * @return whether the run ended on a full batch, so more events are likely waiting
+     */
+    public boolean processOutboxEvents() {
         try {
-            List<Outbox> unprocessedEvents = outboxService.getUnprocessedEvents();
+            int batches = 0;
+            boolean fullBatch = true;
 
-            if (unprocessedEvents.isEmpty()) {
-                return;
-            }
+            while (fullBatch && batches < maxBatchesPerRun) {
+                List<Outbox> claimedEvents = outboxService.claimUnprocessedEvents(batchSize, leaseTimeout);
+                if (claimedEvents.isEmpty()) {
+                    return false;
+                }
 
-            log.debug("Processing {} unprocessed outbox events", unprocessedEvents.size());
+                log.debug("Processing {} claimed outbox events", claimedEvents.size());
+                outboxMetrics.recordBatch(claimedEvents.size());
+                publishBatch(claimedEvents);
 
-            for (Outbox event : unprocessedEvents) {
-                processEvent(event);
+                fullBatch = claimedEvents.size() == batchSize;
+                batches++;
             }
 
+            return fullBatch;
         } catch (Exception e) {
             log.error("Error processing outbox events", e);
+            return false;
         }
     }
 
-    private void processEvent(Outbox event) {
-        try {
-            Class<?> eventClass = Class.forName(event.getEventType());
-            Object deserializedEvent = objectMapper.readValue(event.getPayload(), eventClass);
-
-            if (deserializedEvent instanceof CartEvent cartEvent) {
-                log.debug("Publishing cart event: id={}, type={}", event.getEventId(), event.getEventType());
-                cartEventPublisher.publish(cartEvent);
-            } else if (deserializedEvent instanceof StatisticsEvent statisticsEvent) {
-                log.debug("Publishing statistics event: id={}, type={}", event.getEventId(), event.getEventType());
-                statisticsEventPublisher.publish(statisticsEvent);
-            } else {
-                throw new IllegalArgumentException("Unknown event type: " + event.getEventType());
+    /**
+     * Marks events superseded by a newer event of the same variant in the batch, so only the newest is published.
+     * Hands the rest of the batch to the dispatch lanes without waiting in between, then waits for the broker to
+     * acknowledge the sends. Events of different keys are sent at the same time, while an event is sent only once the
+     * broker acknowledged the previous event of its key in the batch. Once an event of a key failed, whether it could
+     * not be sent or was not acknowledged, the later events of that key in the batch are held back, so they are not
+     * published ahead of it. Acknowledged events are marked processed with one statement.
+     * Failed events are retried with backoff and dead-lettered after too many attempts; held back events are released
+     * right away, to follow the failed event of their key once it is retried.
+     */
+    private void publishBatch(List<Outbox> events) {
+        CoalescedBatch coalescedBatch = OutboxEventCoalescer.coalesce(events);
+        if (!coalescedBatch.superseded().isEmpty()) {
+            outboxService.markAsSuperseded(coalescedBatch.superseded().stream().map(Outbox::getEventId).toList());
+            coalescedBatch.superseded().forEach(outboxMetrics::recordSuperseded);
+        }
+
+        Set<String> heldBackKeys = new HashSet<>();
+        List<UUID> heldBackEventIds = new ArrayList<>();
+        Map<String, CompletableFuture<?>> lastSends = new HashMap<>();
+        Map<Outbox, CompletableFuture<?>> sends = new LinkedHashMap<>();
+        for (Outbox event : coalescedBatch.published()) {
+            String key = dispatchKey(event);
+            if (heldBackKeys.contains(key)) {
+                heldBackEventIds.add(event.getEventId());
+                continue;
             }
 
-            outboxService.markAsProcessed(event.getEventId());
+            try {
+                CompletableFuture<?> previous = lastSends.get(key);
+                CompletableFuture<?> sent = previous == null
+                        ? dispatch(event, key)
+                        : previous.handle((result, error) -> error)
+                                .thenCompose(error -> error == null ? dispatch(event, key) : CompletableFuture.failedFuture(HELD_BACK));
+                lastSends.put(key, sent);
+                // Recorded on completion, so the latency is not stretched by waiting for earlier sends of the batch
+                sends.put(event, sent.whenComplete((result, error) -> {
+                    if (error == null) {
+                        outboxMetrics.recordPublished(event);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                heldBackKeys.add(key);
+                heldBackEventIds.add(event.getEventId());
+                log.debug("Outbox lane is full - will retry: id={}, key={}", event.getEventId(), key);
+            }
+        }
 
-            log.info("Successfully processed outbox event: id={}, eventType={}",
-                    event.getEventId(), event.getEventType());
+        List<UUID> acknowledgedEventIds = new ArrayList<>();
+        Map<UUID, String> failures = new LinkedHashMap<>();
+        long deadline = System.nanoTime() + ackTimeout.toNanos();
+        for (Map.Entry<Outbox, CompletableFuture<?>> send : sends.entrySet()) {
+            Outbox event = send.getKey();
+            try {
+                send.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                acknowledgedEventIds.add(event.getEventId());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                if (e.getCause() == HELD_BACK || e.getCause() instanceof RejectedExecutionException) {
+                    heldBackEventIds.add(event.getEventId());
+                } else {
+                    failures.put(event.getEventId(), describeFailure(event, e.getCause()));
+                    outboxMetrics.recordFailed(event);
+                }
+            } catch (TimeoutException e) {
+                failures.put(event.getEventId(), describeFailure(event, e));
+                outboxMetrics.recordFailed(event);
+            }
+        }
 
-        } catch (ClassNotFoundException e) {
-            log.error("Event class not found - will retry: id={}, eventType={}",
-                    event.getEventId(), event.getEventType(), e);
-        } catch (JsonProcessingException e) {
-            log.error("Failed to deserialize event - will retry: id={}, eventType={}",
-                    event.getEventId(), event.getEventType(), e);
-        } catch (Exception e) {
-            log.error("Failed to process outbox event - will retry: id={}, eventType={}",
-                    event.getEventId(), event.getEventType(), e);
+        if (!acknowledgedEventIds.isEmpty()) {
+            outboxService.markAsProcessed(acknowledgedEventIds);
+        }
+        if (!failures.isEmpty()) {
+            recordFailures(failures, events);
+        }
+        if (!heldBackEventIds.isEmpty()) {
+            outboxService.releaseLeases(heldBackEventIds);
+        }
+        log.debug("Published {} of {} claimed outbox events, {} superseded, {} failed, {} held back",
+                acknowledgedEventIds.size(), events.size(), coalescedBatch.superseded().size(),
+                failures.size(), heldBackEventIds.size());
+    }
+
+    /**
+     * Sends the event on the lane of the key. An event that could not be sent fails the returned future, like one the
+     * broker did not acknowledge.
+     * @throws RejectedExecutionException when the queue of the lane is full
+     */
+    private CompletableFuture<?> dispatch(Outbox event, String key) {
+        return outboxDispatchLanes.dispatch(key, () -> {
+            try {
+                return send(event);
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+    }
+
+    /**
+     * A failing event is retried many times, so single attempts are logged at debug level only, and an error is
+     * logged once the event is dead-lettered.
+     */
+    private void recordFailures(Map<UUID, String> failures, List<Outbox> events) {
+        List<UUID> deadLetteredEventIds = outboxService.recordFailures(failures, retrySchedule);
+        events.stream()
+                .filter(event -> deadLetteredEventIds.contains(event.getEventId()))
+                .forEach(outboxMetrics::recordDeadLettered);
+        log.warn("{} outbox events failed to publish - will retry with backoff", failures.size() - deadLetteredEventIds.size());
+        deadLetteredEventIds.forEach(eventId -> log.error("Outbox event dead-lettered after {} attempts: id={}, lastError={}",
+                retrySchedule.maxAttempts(), eventId, failures.get(eventId)));
+    }
+
+    private static String describeFailure(Outbox event, Throwable cause) {
+        log.debug("Failed to publish outbox event: id={}, eventType={}", event.getEventId(), event.getEventType(), cause);
+
+        String reason = switch (cause) {
+            case ClassNotFoundException e -> "Event class not found";
+            case JsonProcessingException e -> "Failed to deserialize event";
+            case TimeoutException e -> "Not acknowledged in time";
+            default -> "Failed to publish event";
+        };
+        String description = reason + ": " + cause;
+        return description.length() > MAX_ERROR_LENGTH ? description.substring(0, MAX_ERROR_LENGTH) : description;
+    }
+
+    /**
+     * Events written before their key was stored have no key to keep in order, so any lane will do.
+     */
+    private static String dispatchKey(Outbox event) {
+        return event.getMessageKey() != null ? event.getMessageKey() : event.getEventId().toString();
+    }
+
+    private CompletableFuture<?> send(Outbox event) throws ClassNotFoundException, JsonProcessingException {
+        if (event.getTopic() != null) {
+            // The payload is already the message, so it is forwarded as stored
+            return outboxMessageSender.send(event);
         }
+        return publishDeserialized(event);
     }
 
+    /**
+     * Publishes an event written before its topic and key were stored with it, which is always JSON.
+     */
+    private CompletableFuture<?> publishDeserialized(Outbox event) throws ClassNotFoundException, JsonProcessingException {
+        Class<?> eventClass = Class.forName(event.getEventType());
+        Object deserializedEvent = objectMapper.readValue(event.getPayload(), eventClass);
 
+        if (deserializedEvent instanceof CartEvent cartEvent) {
+            log.debug("Publishing cart event: id={}, type={}", event.getEventId(), event.getEventType());
+            return cartEventPublisher.publish(cartEvent);
+        }
+        if (deserializedEvent instanceof StatisticsEvent statisticsEvent) {
+            log.debug("Publishing statistics event: id={}, type={}", event.getEventId(), event.getEventType());
+            return statisticsEventPublisher.publish(statisticsEvent);
+        }
+        throw new IllegalArgumentException("Unknown event type: " + event.getEventType());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,9 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import java.util.UUID;
+
+/**
+ * Event to be written to the outbox together with others in one batch.
+ */
+public record OutboxMessage(UUID eventId, Object payload, String eventType) {
+}
@@ -0,0 +1,52 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.kafka.publisher.EventPayloadFormat;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends stored outbox payloads as they are, in whichever format they were written, with a content type header.
+ * The template is not registered as a bean, so the one Spring Boot configures for the publishers stays in place.
+ */
+@Component
+class OutboxMessageSender {
+
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    OutboxMessageSender(ProducerFactory<String, byte[]> producerFactory) {
+        // Shares the configured producer settings; only the value serializer differs
+        this.kafkaTemplate = new KafkaTemplate<>(
+                producerFactory,
+                Map.of(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class)
+        );
+    }
+
+    CompletableFuture<SendResult<String, byte[]>> send(Outbox event) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(event.getTopic(), event.getMessageKey(), value(event));
+        record.headers().add(EventPayloadFormat.CONTENT_TYPE_HEADER, contentType(event).getBytes(StandardCharsets.UTF_8));
+        return kafkaTemplate.send(record);
+    }
+
+    /**
+     * JSON is sent as its UTF-8 bytes, the same bytes a string serializer would send.
+     */
+    private static byte[] value(Outbox event) {
+        if (event.getPayloadBytes() != null) {
+            return event.getPayloadBytes();
+        }
+        return event.getPayload() != null ? event.getPayload().getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static String contentType(Outbox event) {
+        return event.getContentType() != null ? event.getContentType() : EventPayloadFormat.JSON.contentType();
+    }
+}
@@ -0,0 +1,209 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.kafka.repository.OutboxBatchRepository.OutboxBacklog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meters of the outbox, tagged by event type where it applies. The backlog is read from the database on a schedule,
+ * not on every scrape, and the publish rate is derived from the published count between two reads. The same numbers
+ * are served by the {@link OutboxEndpoint}.
+ */
+@Component
+@Slf4j
+class OutboxMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final OutboxBatchRepository outboxBatchRepository;
+
+    private final Map<String, EventTypeMeters> eventTypeMeters = new ConcurrentHashMap<>();
+    private final DistributionSummary batchSize;
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong oldestPendingAgeSeconds = new AtomicLong();
+    private final AtomicLong publishRate = new AtomicLong();
+
+    private long lastPublished;
+    private long lastRefreshNanos = System.nanoTime();
+
+    OutboxMetrics(MeterRegistry meterRegistry, OutboxBatchRepository outboxBatchRepository) {
+        this.meterRegistry = meterRegistry;
+        this.outboxBatchRepository = outboxBatchRepository;
+
+        this.batchSize = DistributionSummary.builder("product.outbox.batch.size")
+                .description("Outbox events claimed per batch")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("product.outbox.backlog", backlog, AtomicLong::get)
+                .description("Outbox events not yet processed")
+                .register(meterRegistry);
+        Gauge.builder("product.outbox.oldest.pending.age.seconds", oldestPendingAgeSeconds, AtomicLong::get)
+                .description("Age of the oldest outbox event not yet processed")
+                .register(meterRegistry);
+        Gauge.builder("product.outbox.publish.rate", publishRate, AtomicLong::get)
+                .description("Outbox events published per second since the previous backlog read")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Counts events written by the current transaction once it commits, or right away outside a transaction.
+     */
+    void recordWritten(String eventType, int events) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            meters(eventType).written().increment(events);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                meters(eventType).written().increment(events);
+            }
+        });
+    }
+
+    void recordBatch(int events) {
+        batchSize.record(events);
+    }
+
+    /**
+     * Records an event the broker acknowledged, with the time it took from being written to the outbox.
+     */
+    void recordPublished(Outbox event) {
+        EventTypeMeters meters = meters(event.getEventType());
+        meters.published().increment();
+        meters.latency().record(Duration.between(event.getCreatedAt(), LocalDateTime.now()));
+    }
+
+    void recordFailed(Outbox event) {
+        meters(event.getEventType()).failed().increment();
+    }
+
+    void recordDeadLettered(Outbox event) {
+        meters(event.getEventType()).deadLettered().increment();
+    }
+
+    void recordSuperseded(Outbox event) {
+        meters(event.getEventType()).superseded().increment();
+    }
+
+    @Scheduled(fixedDelayString = "${product.outbox.metrics.refresh-interval-ms:10000}")
+    public void refreshBacklog() {
+        try {
+            OutboxBacklog outboxBacklog = outboxBatchRepository.findBacklog();
+            LocalDateTime now = LocalDateTime.now();
+
+            backlog.set(outboxBacklog.events());
+            oldestPendingAgeSeconds.set(outboxBacklog.oldestCreatedAt() != null
+                    ? Duration.between(outboxBacklog.oldestCreatedAt(), now).toSeconds()
+                    : 0);
+
+            long published = eventTypeMeters.values().stream().mapToLong(meters -> (long) meters.published().count()).sum();
+            long refreshNanos = System.nanoTime();
+            double elapsedSeconds = (refreshNanos - lastRefreshNanos) / 1e9;
+            publishRate.set(elapsedSeconds > 0 ? Math.round((published - lastPublished) / elapsedSeconds) : 0);
+            lastPublished = published;
+            lastRefreshNanos = refreshNanos;
+        } catch (Exception e) {
+            log.error("Error reading the outbox backlog", e);
+        }
+    }
+
+    OutboxSnapshot snapshot() {
+        Map<String, EventTypeSnapshot> eventTypes = new TreeMap<>();
+        eventTypeMeters.forEach((eventType, meters) -> eventTypes.put(eventType, new EventTypeSnapshot(
+                (long) meters.written().count(),
+                (long) meters.published().count(),
+                (long) meters.failed().count(),
+                (long) meters.deadLettered().count(),
+                (long) meters.superseded().count(),
+                meters.latency().mean(TimeUnit.MILLISECONDS),
+                meters.latency().max(TimeUnit.MILLISECONDS)
+        )));
+
+        return new OutboxSnapshot(
+                backlog.get(),
+                oldestPendingAgeSeconds.get(),
+                publishRate.get(),
+                batchSize.count(),
+                batchSize.mean(),
+                eventTypes
+        );
+    }
+
+    private EventTypeMeters meters(String eventType) {
+        return eventTypeMeters.computeIfAbsent(shortName(eventType), this::registerMeters);
+    }
+
+    private EventTypeMeters registerMeters(String eventType) {
+        return new EventTypeMeters(
+                counter("product.outbox.written", "Events written to the outbox", eventType),
+                counter("product.outbox.published", "Outbox events acknowledged by the broker", eventType),
+                counter("product.outbox.failures", "Failed attempts to publish outbox events", eventType),
+                counter("product.outbox.dead.lettered", "Outbox events dead-lettered after their last attempt", eventType),
+                counter("product.outbox.superseded", "Outbox events dropped because a newer event replaced them", eventType),
+                Timer.builder("product.outbox.publish.latency")
+                        .description("Time from writing an outbox event to the broker acknowledging it")
+                        .tag("event_type", eventType)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+        );
+    }
+
+    private Counter counter(String name, String description, String eventType) {
+        return Counter.builder(name)
+                .description(description)
+                .tag("event_type", eventType)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Event types are stored as class names; the simple name keeps tags readable.
+     */
+    private static String shortName(String eventType) {
+        return eventType.substring(eventType.lastIndexOf('.') + 1);
+    }
+
+    private record EventTypeMeters(
+            Counter written,
+            Counter published,
+            Counter failed,
+            Counter deadLettered,
+            Counter superseded,
+            Timer latency) {
+    }
+
+    record OutboxSnapshot(
+            long backlog,
+            long oldestPendingAgeSeconds,
+            long publishedPerSecond,
+            long batches,
+            double meanBatchSize,
+            Map<String, EventTypeSnapshot> eventTypes) {
+    }
+
+    record EventTypeSnapshot(
+            long written,
+            long published,
+            long failed,
+            long deadLettered,
+            long superseded,
+            double meanLatencyMillis,
+            double maxLatencyMillis) {
+    }
+}
@@ -0,0 +1,141 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintenance of the daily partitions of {@code kafka_outbox}. Partitions are named {@code kafka_outbox_pYYYYMMDD}
+ * and created by the {@code create_kafka_outbox_partitions} function of the schema. They are detached concurrently
+ * before being dropped, so writers of the outbox are never blocked by the drop.
+ */
+@Repository
+class OutboxPartitionRepository {
+
+    private static final Pattern DAILY_PARTITION = Pattern.compile("kafka_outbox_p(\\d{8})");
+    private static final DateTimeFormatter PARTITION_DAY = DateTimeFormatter.BASIC_ISO_DATE;
+
+    // Also finds partitions whose detach was interrupted, and tables detached but not dropped yet
+    private static final String FIND_PARTITIONS_SQL = """
+            SELECT c.relname, i.inhrelid IS NOT NULL AS attached, COALESCE(i.inhdetachpending, FALSE) AS detach_pending
+            FROM pg_class c
+                LEFT JOIN pg_inherits i ON i.inhrelid = c.oid AND i.inhparent = 'kafka_outbox'::regclass
+            WHERE c.relnamespace = (SELECT relnamespace FROM pg_class WHERE oid = 'kafka_outbox'::regclass)
+              AND c.relkind = 'r'
+              AND c.relname LIKE 'kafka_outbox_p%'
+            ORDER BY c.relname
+            """;
+
+    private static final String FIND_SIZE_SQL = """
+            SELECT COALESCE(SUM(pg_total_relation_size(i.inhrelid)), 0)
+            FROM pg_inherits i
+            WHERE i.inhparent = 'kafka_outbox'::regclass
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    OutboxPartitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return number of partitions created
+     */
+    int createPartitions(LocalDate fromDay, int daysAhead) {
+        Integer created = jdbcTemplate.queryForObject(
+                "SELECT create_kafka_outbox_partitions(?, ?)",
+                Integer.class,
+                Date.valueOf(fromDay),
+                daysAhead);
+        return created != null ? created : 0;
+    }
+
+    /**
+     * @return daily partitions, oldest first, including detached ones not dropped yet
+     */
+    List<OutboxPartition> findDailyPartitions() {
+        return jdbcTemplate.query(FIND_PARTITIONS_SQL, OutboxPartitionRepository::toDailyPartition).stream()
+                .flatMap(Optional::stream)
+                .toList();
+    }
+
+    /**
+     * Limits how long the following statements of the current transaction wait for locks.
+     */
+    void setLockTimeout(long lockTimeoutMillis) {
+        jdbcTemplate.execute("SET LOCAL lock_timeout = " + lockTimeoutMillis);
+    }
+
+    boolean hasUnprocessedEvents(OutboxPartition partition) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + partition.name() + " WHERE processed = FALSE)",
+                Boolean.class));
+    }
+
+    /**
+     * Detaches the partition concurrently, or completes the detach if an earlier one was interrupted. Must not be
+     * called within a transaction.
+     */
+    void detachPartition(OutboxPartition partition, long lockTimeoutMillis) {
+        String detach = "ALTER TABLE kafka_outbox DETACH PARTITION " + partition.name()
+                + (partition.detachPending() ? " FINALIZE" : " CONCURRENTLY");
+
+        // The session setting stays on the pooled connection, so it is reset on the same connection
+        jdbcTemplate.execute((StatementCallback<Void>) statement -> {
+            statement.execute("SET lock_timeout = " + lockTimeoutMillis);
+            try {
+                statement.execute(detach);
+            } finally {
+                statement.execute("RESET lock_timeout");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Drops a partition that was detached.
+     */
+    void dropPartition(OutboxPartition partition) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition.name());
+    }
+
+    /**
+     * @return size of all partitions in bytes, including indexes
+     */
+    long findSizeBytes() {
+        Long sizeBytes = jdbcTemplate.queryForObject(FIND_SIZE_SQL, Long.class);
+        return sizeBytes != null ? sizeBytes : 0;
+    }
+
+    private static Optional<OutboxPartition> toDailyPartition(ResultSet rs, int rowNum) throws SQLException {
+        String name = rs.getString("relname");
+        Matcher matcher = DAILY_PARTITION.matcher(name);
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        return Optional.of(new OutboxPartition(
+                name,
+                LocalDate.parse(matcher.group(1), PARTITION_DAY),
+                rs.getBoolean("attached"),
+                rs.getBoolean("detach_pending")
+        ));
+    }
+
+    /**
+     * A partition holding the events created on {@code day}.
+     * @param attached whether it is still a partition of {@code kafka_outbox}
+     * @param detachPending whether a concurrent detach of it was interrupted and has to be completed
+     */
+    record OutboxPartition(String name, LocalDate day, boolean attached, boolean detachPending) {
+    }
+}
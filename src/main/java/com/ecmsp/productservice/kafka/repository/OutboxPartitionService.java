@@ -0,0 +1,60 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+
+/**
+ * Creates the daily partitions of {@code kafka_outbox} ahead of time. {@code kafka_outbox} has no default partition,
+ * so an event for a day without a partition cannot be written; unlike dropping expired partitions, which
+ * {@link OutboxRetentionService} does, this therefore runs whether retention is enabled or not.
+ */
+@Service
+@Slf4j
+class OutboxPartitionService {
+
+    private final OutboxPartitionRepository outboxPartitionRepository;
+    private final TransactionTemplate maintenanceTransaction;
+    private final int daysAhead;
+    private final Duration lockTimeout;
+
+    OutboxPartitionService(
+            OutboxPartitionRepository outboxPartitionRepository,
+            PlatformTransactionManager transactionManager,
+            @Value("${product.outbox.partitions.days-ahead:7}") int daysAhead,
+            @Value("${product.outbox.partitions.lock-timeout:1s}") Duration lockTimeout) {
+        this.outboxPartitionRepository = outboxPartitionRepository;
+        this.maintenanceTransaction = new TransactionTemplate(transactionManager);
+        this.daysAhead = daysAhead;
+        this.lockTimeout = lockTimeout;
+    }
+
+    @Scheduled(fixedDelayString = "${product.outbox.partitions.interval-ms:60000}")
+    public void createPartitions() {
+        try {
+            createPartitions(LocalDate.now());
+        } catch (Exception e) {
+            log.error("Error creating outbox partitions", e);
+        }
+    }
+
+    /**
+     * Creates the missing partitions from the day before {@code today} to {@code daysAhead} days after it.
+     */
+    void createPartitions(LocalDate today) {
+        // Starting a day back covers instances whose clock is behind the database
+        int created = maintenanceTransaction.execute(status -> {
+            outboxPartitionRepository.setLockTimeout(lockTimeout.toMillis());
+            return outboxPartitionRepository.createPartitions(today.minusDays(1), daysAhead + 1);
+        });
+        if (created > 0) {
+            log.info("Created {} outbox partitions", created);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.kafka.repository.OutboxPartitionRepository.OutboxPartition;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps {@code kafka_outbox} small. A daily partition whose events are all older than the retention period is
+ * detached concurrently and dropped as a whole once every event in it was processed, so processed events never have
+ * to be deleted row by row. Partition DDL waits for locks only briefly; a partition that could not be locked, or
+ * whose detach was interrupted, is retried on the next run. Partitions are created ahead of time by
+ * {@link OutboxPartitionService}, and the backlog itself is measured by {@link OutboxMetrics}.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(
+        prefix = "product.outbox.retention",
+        name = "enabled",
+        havingValue = "true",
+        matchIfMissing = true
+)
+class OutboxRetentionService {
+
+    private final OutboxPartitionRepository outboxPartitionRepository;
+    private final TransactionTemplate maintenanceTransaction;
+    private final Duration retentionPeriod;
+    private final Duration lockTimeout;
+
+    private final Counter droppedPartitionsCounter;
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final AtomicLong partitions = new AtomicLong();
+
+    OutboxRetentionService(
+            OutboxPartitionRepository outboxPartitionRepository,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${product.outbox.retention.period:7d}") Duration retentionPeriod,
+            @Value("${product.outbox.retention.lock-timeout:1s}") Duration lockTimeout) {
+        this.outboxPartitionRepository = outboxPartitionRepository;
+        this.maintenanceTransaction = new TransactionTemplate(transactionManager);
+        this.retentionPeriod = retentionPeriod;
+        this.lockTimeout = lockTimeout;
+
+        this.droppedPartitionsCounter = Counter.builder("product.outbox.retention.dropped.partitions")
+                .description("Outbox partitions dropped after their retention period")
+                .register(meterRegistry);
+        Gauge.builder("product.outbox.size.bytes", sizeBytes, AtomicLong::get)
+                .description("Size of all outbox partitions, including indexes")
+                .register(meterRegistry);
+        Gauge.builder("product.outbox.partitions", partitions, AtomicLong::get)
+                .description("Daily outbox partitions, including ones created ahead of time")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${product.outbox.retention.interval-ms:60000}")
+    public void maintainOutbox() {
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minus(retentionPeriod);
+            dropExpiredPartitions(cutoff);
+
+            updateStatistics();
+        } catch (Exception e) {
+            log.error("Error maintaining outbox partitions", e);
+        }
+    }
+
+    private void dropExpiredPartitions(LocalDateTime cutoff) {
+        // Only one partition can be pending detach at a time, so an interrupted detach is completed first
+        List<OutboxPartition> expiredPartitions = outboxPartitionRepository.findDailyPartitions().stream()
+                .filter(partition -> !partition.day().plusDays(1).atStartOfDay().isAfter(cutoff))
+                .sorted(Comparator.comparing(partition -> !partition.detachPending()))
+                .toList();
+
+        for (OutboxPartition partition : expiredPartitions) {
+            try {
+                if (partition.attached() && !partition.detachPending() && hasUnprocessedEvents(partition)) {
+                    log.warn("Outbox partition {} is past retention but still has unprocessed events", partition.name());
+                    continue;
+                }
+
+                // Detaching concurrently cannot run within a transaction
+                if (partition.attached()) {
+                    outboxPartitionRepository.detachPartition(partition, lockTimeout.toMillis());
+                }
+                maintenanceTransaction.executeWithoutResult(status -> {
+                    outboxPartitionRepository.setLockTimeout(lockTimeout.toMillis());
+                    outboxPartitionRepository.dropPartition(partition);
+                });
+
+                droppedPartitionsCounter.increment();
+                log.info("Dropped outbox partition {}", partition.name());
+            } catch (DataAccessException e) {
+                log.warn("Could not drop outbox partition {} - will retry: {}", partition.name(), e.getMessage());
+            }
+        }
+    }
+
+    private boolean hasUnprocessedEvents(OutboxPartition partition) {
+        return Boolean.TRUE.equals(maintenanceTransaction.execute(status -> {
+            outboxPartitionRepository.setLockTimeout(lockTimeout.toMillis());
+            return outboxPartitionRepository.hasUnprocessedEvents(partition);
+        }));
+    }
+
+    private void updateStatistics() {
+        sizeBytes.set(outboxPartitionRepository.findSizeBytes());
+        partitions.set(outboxPartitionRepository.findDailyPartitions().stream()
+                .filter(OutboxPartition::attached)
+                .count());
+    }
+}
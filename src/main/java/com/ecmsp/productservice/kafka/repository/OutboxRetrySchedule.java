@@ -0,0 +1,11 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import java.time.Duration;
+
+/**
+ * Backoff of events that failed to publish. The n-th failed attempt delays the next one by
+ * {@code initialBackoff * 2^(n-1)}, capped at {@code maxBackoff}; after {@code maxAttempts} failures the event is
+ * dead-lettered.
+ */
+record OutboxRetrySchedule(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+}
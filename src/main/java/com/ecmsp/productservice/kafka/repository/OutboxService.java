@@ -1,60 +1,178 @@
 package com.ecmsp.productservice.kafka.repository;
+import com.ecmsp.productservice.kafka.publisher.CompactEventCodec;
+import com.ecmsp.productservice.kafka.publisher.EventPayloadFormat;
+import com.ecmsp.productservice.kafka.publisher.EventRoute;
+import com.ecmsp.productservice.kafka.publisher.cart.KafkaCartEventPublisher;
+import com.ecmsp.productservice.kafka.publisher.cart.events.CartEvent;
+import com.ecmsp.productservice.kafka.publisher.statistics.KafkaStatisticsEventPublisher;
+import com.ecmsp.productservice.kafka.publisher.statistics.events.StatisticsEvent;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class OutboxService {
 
     private final OutboxRepository outboxRepository;
+    private final OutboxBatchRepository outboxBatchRepository;
     private final ObjectMapper objectMapper;
+    private final KafkaCartEventPublisher cartEventPublisher;
+    private final KafkaStatisticsEventPublisher statisticsEventPublisher;
+    private final OutboxMetrics outboxMetrics;
+    private final EventPayloadFormat payloadFormat;
+
+    public OutboxService(
+            OutboxRepository outboxRepository,
+            OutboxBatchRepository outboxBatchRepository,
+            ObjectMapper objectMapper,
+            KafkaCartEventPublisher cartEventPublisher,
+            KafkaStatisticsEventPublisher statisticsEventPublisher,
+            OutboxMetrics outboxMetrics,
+            @Value("${product.outbox.payload-format:json}") EventPayloadFormat payloadFormat) {
+        this.outboxRepository = outboxRepository;
+        this.outboxBatchRepository = outboxBatchRepository;
+        this.objectMapper = objectMapper;
+        this.cartEventPublisher = cartEventPublisher;
+        this.statisticsEventPublisher = statisticsEventPublisher;
+        this.outboxMetrics = outboxMetrics;
+        this.payloadFormat = payloadFormat;
+    }
 
     @Transactional
     public Outbox save(Object eventPayload, UUID eventId, String eventType) {
+        EventRoute route = route(eventPayload);
+
+        Outbox outboxEvent = withPayload(Outbox.builder(), eventPayload, eventType)
+                .eventId(eventId)
+                .createdAt(LocalDateTime.now())
+                .processed(false)
+                .eventType(eventType)
+                .topic(route.topic())
+                .messageKey(route.key())
+                .build();
+
+        Outbox saved = outboxRepository.save(outboxEvent);
+        outboxMetrics.recordWritten(eventType, 1);
+        log.debug("Saved outbox event: id={}, eventType={}", saved.getEventId(), eventType);
+        return saved;
+    }
+
+    /**
+     * Saves all messages in one JDBC batch.
+     */
+    @Transactional
+    public void saveAll(List<OutboxMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        LocalDateTime createdAt = LocalDateTime.now();
+        List<Outbox> outboxEvents = messages.stream()
+                .map(message -> {
+                    EventRoute route = route(message.payload());
+                    return withPayload(Outbox.builder(), message.payload(), message.eventType())
+                            .eventId(message.eventId())
+                            .createdAt(createdAt)
+                            .processed(false)
+                            .eventType(message.eventType())
+                            .topic(route.topic())
+                            .messageKey(route.key())
+                            .build();
+                })
+                .toList();
+
+        outboxBatchRepository.insertAll(outboxEvents);
+        outboxEvents.stream()
+                .collect(Collectors.groupingBy(Outbox::getEventType, Collectors.counting()))
+                .forEach((eventType, events) -> outboxMetrics.recordWritten(eventType, events.intValue()));
+        log.debug("Saved {} outbox events", outboxEvents.size());
+    }
+
+    /**
+     * Resolves the topic and key up front, so the processor can forward the stored payload without reading it.
+     */
+    private EventRoute route(Object eventPayload) {
+        return switch (eventPayload) {
+            case CartEvent cartEvent -> cartEventPublisher.route(cartEvent);
+            case StatisticsEvent statisticsEvent -> statisticsEventPublisher.route(statisticsEvent);
+            default -> throw new IllegalArgumentException("Unknown event type: " + eventPayload.getClass().getName());
+        };
+    }
+
+    /**
+     * Encodes the event in the configured format. The processor forwards the stored payload as it is, so the format
+     * of the messages follows the format the events were written in.
+     */
+    private Outbox.OutboxBuilder withPayload(Outbox.OutboxBuilder builder, Object eventPayload, String eventType) {
+        if (payloadFormat == EventPayloadFormat.COMPACT) {
+            return builder
+                    .payloadBytes(CompactEventCodec.encode(eventPayload))
+                    .contentType(EventPayloadFormat.COMPACT.contentType());
+        }
+        return builder
+                .payload(serialize(eventPayload, eventType))
+                .contentType(EventPayloadFormat.JSON.contentType());
+    }
+
+    private String serialize(Object eventPayload, String eventType) {
         try {
-            String payload = objectMapper.writeValueAsString(eventPayload);
-
-            Outbox outboxEvent = Outbox.builder()
-                    .eventId(eventId)
-                    .payload(payload)
-                    .createdAt(LocalDateTime.now())
-                    .processed(false)
-                    .eventType(eventType)
-                    .build();
-
-            Outbox saved = outboxRepository.save(outboxEvent);
-            log.debug("Saved outbox event: id={}, eventType={}", saved.getEventId(), eventType);
-            return saved;
+            return objectMapper.writeValueAsString(eventPayload);
         } catch (JsonProcessingException e) {
             log.error("Failed to serialize event payload for eventType: {}", eventType, e);
             throw new RuntimeException("Failed to serialize event payload", e);
         }
     }
 
-    @Transactional(readOnly = true)
-    public List<Outbox> getUnprocessedEvents() {
-        return outboxRepository.findByProcessedFalseOrderByCreatedAtAsc();
+    /**
+     * Claims a batch of unprocessed events for this instance. The claim is committed right away, so events stay
+     * leased while they are published, and return to the backlog once the lease runs out without being processed.
+     */
+    @Transactional
+    public List<Outbox> claimUnprocessedEvents(int batchSize, Duration leaseTimeout) {
+        LocalDateTime now = LocalDateTime.now();
+        return outboxBatchRepository.claim(now, now.plus(leaseTimeout), batchSize);
     }
 
     @Transactional
-    public void markAsProcessed(UUID eventId) {
-        outboxRepository.markAsProcessed(eventId, LocalDateTime.now());
-        log.debug("Marked outbox event as processed: id={}", eventId);
+    public void markAsProcessed(List<UUID> eventIds) {
+        outboxBatchRepository.markProcessed(eventIds, LocalDateTime.now());
+        log.debug("Marked {} outbox events as processed", eventIds.size());
     }
 
+    /**
+     * @param failures error of each event that failed to publish
+     * @return events dead-lettered because they failed for the last time
+     */
+    @Transactional
+    public List<UUID> recordFailures(Map<UUID, String> failures, OutboxRetrySchedule retrySchedule) {
+        return outboxBatchRepository.recordFailures(failures, retrySchedule, LocalDateTime.now());
+    }
+
+    /**
+     * Lets events be claimed again right away, without counting an attempt.
+     */
+    @Transactional
+    public void releaseLeases(List<UUID> eventIds) {
+        outboxBatchRepository.releaseLeases(eventIds);
+    }
 
+    /**
+     * Marks events processed without publishing them, because a newer event carrying the same value replaced them.
+     */
     @Transactional
-    public void deleteProcessedEvents(LocalDateTime before) {
-        outboxRepository.deleteProcessedEventsBefore(before);
-        log.info("Deleted processed outbox events older than {}", before);
+    public void markAsSuperseded(List<UUID> eventIds) {
+        outboxBatchRepository.markSuperseded(eventIds, LocalDateTime.now());
+        log.debug("Marked {} outbox events as superseded", eventIds.size());
     }
 }
\ No newline at end of file
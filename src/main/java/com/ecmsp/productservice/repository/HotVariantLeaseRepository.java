@@ -0,0 +1,67 @@
+package com.ecmsp.productservice.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Statements on {@code hot_variant_leases}, which give every hot variant a single owner instance. Lease times are
+ * taken from the database clock, so instances with skewed clocks agree on when a lease expires.
+ */
+@Repository
+public class HotVariantLeaseRepository {
+
+    // Leases held by another instance are skipped up front, so instances that do not own a variant do not queue on
+    // its lease row every time they try to claim it
+    private static final String CLAIM_SQL = """
+            WITH claimable AS (
+                SELECT v.id
+                FROM variants v
+                WHERE v.id = ANY(CAST(? AS uuid[]))
+                  AND NOT EXISTS (
+                      SELECT 1
+                      FROM hot_variant_leases l
+                      WHERE l.variant_id = v.id
+                        AND l.owner_id <> ?
+                        AND l.expires_at > clock_timestamp()
+                  )
+                ORDER BY v.id
+            )
+            INSERT INTO hot_variant_leases (variant_id, owner_id, expires_at)
+            SELECT claimable.id, ?, clock_timestamp() + ? * INTERVAL '1 millisecond'
+            FROM claimable
+            ON CONFLICT (variant_id) DO UPDATE
+            SET owner_id = EXCLUDED.owner_id,
+                expires_at = EXCLUDED.expires_at
+            WHERE hot_variant_leases.owner_id = EXCLUDED.owner_id
+               OR hot_variant_leases.expires_at <= clock_timestamp()
+            RETURNING hot_variant_leases.variant_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public HotVariantLeaseRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Takes or renews the leases of the given variants for {@code ownerId}. Leases held by another owner are
+     * taken over only once they expire.
+     * @return ids of variants leased to {@code ownerId}
+     */
+    public List<UUID> claim(List<UUID> variantIds, UUID ownerId, Duration leaseTimeout) {
+        return jdbcTemplate.query(
+                CLAIM_SQL,
+                ps -> {
+                    ps.setArray(1, ps.getConnection().createArrayOf("uuid", variantIds.toArray()));
+                    ps.setObject(2, ownerId);
+                    ps.setObject(3, ownerId);
+                    ps.setLong(4, leaseTimeout.toMillis());
+                },
+                (rs, rowNum) -> rs.getObject("variant_id", UUID.class)
+        );
+    }
+}
@@ -0,0 +1,166 @@
+package com.ecmsp.productservice.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Read path of product listings, served from the {@code product_listing} read model that triggers keep up to date:
+ * one row per product with its cheapest variant and the first image of it. Products of a category and all of its
+ * subcategories are one range of the category path index, read in (category path, product id) order, so a page is
+ * one range scan joined to the variants by primary key for their current stock.
+ */
+@Repository
+public class ProductListingRepository {
+
+    private static final String LISTING_SELECT = """
+            WITH subtree AS (SELECT category_path(?) AS path)
+            SELECT l.product_id, l.category_path, l.product_name, l.variant_id, l.price, l.image_id, l.image_url,
+                   v.stock_quantity, v.description, v.additional_properties
+            FROM subtree
+            JOIN product_listing l ON l.category_path >= subtree.path AND l.category_path < subtree.path || '~'
+            JOIN variants v ON v.id = l.variant_id
+            """;
+
+    // Without a category path the page starts after where the product is listed now, or from the start if it is not
+    private static final String FIND_PAGE_AFTER_SQL = LISTING_SELECT + """
+            WHERE (l.category_path, l.product_id) > (
+                COALESCE(CAST(? AS text), (SELECT last.category_path FROM product_listing last WHERE last.product_id = ?), ''),
+                ?
+            )
+            ORDER BY l.category_path, l.product_id
+            LIMIT ?
+            """;
+
+    private static final String FIND_PAGE_SQL = LISTING_SELECT + """
+            ORDER BY l.category_path, l.product_id
+            LIMIT ? OFFSET ?
+            """;
+
+    private static final String COUNT_PRODUCTS_SQL = """
+            WITH subtree AS (SELECT category_path(?) AS path)
+            SELECT COUNT(*)
+            FROM subtree
+            JOIN product_listing l ON l.category_path >= subtree.path AND l.category_path < subtree.path || '~'
+            """;
+
+    private static final String FIND_BY_PRODUCT_IDS_SQL = """
+            SELECT l.product_id, l.category_path, l.product_name, l.variant_id, l.price, l.image_id, l.image_url,
+                   v.stock_quantity, v.description, v.additional_properties
+            FROM product_listing l
+            JOIN variants v ON v.id = l.variant_id
+            WHERE l.product_id = ANY(CAST(? AS uuid[]))
+            """;
+
+    private static final TypeReference<Map<String, Object>> PROPERTIES_TYPE = new TypeReference<>() {
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    public ProductListingRepository(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param afterCategoryPath category path of the given product, or {@code null} to use the path it is listed under now
+     * @return up to {@code limit} products of the category and its subcategories after the given product
+     */
+    public List<ProductListingItem> findPageAfter(UUID categoryId, String afterCategoryPath, UUID afterProductId, int limit) {
+        return jdbcTemplate.query(
+                FIND_PAGE_AFTER_SQL,
+                ps -> {
+                    ps.setObject(1, categoryId);
+                    ps.setString(2, afterCategoryPath);
+                    ps.setObject(3, afterProductId);
+                    ps.setObject(4, afterProductId);
+                    ps.setInt(5, limit);
+                },
+                this::mapItem
+        );
+    }
+
+    public List<ProductListingItem> findPage(UUID categoryId, int offset, int limit) {
+        return jdbcTemplate.query(
+                FIND_PAGE_SQL,
+                ps -> {
+                    ps.setObject(1, categoryId);
+                    ps.setInt(2, limit);
+                    ps.setInt(3, offset);
+                },
+                this::mapItem
+        );
+    }
+
+    /**
+     * @return listings of the given products, in no particular order; products that are not listed are absent
+     */
+    public List<ProductListingItem> findByProductIds(List<UUID> productIds) {
+        return jdbcTemplate.query(
+                FIND_BY_PRODUCT_IDS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", productIds.toArray())),
+                this::mapItem
+        );
+    }
+
+    public long countProducts(UUID categoryId) {
+        Long count = jdbcTemplate.query(
+                COUNT_PRODUCTS_SQL,
+                ps -> ps.setObject(1, categoryId),
+                rs -> rs.next() ? rs.getLong(1) : 0L
+        );
+        return count != null ? count : 0;
+    }
+
+    private ProductListingItem mapItem(ResultSet rs, int rowNum) throws SQLException {
+        return new ProductListingItem(
+                rs.getObject("product_id", UUID.class),
+                rs.getString("category_path"),
+                rs.getString("product_name"),
+                rs.getObject("variant_id", UUID.class),
+                rs.getBigDecimal("price"),
+                rs.getInt("stock_quantity"),
+                rs.getString("description"),
+                readProperties(rs.getString("additional_properties")),
+                rs.getObject("image_id", UUID.class),
+                rs.getString("image_url")
+        );
+    }
+
+    private Map<String, Object> readProperties(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(json, PROPERTIES_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Invalid additional properties of a variant", e);
+        }
+    }
+
+    /**
+     * @param imageId first image of the variant, or {@code null} if it has none
+     */
+    public record ProductListingItem(
+            UUID productId,
+            String categoryPath,
+            String productName,
+            UUID variantId,
+            BigDecimal price,
+            int stockQuantity,
+            String description,
+            Map<String, Object> additionalProperties,
+            UUID imageId,
+            String imageUrl) {
+    }
+}
@@ -0,0 +1,107 @@
+package com.ecmsp.productservice.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Text of listed products for the search index: the product name and description, plus the description, additional
+ * property values and property display texts of all of its variants. Only products in the product listing are
+ * searchable, as results are shown from it.
+ */
+@Repository
+public class ProductSearchDocumentRepository {
+
+    /**
+     * Channel notified with the id of every product to reindex; notifications are delivered on commit.
+     */
+    public static final String REINDEX_CHANNEL = "product_search";
+
+    private static final String DOCUMENT_SELECT = """
+            SELECT p.id, p.name, p.description,
+                   (SELECT string_agg(concat_ws(' ', v.description,
+                               (SELECT string_agg(value #>> '{}', ' ')
+                                FROM jsonb_path_query(v.additional_properties,
+                                        'strict $.** ? (@.type() == "string" || @.type() == "number")') AS value)), ' ')
+                    FROM variants v
+                    WHERE v.product_id = p.id) AS variant_text,
+                   (SELECT string_agg(vp.display_text, ' ')
+                    FROM variants v
+                    JOIN variant_properties vp ON vp.variant_id = v.id
+                    WHERE v.product_id = p.id) AS property_text
+            FROM product_listing l
+            JOIN products p ON p.id = l.product_id
+            """;
+
+    private static final String FIND_DOCUMENTS_AFTER_SQL = DOCUMENT_SELECT + """
+            WHERE l.product_id > ?
+            ORDER BY l.product_id
+            LIMIT ?
+            """;
+
+    private static final String FIND_DOCUMENTS_SQL = DOCUMENT_SELECT + """
+            WHERE l.product_id = ANY(CAST(? AS uuid[]))
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ProductSearchDocumentRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return up to {@code limit} documents of products after the given one, in product id order
+     */
+    public List<ProductSearchDocument> findDocumentsAfter(UUID afterProductId, int limit) {
+        return jdbcTemplate.query(
+                FIND_DOCUMENTS_AFTER_SQL,
+                ps -> {
+                    ps.setObject(1, afterProductId);
+                    ps.setInt(2, limit);
+                },
+                this::mapDocument
+        );
+    }
+
+    /**
+     * @return documents of the given products; products that are not listed are absent
+     */
+    public List<ProductSearchDocument> findDocuments(Collection<UUID> productIds) {
+        return jdbcTemplate.query(
+                FIND_DOCUMENTS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", productIds.toArray())),
+                this::mapDocument
+        );
+    }
+
+    /**
+     * Asks the search index of every instance to reindex the product once the current transaction commits.
+     */
+    public void notifyReindex(UUID productId) {
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> {
+        }, REINDEX_CHANNEL, productId.toString());
+    }
+
+    private ProductSearchDocument mapDocument(ResultSet rs, int rowNum) throws SQLException {
+        return new ProductSearchDocument(
+                rs.getObject("id", UUID.class),
+                rs.getString("name"),
+                rs.getString("description"),
+                rs.getString("variant_text"),
+                rs.getString("property_text")
+        );
+    }
+
+    public record ProductSearchDocument(
+            UUID productId,
+            String name,
+            String description,
+            String variantText,
+            String propertyText) {
+    }
+}
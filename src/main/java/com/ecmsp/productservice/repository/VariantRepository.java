@@ -38,7 +38,17 @@ public interface VariantRepository extends JpaRepository<Variant, UUID> {
     @Query("UPDATE Variant v SET v.stockQuantity = v.stockQuantity + :quantity WHERE v.id = :variantId")
     int releaseReservedVariantStock(@Param("variantId") UUID variantId, @Param("quantity") int quantity);
 
-    @Query("SELECT v.stockQuantity FROM Variant v WHERE v.id = :id")
+    /**
+     * Finds stock of a variant, summing its stock buckets if it is split into any.
+     */
+    @Query(value = """
+            SELECT CAST(COALESCE(
+                       (SELECT SUM(b.stock_quantity) FROM variant_stock_buckets b WHERE b.variant_id = v.id),
+                       v.stock_quantity
+                   ) AS int)
+            FROM variants v
+            WHERE v.id = :id
+            """, nativeQuery = true)
     Optional<Integer> findStockQuantityById(@Param("id") UUID id);
 
 //    @Query("""
@@ -96,6 +106,15 @@ public interface VariantRepository extends JpaRepository<Variant, UUID> {
             Pageable pageable
     );
 
+    @Query("""
+        SELECT DISTINCT v
+        FROM Variant v
+        JOIN FETCH v.product
+        LEFT JOIN FETCH v.variantImages
+        WHERE v.id IN :ids
+        """)
+    List<Variant> findWithProductAndImagesByIdIn(@Param("ids") List<UUID> ids);
+
     @Query("SELECT v FROM Variant v WHERE v.product.id = :productId AND v.id <> :excludeVariantId")
     List<Variant> findOtherVariantsIds(@Param("productId") UUID productId, @Param("excludeVariantId") UUID excludeVariantId);
 
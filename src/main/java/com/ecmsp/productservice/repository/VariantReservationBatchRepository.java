@@ -0,0 +1,549 @@
+package com.ecmsp.productservice.repository;
+
+import com.ecmsp.productservice.domain.ReservationStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Set-based stock and reservation statements used by the reservation path. Each method issues a single
+ * statement for all rows it touches, so the cost does not grow with the number of order lines.
+ */
+@Repository
+public class VariantReservationBatchRepository {
+
+    // Rows are locked in id order before they are updated - variants by variant id, reservation rows by their
+    // own id - so two transactions sharing rows queue on the first shared row instead of deadlocking. Variants are
+    // locked FOR NO KEY UPDATE, which does not block the key share locks taken by inserts referencing them.
+    // A bucketed variant takes its quantity from one random bucket holding all of it, which spreads reservations
+    // across its buckets. When no bucket holds all of it, every bucket gives what is still missing after the
+    // buckets before it, in bucket order; a variant whose buckets do not hold the whole quantity takes nothing
+    private static final String RESERVE_STOCK_SQL = """
+            WITH requested AS (
+                SELECT *
+                FROM unnest(CAST(? AS uuid[]), CAST(? AS int[])) AS requested(variant_id, quantity)
+            ),
+            locked_variants AS (
+                SELECT v.id, requested.quantity
+                FROM variants v
+                JOIN requested ON requested.variant_id = v.id
+                WHERE NOT EXISTS (SELECT 1 FROM variant_stock_buckets b WHERE b.variant_id = v.id)
+                ORDER BY v.id
+                FOR NO KEY UPDATE OF v
+            ),
+            single_buckets AS (
+                SELECT DISTINCT ON (b.variant_id) b.variant_id, b.bucket
+                FROM variant_stock_buckets b
+                JOIN requested ON requested.variant_id = b.variant_id
+                WHERE b.stock_quantity >= requested.quantity
+                ORDER BY b.variant_id, random()
+            ),
+            picked_buckets AS (
+                SELECT b.variant_id, b.bucket, requested.quantity
+                FROM variant_stock_buckets b
+                JOIN requested ON requested.variant_id = b.variant_id
+                LEFT JOIN single_buckets ON single_buckets.variant_id = b.variant_id
+                WHERE single_buckets.bucket = b.bucket
+                   OR single_buckets.variant_id IS NULL
+            ),
+            locked_buckets AS (
+                SELECT b.variant_id, b.bucket, b.stock_quantity, picked_buckets.quantity
+                FROM variant_stock_buckets b
+                JOIN picked_buckets ON picked_buckets.variant_id = b.variant_id AND picked_buckets.bucket = b.bucket
+                ORDER BY b.variant_id, b.bucket
+                FOR UPDATE OF b
+            ),
+            bucket_takes AS (
+                SELECT locked_buckets.variant_id,
+                       locked_buckets.bucket,
+                       LEAST(
+                           locked_buckets.stock_quantity,
+                           locked_buckets.quantity - COALESCE(SUM(locked_buckets.stock_quantity) OVER earlier_buckets, 0)
+                       ) AS quantity
+                FROM locked_buckets
+                WINDOW earlier_buckets AS (
+                    PARTITION BY locked_buckets.variant_id
+                    ORDER BY locked_buckets.bucket
+                    ROWS BETWEEN UNBOUNDED PRECEDING AND 1 PRECEDING
+                )
+            ),
+            covered_takes AS (
+                SELECT bucket_takes.variant_id, bucket_takes.bucket, bucket_takes.quantity
+                FROM bucket_takes
+                JOIN (
+                    SELECT locked_buckets.variant_id
+                    FROM locked_buckets
+                    GROUP BY locked_buckets.variant_id, locked_buckets.quantity
+                    HAVING SUM(locked_buckets.stock_quantity) >= locked_buckets.quantity
+                ) covered ON covered.variant_id = bucket_takes.variant_id
+                WHERE bucket_takes.quantity > 0
+            ),
+            reserved_buckets AS (
+                UPDATE variant_stock_buckets b
+                SET stock_quantity = b.stock_quantity - covered_takes.quantity
+                FROM covered_takes
+                WHERE b.variant_id = covered_takes.variant_id
+                  AND b.bucket = covered_takes.bucket
+                RETURNING b.variant_id
+            ),
+            reserved_variants AS (
+                UPDATE variants v
+                SET stock_quantity = v.stock_quantity - locked_variants.quantity
+                FROM locked_variants
+                WHERE v.id = locked_variants.id
+                  AND v.stock_quantity >= locked_variants.quantity
+                RETURNING v.id
+            )
+            SELECT DISTINCT reserved_buckets.variant_id AS id FROM reserved_buckets
+            UNION ALL
+            SELECT reserved_variants.id FROM reserved_variants
+            """;
+
+    // Reservations granted by a hot variant ledger are not subtracted from variants.stock_quantity until they are
+    // flushed, so they are subtracted here
+    private static final String FIND_STOCK_QUANTITIES_SQL = """
+            SELECT v.id,
+                   COALESCE((SELECT SUM(b.stock_quantity) FROM variant_stock_buckets b WHERE b.variant_id = v.id), v.stock_quantity)
+                       - COALESCE((SELECT SUM(vr.reserved_quantity) FROM variant_reservations vr WHERE vr.variant_id = v.id AND vr.stock_flushed = FALSE), 0)
+                       AS stock_quantity
+            FROM variants v
+            WHERE v.id = ANY(CAST(? AS uuid[]))
+            """;
+
+    private static final String INSERT_RESERVATIONS_SQL = """
+            INSERT INTO variant_reservations (id, reservation_id, variant_id, reserved_quantity, created_at, expires_at, status, stock_flushed)
+            SELECT gen_random_uuid(), ?, requested.variant_id, requested.quantity, ?, ?, ?, ?
+            FROM unnest(CAST(? AS uuid[]), CAST(? AS int[])) AS requested(variant_id, quantity)
+            ON CONFLICT (reservation_id, variant_id) DO NOTHING
+            """;
+
+    private static final String FIND_RESERVATION_STATUSES_SQL = """
+            SELECT vr.variant_id, vr.status
+            FROM variant_reservations vr
+            WHERE vr.reservation_id = ?
+            """;
+
+    private static final String FIND_LEDGER_STOCK_SQL = """
+            SELECT v.id, v.stock_quantity - COALESCE(unflushed.quantity, 0) AS available
+            FROM variants v
+            LEFT JOIN (
+                SELECT vr.variant_id, SUM(vr.reserved_quantity) AS quantity
+                FROM variant_reservations vr
+                WHERE vr.stock_flushed = FALSE
+                  AND vr.variant_id = ANY(CAST(? AS uuid[]))
+                GROUP BY vr.variant_id
+            ) unflushed ON unflushed.variant_id = v.id
+            WHERE v.id = ANY(CAST(? AS uuid[]))
+            """;
+
+    private static final String FLUSH_RESERVED_STOCK_SQL = """
+            WITH locked_reservations AS (
+                SELECT vr.id
+                FROM variant_reservations vr
+                WHERE vr.stock_flushed = FALSE
+                  AND vr.variant_id = ANY(CAST(? AS uuid[]))
+                ORDER BY vr.id
+                FOR UPDATE
+            ),
+            flushed AS (
+                UPDATE variant_reservations vr
+                SET stock_flushed = TRUE
+                FROM locked_reservations
+                WHERE vr.id = locked_reservations.id
+                RETURNING vr.variant_id, vr.reserved_quantity
+            ),
+            deltas AS (
+                SELECT flushed.variant_id, SUM(flushed.reserved_quantity) AS quantity
+                FROM flushed
+                GROUP BY flushed.variant_id
+            ),
+            locked_variants AS (
+                SELECT v.id, deltas.quantity
+                FROM variants v
+                JOIN deltas ON deltas.variant_id = v.id
+                ORDER BY v.id
+                FOR NO KEY UPDATE OF v
+            )
+            UPDATE variants v
+            SET stock_quantity = v.stock_quantity - locked_variants.quantity
+            FROM locked_variants
+            WHERE v.id = locked_variants.id
+            RETURNING v.id, v.stock_quantity
+            """;
+
+    private static final String EXPIRE_RESERVATIONS_SQL = """
+            WITH claimed AS (
+                SELECT vr.id
+                FROM variant_reservations vr
+                WHERE vr.status = 'ACTIVE'
+                  AND vr.expires_at <= ?
+                ORDER BY vr.expires_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            ),
+            expired AS (
+                UPDATE variant_reservations vr
+                SET status = 'EXPIRED'
+                FROM claimed
+                WHERE vr.id = claimed.id
+                RETURNING vr.variant_id, vr.reserved_quantity
+            ),
+            released AS (
+                SELECT expired.variant_id, SUM(expired.reserved_quantity) AS quantity, COUNT(*) AS reservations
+                FROM expired
+                GROUP BY expired.variant_id
+            ),
+            locked_buckets AS (
+                SELECT b.variant_id, released.quantity
+                FROM variant_stock_buckets b
+                JOIN released ON released.variant_id = b.variant_id
+                WHERE b.bucket = 0
+                ORDER BY b.variant_id
+                FOR UPDATE OF b
+            ),
+            restored_buckets AS (
+                UPDATE variant_stock_buckets b
+                SET stock_quantity = b.stock_quantity + locked_buckets.quantity
+                FROM locked_buckets
+                WHERE b.variant_id = locked_buckets.variant_id
+                  AND b.bucket = 0
+            ),
+            locked_variants AS (
+                SELECT v.id, released.quantity
+                FROM variants v
+                JOIN released ON released.variant_id = v.id
+                WHERE NOT EXISTS (SELECT 1 FROM variant_stock_buckets b WHERE b.variant_id = v.id)
+                ORDER BY v.id
+                FOR NO KEY UPDATE OF v
+            ),
+            restored AS (
+                UPDATE variants v
+                SET stock_quantity = v.stock_quantity + locked_variants.quantity
+                FROM locked_variants
+                WHERE v.id = locked_variants.id
+            )
+            SELECT released.variant_id, released.quantity, released.reservations
+            FROM released
+            """;
+
+    private static final String RELEASE_RESERVATION_SQL = """
+            WITH locked_reservations AS (
+                SELECT vr.id
+                FROM variant_reservations vr
+                WHERE vr.reservation_id = ?
+                  AND vr.status = 'ACTIVE'
+                ORDER BY vr.id
+                FOR UPDATE
+            ),
+            transitioned AS (
+                UPDATE variant_reservations vr
+                SET status = ?
+                FROM locked_reservations
+                WHERE vr.id = locked_reservations.id
+                RETURNING vr.variant_id, vr.reserved_quantity
+            ),
+            released AS (
+                SELECT transitioned.variant_id, SUM(transitioned.reserved_quantity) AS quantity, COUNT(*) AS reservations
+                FROM transitioned
+                GROUP BY transitioned.variant_id
+            ),
+            locked_buckets AS (
+                SELECT b.variant_id, released.quantity
+                FROM variant_stock_buckets b
+                JOIN released ON released.variant_id = b.variant_id
+                WHERE b.bucket = 0
+                ORDER BY b.variant_id
+                FOR UPDATE OF b
+            ),
+            restored_buckets AS (
+                UPDATE variant_stock_buckets b
+                SET stock_quantity = b.stock_quantity + locked_buckets.quantity
+                FROM locked_buckets
+                WHERE b.variant_id = locked_buckets.variant_id
+                  AND b.bucket = 0
+            ),
+            locked_variants AS (
+                SELECT v.id, released.quantity
+                FROM variants v
+                JOIN released ON released.variant_id = v.id
+                WHERE NOT EXISTS (SELECT 1 FROM variant_stock_buckets b WHERE b.variant_id = v.id)
+                ORDER BY v.id
+                FOR NO KEY UPDATE OF v
+            ),
+            restored AS (
+                UPDATE variants v
+                SET stock_quantity = v.stock_quantity + locked_variants.quantity
+                FROM locked_variants
+                WHERE v.id = locked_variants.id
+            )
+            SELECT released.variant_id, released.quantity, released.reservations
+            FROM released
+            """;
+
+    private static final String SELL_RESERVATION_SQL = """
+            WITH locked_reservations AS (
+                SELECT vr.id
+                FROM variant_reservations vr
+                WHERE vr.reservation_id = ?
+                  AND vr.status = 'ACTIVE'
+                ORDER BY vr.id
+                FOR UPDATE
+            ),
+            transitioned AS (
+                UPDATE variant_reservations vr
+                SET status = ?
+                FROM locked_reservations
+                WHERE vr.id = locked_reservations.id
+                RETURNING vr.variant_id, vr.reserved_quantity
+            )
+            SELECT transitioned.variant_id,
+                   transitioned.reserved_quantity,
+                   v.product_id,
+                   p.name AS product_name,
+                   v.price,
+                   v.margin,
+                   COALESCE((SELECT SUM(b.stock_quantity) FROM variant_stock_buckets b WHERE b.variant_id = v.id), v.stock_quantity)
+                       AS stock_quantity
+            FROM transitioned
+            JOIN variants v ON v.id = transitioned.variant_id
+            JOIN products p ON p.id = v.product_id
+            """;
+
+    private static final String FIND_EXPIRY_BACKLOG_SQL = """
+            SELECT COUNT(*) AS reservations, MIN(vr.expires_at) AS oldest_expires_at
+            FROM variant_reservations vr
+            WHERE vr.status = 'ACTIVE'
+              AND vr.expires_at <= ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public VariantReservationBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Decrements the stock of every requested variant that has enough of it. Variants split into stock buckets
+     * have their buckets decremented instead of their {@code variants} row: one randomly picked bucket with enough
+     * stock, or several in bucket order when no single bucket holds the whole quantity.
+     * @param variantIds ids of variants to reserve
+     * @param quantities quantities to reserve, positionally matching {@code variantIds}
+     * @return ids of variants whose stock was decremented
+     */
+    public List<UUID> reserveStock(List<UUID> variantIds, List<Integer> quantities) {
+        return jdbcTemplate.query(
+                RESERVE_STOCK_SQL,
+                ps -> {
+                    ps.setArray(1, ps.getConnection().createArrayOf("uuid", variantIds.toArray()));
+                    ps.setArray(2, ps.getConnection().createArrayOf("int4", quantities.toArray()));
+                },
+                (rs, rowNum) -> rs.getObject("id", UUID.class)
+        );
+    }
+
+    /**
+     * Finds current stock of the given variants, summing the buckets of bucketed variants and leaving out
+     * reservations of hot variants not flushed yet. Variants that do not exist are absent from the result.
+     * @param variantIds ids of variants
+     * @return stock quantity by variant id
+     */
+    public Map<UUID, Integer> findStockQuantities(List<UUID> variantIds) {
+        Map<UUID, Integer> stockQuantities = new HashMap<>();
+        jdbcTemplate.query(
+                FIND_STOCK_QUANTITIES_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", variantIds.toArray())),
+                rs -> {
+                    stockQuantities.put(rs.getObject("id", UUID.class), rs.getInt("stock_quantity"));
+                }
+        );
+        return stockQuantities;
+    }
+
+    /**
+     * Inserts one reservation row per variant in a single statement. Rows that already exist for the reservation
+     * are skipped; if a concurrent transaction is inserting them, this waits for it to finish.
+     * @param stockFlushed whether the reserved quantities are already subtracted from {@code variants.stock_quantity};
+     *                     {@code false} for reservations granted by the in-memory ledger
+     * @return number of rows inserted
+     */
+    public int insertReservations(
+            UUID reservationId,
+            List<UUID> variantIds,
+            List<Integer> quantities,
+            ReservationStatus status,
+            LocalDateTime createdAt,
+            LocalDateTime expiresAt,
+            boolean stockFlushed) {
+        return jdbcTemplate.update(INSERT_RESERVATIONS_SQL, ps -> {
+            ps.setObject(1, reservationId);
+            ps.setTimestamp(2, Timestamp.valueOf(createdAt));
+            ps.setTimestamp(3, Timestamp.valueOf(expiresAt));
+            ps.setString(4, status.name());
+            ps.setBoolean(5, stockFlushed);
+            ps.setArray(6, ps.getConnection().createArrayOf("uuid", variantIds.toArray()));
+            ps.setArray(7, ps.getConnection().createArrayOf("int4", quantities.toArray()));
+        });
+    }
+
+    /**
+     * Finds the variants reserved under a reservation id together with the status of their rows.
+     * @return status by variant id; empty if nothing was reserved under the id
+     */
+    public Map<UUID, ReservationStatus> findReservationStatuses(UUID reservationId) {
+        Map<UUID, ReservationStatus> statuses = new HashMap<>();
+        jdbcTemplate.query(
+                FIND_RESERVATION_STATUSES_SQL,
+                rs -> {
+                    statuses.put(rs.getObject("variant_id", UUID.class), ReservationStatus.valueOf(rs.getString("status")));
+                },
+                reservationId
+        );
+        return statuses;
+    }
+
+    /**
+     * Finds the stock that is still free to reserve: {@code variants.stock_quantity} minus reservations whose
+     * quantity has not been flushed to it yet.
+     * @param variantIds ids of variants
+     * @return available stock by variant id
+     */
+    public Map<UUID, Integer> findLedgerStock(List<UUID> variantIds) {
+        Map<UUID, Integer> availableStock = new HashMap<>();
+        jdbcTemplate.query(
+                FIND_LEDGER_STOCK_SQL,
+                ps -> {
+                    ps.setArray(1, ps.getConnection().createArrayOf("uuid", variantIds.toArray()));
+                    ps.setArray(2, ps.getConnection().createArrayOf("uuid", variantIds.toArray()));
+                },
+                rs -> {
+                    availableStock.put(rs.getObject("id", UUID.class), rs.getInt("available"));
+                }
+        );
+        return availableStock;
+    }
+
+    /**
+     * Subtracts quantities of not yet flushed reservations from {@code variants.stock_quantity} and marks the
+     * reservations flushed, with one aggregated UPDATE per statement.
+     * @param variantIds ids of variants to flush
+     * @return new stock quantity of every variant that had something to flush
+     */
+    public Map<UUID, Integer> flushReservedStock(List<UUID> variantIds) {
+        Map<UUID, Integer> stockQuantities = new HashMap<>();
+        jdbcTemplate.query(
+                FLUSH_RESERVED_STOCK_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", variantIds.toArray())),
+                rs -> {
+                    stockQuantities.put(rs.getObject("id", UUID.class), rs.getInt("stock_quantity"));
+                }
+        );
+        return stockQuantities;
+    }
+
+    /**
+     * Claims up to {@code limit} overdue ACTIVE reservations, marks them EXPIRED and gives their quantities back
+     * to stock with one aggregated UPDATE. Bucketed variants get it back in their first bucket. Rows locked by a concurrent transaction are skipped, so several
+     * instances can sweep at the same time.
+     * @param now reservations expiring at or before this moment are claimed
+     * @param limit maximum number of reservations to claim
+     * @return released quantity per variant
+     */
+    public List<ReleasedStock> expireReservations(LocalDateTime now, int limit) {
+        return jdbcTemplate.query(
+                EXPIRE_RESERVATIONS_SQL,
+                ps -> {
+                    ps.setTimestamp(1, Timestamp.valueOf(now));
+                    ps.setInt(2, limit);
+                },
+                (rs, rowNum) -> new ReleasedStock(
+                        rs.getObject("variant_id", UUID.class),
+                        rs.getInt("quantity"),
+                        rs.getInt("reservations")
+                )
+        );
+    }
+
+    /**
+     * Moves the ACTIVE rows of a reservation to {@code status} and gives their quantities back to stock with one
+     * aggregated UPDATE. Rows already expired by the sweeper are left alone, their stock is back already.
+     * @return released quantity per variant
+     */
+    public List<ReleasedStock> releaseReservation(UUID reservationId, ReservationStatus status) {
+        return jdbcTemplate.query(
+                RELEASE_RESERVATION_SQL,
+                ps -> {
+                    ps.setObject(1, reservationId);
+                    ps.setString(2, status.name());
+                },
+                (rs, rowNum) -> new ReleasedStock(
+                        rs.getObject("variant_id", UUID.class),
+                        rs.getInt("quantity"),
+                        rs.getInt("reservations")
+                )
+        );
+    }
+
+    /**
+     * Moves the ACTIVE rows of a reservation to {@code status}, keeping their stock taken, and returns them
+     * together with their variant and product in the same statement.
+     */
+    public List<SoldVariant> sellReservation(UUID reservationId, ReservationStatus status) {
+        return jdbcTemplate.query(
+                SELL_RESERVATION_SQL,
+                ps -> {
+                    ps.setObject(1, reservationId);
+                    ps.setString(2, status.name());
+                },
+                (rs, rowNum) -> new SoldVariant(
+                        rs.getObject("variant_id", UUID.class),
+                        rs.getObject("product_id", UUID.class),
+                        rs.getString("product_name"),
+                        rs.getBigDecimal("price"),
+                        rs.getBigDecimal("margin"),
+                        rs.getInt("reserved_quantity"),
+                        rs.getInt("stock_quantity")
+                )
+        );
+    }
+
+    /**
+     * Finds how many ACTIVE reservations are overdue and when the oldest of them expired.
+     */
+    public ExpiryBacklog findExpiryBacklog(LocalDateTime now) {
+        return jdbcTemplate.query(
+                FIND_EXPIRY_BACKLOG_SQL,
+                ps -> ps.setTimestamp(1, Timestamp.valueOf(now)),
+                rs -> {
+                    rs.next();
+                    Timestamp oldestExpiresAt = rs.getTimestamp("oldest_expires_at");
+                    return new ExpiryBacklog(
+                            rs.getLong("reservations"),
+                            oldestExpiresAt != null ? oldestExpiresAt.toLocalDateTime() : null
+                    );
+                }
+        );
+    }
+
+    public record ReleasedStock(UUID variantId, int quantity, int reservations) {
+    }
+
+    public record ExpiryBacklog(long reservations, LocalDateTime oldestExpiresAt) {
+    }
+
+    public record SoldVariant(
+            UUID variantId,
+            UUID productId,
+            String productName,
+            BigDecimal price,
+            BigDecimal margin,
+            int quantity,
+            int stockQuantity) {
+    }
+}
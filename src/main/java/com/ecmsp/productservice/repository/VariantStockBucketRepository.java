@@ -0,0 +1,229 @@
+package com.ecmsp.productservice.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Statements on {@code variant_stock_buckets}. A variant with buckets keeps its stock split across several rows,
+ * so concurrent reservations of it lock different rows instead of queuing on its {@code variants} row.
+ * Methods that take a single variant return 0 when the variant has no buckets, so callers can fall back to
+ * {@code variants.stock_quantity}.
+ */
+@Repository
+public class VariantStockBucketRepository {
+
+    // One random bucket holding the whole quantity is decremented, which spreads reservations across the buckets.
+    // When no bucket holds all of it, the buckets are locked in bucket order and each gives what is still missing
+    // after the buckets before it
+    private static final String RESERVE_FROM_BUCKETS_SQL = """
+            WITH single_bucket AS (
+                SELECT b.bucket
+                FROM variant_stock_buckets b
+                WHERE b.variant_id = ?
+                  AND b.stock_quantity >= ?
+                ORDER BY random()
+                LIMIT 1
+            ),
+            locked_buckets AS (
+                SELECT b.variant_id, b.bucket, b.stock_quantity
+                FROM variant_stock_buckets b
+                WHERE b.variant_id = ?
+                  AND (b.bucket IN (SELECT single_bucket.bucket FROM single_bucket)
+                       OR NOT EXISTS (SELECT 1 FROM single_bucket))
+                ORDER BY b.bucket
+                FOR UPDATE OF b
+            ),
+            bucket_takes AS (
+                SELECT locked_buckets.variant_id,
+                       locked_buckets.bucket,
+                       LEAST(
+                           locked_buckets.stock_quantity,
+                           ? - COALESCE(SUM(locked_buckets.stock_quantity) OVER earlier_buckets, 0)
+                       ) AS quantity,
+                       SUM(locked_buckets.stock_quantity) OVER () AS locked_stock
+                FROM locked_buckets
+                WINDOW earlier_buckets AS (ORDER BY locked_buckets.bucket ROWS BETWEEN UNBOUNDED PRECEDING AND 1 PRECEDING)
+            ),
+            reserved_buckets AS (
+                UPDATE variant_stock_buckets b
+                SET stock_quantity = b.stock_quantity - bucket_takes.quantity
+                FROM bucket_takes
+                WHERE b.variant_id = bucket_takes.variant_id
+                  AND b.bucket = bucket_takes.bucket
+                  AND bucket_takes.quantity > 0
+                  AND bucket_takes.locked_stock >= ?
+                RETURNING b.variant_id
+            )
+            SELECT COUNT(*) > 0 AS reserved
+            FROM reserved_buckets
+            """;
+
+    private static final String RELEASE_TO_RANDOM_BUCKET_SQL = """
+            UPDATE variant_stock_buckets b
+            SET stock_quantity = b.stock_quantity + ?
+            WHERE (b.variant_id, b.bucket) = (
+                SELECT candidate.variant_id, candidate.bucket
+                FROM variant_stock_buckets candidate
+                WHERE candidate.variant_id = ?
+                ORDER BY random()
+                LIMIT 1
+            )
+            """;
+
+    private static final String EXISTS_BY_VARIANT_ID_SQL = """
+            SELECT EXISTS (SELECT 1 FROM variant_stock_buckets b WHERE b.variant_id = ?)
+            """;
+
+    private static final String SET_STOCK_SQL = """
+            UPDATE variant_stock_buckets b
+            SET stock_quantity = ? / counts.buckets + CASE WHEN b.bucket < ? % counts.buckets THEN 1 ELSE 0 END
+            FROM (
+                SELECT COUNT(*) AS buckets
+                FROM variant_stock_buckets counted
+                WHERE counted.variant_id = ?
+            ) counts
+            WHERE b.variant_id = ?
+            """;
+
+    private static final String SPLIT_INTO_BUCKETS_SQL = """
+            INSERT INTO variant_stock_buckets (variant_id, bucket, stock_quantity)
+            SELECT v.id, buckets.bucket, v.stock_quantity / ? + CASE WHEN buckets.bucket < v.stock_quantity % ? THEN 1 ELSE 0 END
+            FROM variants v
+            CROSS JOIN generate_series(0, ? - 1) AS buckets(bucket)
+            WHERE v.id = ANY(CAST(? AS uuid[]))
+              AND NOT EXISTS (SELECT 1 FROM variant_stock_buckets existing WHERE existing.variant_id = v.id)
+            FOR NO KEY UPDATE OF v
+            """;
+
+    private static final String REBALANCE_SQL = """
+            WITH candidates AS (
+                SELECT b.variant_id
+                FROM variant_stock_buckets b
+                GROUP BY b.variant_id
+                HAVING MIN(b.stock_quantity) < ?
+                   AND MAX(b.stock_quantity) - MIN(b.stock_quantity) > 1
+                LIMIT ?
+            ),
+            locked AS (
+                SELECT b.variant_id, b.bucket, b.stock_quantity
+                FROM variant_stock_buckets b
+                JOIN candidates ON candidates.variant_id = b.variant_id
+                ORDER BY b.variant_id, b.bucket
+                FOR UPDATE OF b
+            ),
+            spread AS (
+                SELECT locked.variant_id,
+                       locked.bucket,
+                       SUM(locked.stock_quantity) OVER per_variant / COUNT(*) OVER per_variant
+                           + CASE
+                                 WHEN ROW_NUMBER() OVER (PARTITION BY locked.variant_id ORDER BY locked.bucket) - 1
+                                          < SUM(locked.stock_quantity) OVER per_variant % COUNT(*) OVER per_variant
+                                 THEN 1 ELSE 0
+                             END AS stock_quantity
+                FROM locked
+                WINDOW per_variant AS (PARTITION BY locked.variant_id)
+            ),
+            rebalanced AS (
+                UPDATE variant_stock_buckets b
+                SET stock_quantity = spread.stock_quantity
+                FROM spread
+                WHERE b.variant_id = spread.variant_id
+                  AND b.bucket = spread.bucket
+                RETURNING b.variant_id
+            )
+            SELECT DISTINCT rebalanced.variant_id
+            FROM rebalanced
+            """;
+
+    private static final String SYNC_VARIANT_STOCK_SQL = """
+            UPDATE variants v
+            SET stock_quantity = totals.stock_quantity
+            FROM (
+                SELECT b.variant_id, SUM(b.stock_quantity) AS stock_quantity
+                FROM variant_stock_buckets b
+                GROUP BY b.variant_id
+            ) totals
+            WHERE v.id = totals.variant_id
+              AND v.stock_quantity <> totals.stock_quantity
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public VariantStockBucketRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Decrements a randomly picked bucket that has enough stock, or several buckets in bucket order when none of
+     * them has enough on its own.
+     * @return whether the quantity was reserved; false if the variant has no buckets or they hold less stock in total
+     */
+    public boolean reserveFromBuckets(UUID variantId, int quantity) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                RESERVE_FROM_BUCKETS_SQL,
+                Boolean.class,
+                variantId, quantity, variantId, quantity, quantity
+        ));
+    }
+
+    /**
+     * Increments a randomly picked bucket.
+     * @return 1 if a bucket was incremented, 0 if the variant has no buckets
+     */
+    public int releaseToRandomBucket(UUID variantId, int quantity) {
+        return jdbcTemplate.update(RELEASE_TO_RANDOM_BUCKET_SQL, quantity, variantId);
+    }
+
+    public boolean existsByVariantId(UUID variantId) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(EXISTS_BY_VARIANT_ID_SQL, Boolean.class, variantId));
+    }
+
+    /**
+     * Spreads a new stock quantity evenly across the buckets of a variant.
+     * @return number of buckets updated, 0 if the variant has no buckets
+     */
+    public int setStock(UUID variantId, int stockQuantity) {
+        return jdbcTemplate.update(SET_STOCK_SQL, stockQuantity, stockQuantity, variantId, variantId);
+    }
+
+    /**
+     * Creates {@code bucketCount} buckets for every given variant that has none yet, spreading its current
+     * stock evenly across them.
+     * @return number of buckets created
+     */
+    public int splitIntoBuckets(List<UUID> variantIds, int bucketCount) {
+        return jdbcTemplate.update(SPLIT_INTO_BUCKETS_SQL, ps -> {
+            ps.setInt(1, bucketCount);
+            ps.setInt(2, bucketCount);
+            ps.setInt(3, bucketCount);
+            ps.setArray(4, ps.getConnection().createArrayOf("uuid", variantIds.toArray()));
+        });
+    }
+
+    /**
+     * Spreads stock evenly again across the buckets of up to {@code limit} variants that have a bucket below
+     * {@code minBucketStock}. Buckets of a variant are locked in bucket order while they are rebalanced.
+     * @return ids of rebalanced variants
+     */
+    public List<UUID> rebalance(int minBucketStock, int limit) {
+        return jdbcTemplate.query(
+                REBALANCE_SQL,
+                ps -> {
+                    ps.setInt(1, minBucketStock);
+                    ps.setInt(2, limit);
+                },
+                (rs, rowNum) -> rs.getObject("variant_id", UUID.class)
+        );
+    }
+
+    /**
+     * Sets {@code variants.stock_quantity} of every bucketed variant to the sum of its buckets.
+     * @return number of variants updated
+     */
+    public int syncVariantStock() {
+        return jdbcTemplate.update(SYNC_VARIANT_STOCK_SQL);
+    }
+}
@@ -17,9 +17,11 @@ import java.util.stream.Collectors;
 public class CategoryService {
 
     private final CategoryRepository categoryRepository;
+    private final ProductListingCache productListingCache;
 
-    public CategoryService(CategoryRepository categoryRepository) {
+    public CategoryService(CategoryRepository categoryRepository, ProductListingCache productListingCache) {
         this.categoryRepository = categoryRepository;
+        this.productListingCache = productListingCache;
     }
 
     private CategoryResponseDTO convertToDto(Category category) {
@@ -89,6 +91,7 @@ public class CategoryService {
             childCategory.setParentCategory(savedCategory);
             categoryRepository.save(childCategory);
         }
+        productListingCache.evictAll();
 
         return CategoryCreateResponseDTO.builder()
                 .id(savedCategory.getId())
@@ -105,6 +108,7 @@ public class CategoryService {
 
         childCategory.setParentCategory(savedCategory);
         categoryRepository.save(childCategory);
+        productListingCache.evictAll();
 
         return CategoryCreateResponseDTO.builder()
                 .id(savedCategory.getId())
@@ -129,6 +133,7 @@ public class CategoryService {
             Category parentCategory = categoryRepository.findById(request.getParentCategoryId())
                     .orElseThrow(() -> new ResourceNotFoundException("Parent category not found", request.getParentCategoryId()));
             existingCategory.setParentCategory(parentCategory);
+            productListingCache.evictAll();
         }
 
         Category updatedCategory = categoryRepository.save(existingCategory);
@@ -147,6 +152,7 @@ public class CategoryService {
         }
 
         categoryRepository.deleteById(id);
+        productListingCache.evictAll();
     }
 
     public CategoryResponseDTO getCategoryByName(String name) {
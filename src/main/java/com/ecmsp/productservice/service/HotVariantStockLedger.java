@@ -0,0 +1,323 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.exception.HotVariantNotOwnedException;
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantStockChangedEvent;
+import com.ecmsp.productservice.kafka.repository.OutboxService;
+import com.ecmsp.productservice.repository.HotVariantLeaseRepository;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * In-memory stock counters for designated hot variants. Reservations of these variants are granted with a
+ * compare-and-set on the counter instead of a row lock on {@code variants}, and are recorded as
+ * {@code variant_reservations} rows with {@code stock_flushed = false}. A write-behind flush subtracts those
+ * rows from {@code variants.stock_quantity} in one statement and writes a stock changed event to the outbox
+ * in the same transaction.
+ * <p>
+ * Every hot variant is leased to one instance at a time through {@code hot_variant_leases}. Only the owner keeps
+ * a counter for it and grants its reservations; other instances reject them with
+ * {@link HotVariantNotOwnedException}, so the caller retries against the owner. The owner trusts its leases
+ * without reading them on every grant: it stops granting a margin before they expire, and a reservation whose
+ * transaction reaches its commit past that point is rolled back, so nothing is granted once another instance may
+ * have taken the variants over.
+ * <p>
+ * Every refresh interval the owner renews its leases and reloads its counters from {@code variants} minus the
+ * reservations not flushed yet. A refresh waits for reservations holding grants to commit and keeps new grants out
+ * until it is done, so the counters match the database exactly. Stock given back on any instance - by released or
+ * expired reservations, deliveries or stock edits - is written to the database only and reaches the counters with
+ * the next refresh. When an owner stops renewing, another instance takes its variants over once the leases expire
+ * and starts from the database, so nothing granted before is lost.
+ */
+@Component
+@Slf4j
+public class HotVariantStockLedger {
+
+    private final VariantReservationBatchRepository variantReservationBatchRepository;
+    private final HotVariantLeaseRepository hotVariantLeaseRepository;
+    private final OutboxService outboxService;
+    private final Supplier<UUID> eventIdSupplier;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Set<UUID> hotVariantIds;
+    private final Duration leaseTimeout;
+    private final Duration leaseMargin;
+    private final UUID ownerId = UUID.randomUUID();
+
+    // Held shared by every reservation holding a grant until its transaction ends, and exclusively by a refresh
+    private final ReadWriteLock countersLock = new ReentrantReadWriteLock();
+    // System.nanoTime() after which nothing is granted; the leases were claimed at least a margin before
+    private volatile long grantDeadlineNanos = System.nanoTime();
+
+    // Counters of the variants this instance owns. A refresh replaces counters instead of setting them, so stock
+    // given back for a grant taken before the refresh goes to the old counter and is not counted twice
+    private final Map<UUID, AtomicInteger> availableStock = new ConcurrentHashMap<>();
+
+    public HotVariantStockLedger(
+            VariantReservationBatchRepository variantReservationBatchRepository,
+            HotVariantLeaseRepository hotVariantLeaseRepository,
+            OutboxService outboxService,
+            @Qualifier("eventIdSupplier") Supplier<UUID> eventIdSupplier,
+            PlatformTransactionManager transactionManager,
+            @Value("${product.reservation.hot-variants.enabled:false}") boolean enabled,
+            @Value("${product.reservation.hot-variants.ids:}") Set<UUID> hotVariantIds,
+            @Value("${product.reservation.hot-variants.lease-timeout:10s}") Duration leaseTimeout,
+            @Value("${product.reservation.hot-variants.lease-margin:2s}") Duration leaseMargin) {
+        this.variantReservationBatchRepository = variantReservationBatchRepository;
+        this.hotVariantLeaseRepository = hotVariantLeaseRepository;
+        this.outboxService = outboxService;
+        this.eventIdSupplier = eventIdSupplier;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.hotVariantIds = hotVariantIds;
+        this.leaseTimeout = leaseTimeout;
+        this.leaseMargin = leaseMargin;
+    }
+
+    @PostConstruct
+    public void start() {
+        refresh();
+    }
+
+    /**
+     * Whether the variant is reserved through a ledger - this one or the one of the instance owning it.
+     */
+    public boolean isHot(UUID variantId) {
+        return enabled && hotVariantIds.contains(variantId);
+    }
+
+    /**
+     * @return available stock of the variant if this instance owns it
+     */
+    public Optional<Integer> getAvailableStock(UUID variantId) {
+        if (!isGranting()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(availableStock.get(variantId)).map(AtomicInteger::get);
+    }
+
+    /**
+     * Reserves all lines or none of them, within the current transaction. The counters are not refreshed until the
+     * transaction ends.
+     * @param lines quantity to reserve by variant id, all of them hot
+     * @return the grant, holding the available stock of every line that could not be reserved if any
+     * @throws HotVariantNotOwnedException if any of the lines is owned by another instance, or the leases of this
+     *                                     instance are about to expire, including when the transaction commits
+     */
+    public Grant reserveAll(Map<UUID, Integer> lines) {
+        Grant grant = new Grant();
+        if (lines.isEmpty()) {
+            return grant;
+        }
+
+        holdCountersUntilCompletion(grant, lines.keySet());
+
+        Map<UUID, AtomicInteger> counters = new TreeMap<>();
+        if (isGranting()) {
+            lines.keySet().forEach(variantId -> {
+                AtomicInteger counter = availableStock.get(variantId);
+                if (counter != null) {
+                    counters.put(variantId, counter);
+                }
+            });
+        }
+        if (counters.size() < lines.size()) {
+            throw new HotVariantNotOwnedException(lines.keySet().stream()
+                    .filter(variantId -> !counters.containsKey(variantId))
+                    .toList());
+        }
+
+        for (var line : counters.entrySet()) {
+            AtomicInteger counter = line.getValue();
+            int quantity = lines.get(line.getKey());
+
+            if (tryTake(counter, quantity)) {
+                grant.taken.put(counter, quantity);
+            } else {
+                grant.shortfall.put(line.getKey(), counter.get());
+            }
+        }
+
+        if (!grant.shortfall.isEmpty()) {
+            grant.release();
+        }
+
+        return grant;
+    }
+
+    /**
+     * Renews the leases of the hot variants, taking over expired ones, and reloads the counters of the variants
+     * this instance owns from the database. Counters of variants owned by another instance are dropped.
+     */
+    @Scheduled(fixedDelayString = "${product.reservation.hot-variants.refresh-interval-ms:1000}")
+    public void refresh() {
+        if (!enabled || hotVariantIds.isEmpty()) {
+            return;
+        }
+
+        Lock lock = countersLock.writeLock();
+        try {
+            if (!lock.tryLock(leaseTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Hot variant reservations still in progress after {} - leases not renewed", leaseTimeout);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            // Taken before the claim, so the leases end no earlier in the database than they do here
+            long claimedAtNanos = System.nanoTime();
+            Map<UUID, Integer> ledgerStock = transactionTemplate.execute(status -> {
+                List<UUID> ownedVariantIds = hotVariantLeaseRepository.claim(new ArrayList<>(hotVariantIds), ownerId, leaseTimeout);
+                return ownedVariantIds.isEmpty()
+                        ? Map.of()
+                        : variantReservationBatchRepository.findLedgerStock(ownedVariantIds);
+            });
+
+            Set<UUID> previousVariantIds = new HashSet<>(availableStock.keySet());
+            availableStock.keySet().retainAll(ledgerStock.keySet());
+            ledgerStock.forEach((variantId, available) -> availableStock.put(variantId, new AtomicInteger(available)));
+            grantDeadlineNanos = claimedAtNanos + leaseTimeout.minus(leaseMargin).toNanos();
+
+            if (!previousVariantIds.equals(ledgerStock.keySet())) {
+                log.info("Hot variant ledger owns {} of {} hot variants", ledgerStock.size(), hotVariantIds.size());
+            }
+        } catch (Exception e) {
+            // The leases may not have been renewed, so granting stops once the previous ones are about to expire
+            log.error("Error refreshing hot variant leases", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${product.reservation.hot-variants.flush-interval-ms:200}")
+    public void flush() {
+        if (availableStock.isEmpty()) {
+            return;
+        }
+
+        try {
+            Map<UUID, Integer> flushedStock = transactionTemplate.execute(status -> {
+                Map<UUID, Integer> stockQuantities = variantReservationBatchRepository.flushReservedStock(new ArrayList<>(availableStock.keySet()));
+
+                stockQuantities.forEach((variantId, stockQuantity) -> {
+                    UUID eventId = eventIdSupplier.get();
+                    KafkaVariantStockChangedEvent stockChangedEvent = new KafkaVariantStockChangedEvent(
+                            variantId.toString(),
+                            stockQuantity,
+                            stockQuantity > 0
+                    );
+                    outboxService.save(stockChangedEvent, eventId, KafkaVariantStockChangedEvent.class.getName());
+                });
+
+                return stockQuantities;
+            });
+
+            if (flushedStock != null && !flushedStock.isEmpty()) {
+                log.debug("Flushed reserved stock of {} hot variants", flushedStock.size());
+            }
+        } catch (Exception e) {
+            log.error("Error flushing hot variant stock", e);
+        }
+    }
+
+    private boolean isGranting() {
+        return System.nanoTime() - grantDeadlineNanos < 0;
+    }
+
+    /**
+     * Keeps refreshes out until the current transaction ends, and rolls it back if it commits a grant too late.
+     */
+    private void holdCountersUntilCompletion(Grant grant, Collection<UUID> variantIds) {
+        // Registered first, as it fails outside a transaction, and released on the same thread
+        Lock lock = countersLock.readLock();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                if (!grant.taken.isEmpty() && !isGranting()) {
+                    throw new HotVariantNotOwnedException(variantIds);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                lock.unlock();
+            }
+        });
+        lock.lock();
+    }
+
+    private static boolean tryTake(AtomicInteger counter, int quantity) {
+        int current;
+        do {
+            current = counter.get();
+            if (current < quantity) {
+                return false;
+            }
+        } while (!counter.compareAndSet(current, current - quantity));
+
+        return true;
+    }
+
+    /**
+     * Stock taken from the counters by one reservation.
+     */
+    public static final class Grant {
+
+        private final Map<AtomicInteger, Integer> taken = new IdentityHashMap<>();
+        private final Map<UUID, Integer> shortfall = new HashMap<>();
+
+        /**
+         * @return available stock of every line that could not be reserved; empty if all lines were reserved
+         */
+        public Map<UUID, Integer> shortfall() {
+            return shortfall;
+        }
+
+        /**
+         * Gives the stock back to the counters it was taken from.
+         */
+        public void release() {
+            taken.forEach(AtomicInteger::addAndGet);
+            taken.clear();
+        }
+
+        /**
+         * Gives the stock back if the current transaction rolls back.
+         */
+        public void releaseOnRollback() {
+            if (taken.isEmpty()) {
+                return;
+            }
+
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        release();
+                    }
+                }
+            });
+        }
+    }
+}
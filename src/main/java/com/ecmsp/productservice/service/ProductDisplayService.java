@@ -16,16 +16,17 @@ import com.ecmsp.productservice.dto.variant_property.VariantPropertyResponseDTO;
 import com.ecmsp.productservice.exception.ResourceNotFoundException;
 import com.ecmsp.productservice.repository.DefaultPropertyOptionRepository;
 import com.ecmsp.productservice.repository.ProductDisplayRepository;
+import com.ecmsp.productservice.repository.ProductListingRepository;
+import com.ecmsp.productservice.repository.ProductListingRepository.ProductListingItem;
 import com.ecmsp.productservice.repository.VariantRepository;
+import com.ecmsp.productservice.service.ProductListingCache.ListingKey;
+import com.ecmsp.productservice.service.ProductSearchService.ProductSearchResult;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Component;
 
-import java.math.BigDecimal;
 import java.util.*;
-import java.util.stream.IntStream;
 
 @Component
 public class ProductDisplayService {
@@ -37,6 +38,9 @@ public class ProductDisplayService {
     private final DefaultPropertyOptionRepository defaultPropertyOptionRepository;
     private final VariantRepository variantRepository;
     private final ProductDisplayRepository productDisplayRepository;
+    private final ProductListingRepository productListingRepository;
+    private final ProductListingCache productListingCache;
+    private final ProductSearchService productSearchService;
     private final VariantImageService variantImageService;
     private final PropertyService propertyService;
 
@@ -50,7 +54,10 @@ public class ProductDisplayService {
             PropertyService propertyService,
             DefaultPropertyOptionRepository defaultPropertyOptionRepository,
             VariantRepository variantRepository,
-            ProductDisplayRepository productDisplayRepository) {
+            ProductDisplayRepository productDisplayRepository,
+            ProductListingRepository productListingRepository,
+            ProductListingCache productListingCache,
+            ProductSearchService productSearchService) {
         this.productService = productService;
         this.variantService = variantService;
         this.categoryService = categoryService;
@@ -59,26 +66,97 @@ public class ProductDisplayService {
         this.defaultPropertyOptionRepository = defaultPropertyOptionRepository;
         this.variantRepository = variantRepository;
         this.productDisplayRepository = productDisplayRepository;
+        this.productListingRepository = productListingRepository;
+        this.productListingCache = productListingCache;
+        this.productSearchService = productSearchService;
         this.variantImageService = variantImageService;
         this.propertyService = propertyService;
     }
 
+    /**
+     * Lists the cheapest variant of every product in the category and its subcategories, from the product listing
+     * read model. With a cursor the page is sought after the last product of the previous page, so deep pages cost as
+     * much as the first; paging by page number is kept for existing clients and also returns the cursor of the next
+     * page. Products are only counted when the request asks for it. Pages are served from the listing cache.
+     */
     public GetProductsResponseDTO getProducts(GetProductsRequestDTO request, UUID categoryId) {
         int pageSize = request.pageSize() != null ? request.pageSize() : 10;
-        int pageNumber = request.pageNumber() != null ? request.pageNumber() : 0;
+        Integer pageNumber = request.cursor() == null
+                ? (request.pageNumber() != null ? request.pageNumber() : 0)
+                : null;
+        ListingKey key = new ListingKey(
+                categoryId,
+                pageSize,
+                pageNumber,
+                request.cursor(),
+                Boolean.TRUE.equals(request.includeTotalCount())
+        );
 
-        Pageable pageable = PageRequest.of(pageNumber, pageSize);
-//        Page<Variant> page = productDisplayRepository.findOneVariantPerProductByCategoryId(categoryId, pageable);
+        return productListingCache.get(key, () -> loadProducts(key));
+    }
+
+    private GetProductsResponseDTO loadProducts(ListingKey key) {
+        Long totalCount = key.includeTotalCount()
+                ? productListingRepository.countProducts(key.categoryId())
+                : null;
 
-        List<UUID> allCategoryIds = categoryService.getAllChildrenByCategoryId(categoryId);
-        Page<Variant> page = productDisplayRepository.findOneVariantPerProductByCategoryIds(allCategoryIds, pageable);
+        // One more than the page size tells whether a next page exists
+        List<ProductListingItem> items;
+        Integer nextPageNumber = null;
+        if (key.cursor() == null) {
+            items = productListingRepository.findPage(key.categoryId(), key.pageNumber() * key.pageSize(), key.pageSize() + 1);
+            nextPageNumber = key.pageNumber() + 1;
+        } else {
+            ProductListingCursor cursor = ProductListingCursor.decode(key.cursor());
+            items = productListingRepository.findPageAfter(key.categoryId(), cursor.categoryPath(), cursor.productId(), key.pageSize() + 1);
+        }
+
+        boolean hasNext = items.size() > key.pageSize();
+        List<ProductListingItem> pageItems = hasNext ? items.subList(0, key.pageSize()) : items;
+
+        String nextCursor = hasNext && !pageItems.isEmpty()
+                ? new ProductListingCursor(pageItems.getLast().categoryPath(), pageItems.getLast().productId()).encode()
+                : null;
 
-        List<Variant> variants = new ArrayList<>(page.getContent());
-        Collections.shuffle(variants);
-        Page<Variant> shuffledPage = new PageImpl<>(variants, pageable, page.getTotalElements());
+        // Seeded by the position of the page, so a page is shuffled the same way on every instance and stays cacheable
+        List<ProductListingItem> shuffledItems = new ArrayList<>(pageItems);
+        Collections.shuffle(shuffledItems, new Random(Objects.hash(key.categoryId(), key.pageNumber(), key.cursor())));
 
-//        return mapVariantsToGetProductRepresentationDTO(pageNumber, page);
-        return mapVariantsToGetProductRepresentationDTO(pageNumber, shuffledPage);
+        return GetProductsResponseDTO.builder()
+                .productsRepresentation(shuffledItems.stream().map(this::mapListingItemToProductRepresentationDTO).toList())
+                .nextPageNumber(nextPageNumber)
+                .nextCursor(nextCursor)
+                .totalCount(totalCount)
+                .build();
+    }
+
+    /**
+     * Listings carry the first image of the variant only.
+     */
+    private ProductRepresentationDTO mapListingItemToProductRepresentationDTO(ProductListingItem item) {
+        List<VariantImageResponseDTO> variantImages = item.imageId() != null
+                ? List.of(VariantImageResponseDTO.builder()
+                        .id(item.imageId())
+                        .variantId(item.variantId())
+                        .url(item.imageUrl())
+                        .position(1)
+                        .build())
+                : List.of();
+
+        return ProductRepresentationDTO.builder()
+                .productId(item.productId())
+                .name(item.productName())
+                .variantDetail(
+                        VariantDetailDTO.builder()
+                                .variantId(item.variantId())
+                                .price(item.price())
+                                .stockQuantity(item.stockQuantity())
+                                .variantImages(variantImages)
+                                .description(item.description())
+                                .additionalProperties(item.additionalProperties())
+                                .build()
+                )
+                .build();
     }
 
     public GetProductsResponseDTO getProductsFiltered(GetProductsFilteredRequestDTO request) {
@@ -98,53 +176,74 @@ public class ProductDisplayService {
         return mapVariantsToGetProductRepresentationDTO(pageNumber, page);
     }
 
+    /**
+     * Loads the products and images of the whole page in one query, instead of one lazy load per variant.
+     */
     private GetProductsResponseDTO mapVariantsToGetProductRepresentationDTO(int pageNumber, Page<Variant> page) {
-        List<ProductRepresentationDTO> productRepresentationsDTO = page.map(item -> {
-            List<VariantImageResponseDTO> variantImages = variantImageService.convertVariantImagesToDto(item.getVariantImages());
-
-            return ProductRepresentationDTO.builder()
-                    .productId(item.getProduct().getId())
-                    .name(item.getProduct().getName())
-                    .variantDetail(
-                            VariantDetailDTO.builder()
-                                    .variantId(item.getId())
-                                    .price(item.getPrice())
-                                    .stockQuantity(item.getStockQuantity())
-                                    .variantImages(variantImages)
-                                    .description(item.getDescription())
-                                    .additionalProperties(item.getAdditionalProperties())
-                                    .build()
-                    )
-                    .build();
-        }).toList();
+        List<UUID> variantIds = page.map(Variant::getId).toList();
+        Map<UUID, Variant> variantsById = new HashMap<>();
+        if (!variantIds.isEmpty()) {
+            variantRepository.findWithProductAndImagesByIdIn(variantIds)
+                    .forEach(variant -> variantsById.put(variant.getId(), variant));
+        }
+
+        List<ProductRepresentationDTO> productRepresentationsDTO = variantIds.stream()
+                .map(variantsById::get)
+                .filter(Objects::nonNull)
+                .map(this::mapVariantToProductRepresentationDTO)
+                .toList();
 
         return GetProductsResponseDTO.builder()
                 .productsRepresentation(productRepresentationsDTO)
                 .nextPageNumber(pageNumber + 1)
                 .build();
     }
-    // TODO: Add correct product search logic based on Query- for now it will be dummy data
+
+    private ProductRepresentationDTO mapVariantToProductRepresentationDTO(Variant item) {
+        List<VariantImageResponseDTO> variantImages = variantImageService.convertVariantImagesToDto(item.getVariantImages());
+
+        return ProductRepresentationDTO.builder()
+                .productId(item.getProduct().getId())
+                .name(item.getProduct().getName())
+                .variantDetail(
+                        VariantDetailDTO.builder()
+                                .variantId(item.getId())
+                                .price(item.getPrice())
+                                .stockQuantity(item.getStockQuantity())
+                                .variantImages(variantImages)
+                                .description(item.getDescription())
+                                .additionalProperties(item.getAdditionalProperties())
+                                .build()
+                )
+                .build();
+    }
+    /**
+     * Searches products by name, description and variant texts, best match first. Only the first
+     * {@value ProductSearchService#MAX_RESULT_WINDOW} matches can be paged through.
+     */
     public GetProductsResponseDTO getProductsQueried(GetProductsRequestDTO request, String query) {
-        List<ProductRepresentationDTO> productRepresentationsDTO = IntStream.range(0, 4)
-                .mapToObj(i -> ProductRepresentationDTO.builder()
-                        .productId(UUID.randomUUID())
-                        .name("Mocked product " + (i + 1))
-                        .variantDetail(
-                                VariantDetailDTO.builder()
-                                        .variantId(UUID.randomUUID())
-                                        .price(BigDecimal.valueOf(1000 + (i * 500L)))
-                                        .stockQuantity(100 + (i * 200))
-                                        .variantImages(List.of(VariantImageResponseDTO.builder().url("https://images.pexels.com/photos/45201/kitty-cat-kitten-pet-45201.jpeg").build()))
-                                        .description("Description for product " + (i + 1) + query)
-                                        .additionalProperties(null)
-                                        .build()
-                        )
-                        .build())
+        int pageSize = request.pageSize() != null ? request.pageSize() : 10;
+        int pageNumber = request.pageNumber() != null ? request.pageNumber() : 0;
+
+        ProductSearchResult result = productSearchService.search(query, pageNumber * pageSize, pageSize);
+
+        Map<UUID, ProductListingItem> itemsByProductId = new HashMap<>();
+        if (!result.productIds().isEmpty()) {
+            productListingRepository.findByProductIds(result.productIds())
+                    .forEach(item -> itemsByProductId.put(item.productId(), item));
+        }
+
+        // A product unlisted since it was found is left out of the page
+        List<ProductRepresentationDTO> productRepresentationsDTO = result.productIds().stream()
+                .map(itemsByProductId::get)
+                .filter(Objects::nonNull)
+                .map(this::mapListingItemToProductRepresentationDTO)
                 .toList();
 
         return GetProductsResponseDTO.builder()
                 .productsRepresentation(productRepresentationsDTO)
-                .nextPageNumber(1)
+                .nextPageNumber(pageNumber + 1)
+                .totalCount(Boolean.TRUE.equals(request.includeTotalCount()) ? (long) result.totalHits() : null)
                 .build();
     }
 
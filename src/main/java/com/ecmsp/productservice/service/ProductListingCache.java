@@ -0,0 +1,116 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.domain.Category;
+import com.ecmsp.productservice.dto.rest.GetProductsResponseDTO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Listing pages of categories, for the browse endpoint. A listing of a category includes its subcategories, so a
+ * product, variant or image change evicts the pages of its category and of every ancestor once the write commits;
+ * a change to the category tree evicts every page. Stock moved by reservations does not evict pages, the TTL bounds
+ * how stale their stock gets. A zero TTL disables the cache.
+ */
+@Component
+public class ProductListingCache {
+
+    private final Cache<ListingKey, GetProductsResponseDTO> pages;
+    // Bumped by every eviction, so a page loaded across one is not cached with data from before the write
+    private final AtomicLong generation = new AtomicLong();
+
+    public ProductListingCache(
+            @Value("${product.listing.cache-ttl:30s}") Duration cacheTtl,
+            @Value("${product.listing.cache-size:10000}") long cacheSize) {
+        this.pages = cacheTtl.isZero()
+                ? null
+                : Caffeine.newBuilder()
+                        .expireAfterWrite(cacheTtl)
+                        .maximumSize(cacheSize)
+                        .build();
+    }
+
+    GetProductsResponseDTO get(ListingKey key, Supplier<GetProductsResponseDTO> loader) {
+        if (pages == null) {
+            return loader.get();
+        }
+
+        GetProductsResponseDTO cached = pages.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long loadedGeneration = generation.get();
+        GetProductsResponseDTO loaded = loader.get();
+        // Put before checking, so an eviction either is seen here or removes the page itself
+        pages.put(key, loaded);
+        if (generation.get() != loadedGeneration) {
+            pages.invalidate(key);
+        }
+        return loaded;
+    }
+
+    /**
+     * Evicts pages listing products of the category once the current transaction commits. Must be called while the
+     * category is still attached, as its ancestors are read from it.
+     */
+    void evictCategory(Category category) {
+        if (pages == null) {
+            return;
+        }
+
+        Set<UUID> categoryIds = new HashSet<>();
+        Category current = category;
+        while (current != null && categoryIds.add(current.getId())) {
+            current = current.getParentCategory();
+        }
+        runAfterCommit(() -> {
+            generation.incrementAndGet();
+            pages.asMap().keySet().removeIf(key -> categoryIds.contains(key.categoryId()));
+        });
+    }
+
+    /**
+     * Evicts every page once the current transaction commits, for changes that move products between listings.
+     */
+    void evictAll() {
+        if (pages == null) {
+            return;
+        }
+
+        runAfterCommit(() -> {
+            generation.incrementAndGet();
+            pages.invalidateAll();
+        });
+    }
+
+    private static void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Request parameters a listing page depends on, with defaults applied so equal requests share a page.
+     */
+    record ListingKey(UUID categoryId, int pageSize, Integer pageNumber, String cursor, boolean includeTotalCount) {
+    }
+}
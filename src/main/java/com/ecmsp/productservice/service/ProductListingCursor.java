@@ -0,0 +1,53 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.exception.InvalidCursorException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Opaque cursor of a product listing page: the position of the last product on the page in listing order, behind a
+ * version byte so the format can change without breaking cursors clients still hold.
+ * @param categoryPath category path of the product, or {@code null} for a version 1 cursor, which the listing
+ *                     continues from where the product is listed now
+ */
+record ProductListingCursor(String categoryPath, UUID productId) {
+
+    // Version 1 held only the product id, from when listings were ordered by it alone
+    private static final byte VERSION_1 = 1;
+    private static final byte VERSION = 2;
+
+    String encode() {
+        byte[] path = categoryPath.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 16 + path.length)
+                .put(VERSION)
+                .putLong(productId.getMostSignificantBits())
+                .putLong(productId.getLeastSignificantBits())
+                .put(path);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    static ProductListingCursor decode(String cursor) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(cursor);
+        }
+        boolean version1 = bytes.length == 1 + 16 && bytes[0] == VERSION_1;
+        if (!version1 && (bytes.length < 1 + 16 || bytes[0] != VERSION)) {
+            throw new InvalidCursorException(cursor);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, 16);
+        UUID productId = new UUID(buffer.getLong(), buffer.getLong());
+        if (version1) {
+            return new ProductListingCursor(null, productId);
+        }
+        String categoryPath = new String(Arrays.copyOfRange(bytes, 1 + 16, bytes.length), StandardCharsets.UTF_8);
+        return new ProductListingCursor(categoryPath, productId);
+    }
+}
@@ -0,0 +1,419 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.repository.ProductSearchDocumentRepository.ProductSearchDocument;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index of products, ranked with BM25. Text is folded to lower case without diacritics and split
+ * into runs of letters and digits; terms of the product name count {@link #NAME_WEIGHT} times. A query matches
+ * products containing all of its terms.
+ * <p>
+ * Every product is a document with an id assigned in insertion order, so posting lists stay sorted by document id
+ * and are intersected by walking the rarest term and looking its documents up in the others. Replacing or removing a
+ * product only marks its document deleted; document frequencies keep counting deleted documents until the index is
+ * compacted, which happens once they outnumber live ones.
+ */
+final class ProductSearchIndex {
+
+    private static final int NAME_WEIGHT = 3;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    // Letters with a stroke have no decomposition to strip marks from
+    private static final Map<Character, Character> STROKED_LETTERS = Map.of('ł', 'l', 'đ', 'd', 'ø', 'o', 'ħ', 'h');
+    private static final Comparator<ScoredDocument> WORST_FIRST = Comparator
+            .comparingDouble(ScoredDocument::score)
+            .thenComparing(ScoredDocument::documentId, Comparator.reverseOrder());
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postingsByTerm = new HashMap<>();
+    private final Map<UUID, Integer> documentIdsByProductId = new HashMap<>();
+    private final BitSet deletedDocuments = new BitSet();
+    private UUID[] productIds = new UUID[1024];
+    private int[] lengths = new int[1024];
+    private int documentCount;
+    private int liveDocumentCount;
+    private long liveLength;
+
+    /**
+     * Adds the product, replacing its previous document.
+     */
+    void put(ProductSearchDocument document) {
+        Map<String, Integer> frequencies = termFrequencies(document);
+
+        lock.writeLock().lock();
+        try {
+            delete(document.productId());
+            if (frequencies.isEmpty()) {
+                return;
+            }
+
+            int documentId = documentCount++;
+            if (documentId == productIds.length) {
+                productIds = Arrays.copyOf(productIds, documentId * 2);
+                lengths = Arrays.copyOf(lengths, documentId * 2);
+            }
+
+            int length = 0;
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postingsByTerm.computeIfAbsent(entry.getKey(), term -> new Postings()).add(documentId, entry.getValue());
+                length += entry.getValue();
+            }
+            productIds[documentId] = document.productId();
+            lengths[documentId] = length;
+            documentIdsByProductId.put(document.productId(), documentId);
+            liveDocumentCount++;
+            liveLength += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(UUID productId) {
+        lock.writeLock().lock();
+        try {
+            delete(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocumentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the products at {@code offset} to {@code offset + limit} in ranking order, best first, and the
+     * number of products matching the query
+     */
+    Hits search(String query, int offset, int limit) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty()) {
+            return new Hits(List.of(), 0);
+        }
+
+        lock.readLock().lock();
+        try {
+            List<Postings> termPostings = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                Postings postings = postingsByTerm.get(term);
+                if (postings == null) {
+                    return new Hits(List.of(), 0);
+                }
+                termPostings.add(postings);
+            }
+            termPostings.sort(Comparator.comparingInt(Postings::size));
+
+            float[] idfs = new float[termPostings.size()];
+            for (int i = 0; i < idfs.length; i++) {
+                int documentFrequency = termPostings.get(i).size();
+                idfs[i] = (float) Math.log(1 + (liveDocumentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            }
+
+            int window = offset + limit;
+            PriorityQueue<ScoredDocument> best = new PriorityQueue<>(Math.max(window, 1), WORST_FIRST);
+            int totalHits = collect(termPostings, idfs, window, best);
+
+            List<ScoredDocument> ranked = new ArrayList<>(best);
+            ranked.sort(WORST_FIRST.reversed());
+            List<UUID> page = ranked.stream()
+                    .skip(offset)
+                    .map(scoredDocument -> productIds[scoredDocument.documentId()])
+                    .toList();
+            return new Hits(page, totalHits);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scores documents containing all terms, keeping the best {@code window} of them.
+     * @param termPostings postings of the terms, rarest first, which drives the intersection
+     * @return number of documents containing all terms
+     */
+    private int collect(List<Postings> termPostings, float[] idfs, int window, PriorityQueue<ScoredDocument> best) {
+        float averageLength = liveDocumentCount > 0 ? (float) liveLength / liveDocumentCount : 1;
+        float normBase = K1 * (1 - B);
+        float normPerLength = K1 * B / averageLength;
+        int[] lengths = this.lengths;
+        BitSet deletedDocuments = liveDocumentCount < documentCount ? this.deletedDocuments : null;
+
+        Postings rarest = termPostings.getFirst();
+        TermCursor[] others = new TermCursor[termPostings.size() - 1];
+        for (int t = 0; t < others.length; t++) {
+            others[t] = new TermCursor(termPostings.get(t + 1), rarest.size, documentCount);
+        }
+
+        float threshold = window == 0 ? Float.POSITIVE_INFINITY : Float.NEGATIVE_INFINITY;
+        int totalHits = 0;
+        candidates:
+        for (int i = 0; i < rarest.size; i++) {
+            int documentId = rarest.documentIds[i];
+            if (deletedDocuments != null && deletedDocuments.get(documentId)) {
+                continue;
+            }
+
+            float norm = normBase + normPerLength * lengths[documentId];
+            float score = idfs[0] * termScore(rarest.frequencies[i], norm);
+            for (int t = 0; t < others.length; t++) {
+                int frequency = others[t].frequency(documentId);
+                if (frequency == 0) {
+                    continue candidates;
+                }
+                score += idfs[t + 1] * termScore(frequency, norm);
+            }
+
+            totalHits++;
+            if (score > threshold) {
+                if (best.size() == window) {
+                    best.poll();
+                }
+                best.add(new ScoredDocument(documentId, score));
+                if (best.size() == window) {
+                    threshold = best.peek().score();
+                }
+            }
+        }
+        return totalHits;
+    }
+
+    private static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return List.of();
+        }
+
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD))
+                .replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean tokenCharacter = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (tokenCharacter && start < 0) {
+                start = i;
+            } else if (!tokenCharacter && start >= 0) {
+                tokens.add(unstroke(folded.substring(start, i)));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static String unstroke(String token) {
+        char[] characters = token.toCharArray();
+        for (int i = 0; i < characters.length; i++) {
+            characters[i] = STROKED_LETTERS.getOrDefault(characters[i], characters[i]);
+        }
+        return new String(characters);
+    }
+
+    private static Map<String, Integer> termFrequencies(ProductSearchDocument document) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokenize(document.name())) {
+            frequencies.merge(token, NAME_WEIGHT, Integer::sum);
+        }
+        for (String text : new String[]{document.description(), document.variantText(), document.propertyText()}) {
+            for (String token : tokenize(text)) {
+                frequencies.merge(token, 1, Integer::sum);
+            }
+        }
+        return frequencies;
+    }
+
+    private static float termScore(int frequency, float norm) {
+        return frequency * (K1 + 1) / (frequency + norm);
+    }
+
+    private void delete(UUID productId) {
+        Integer documentId = documentIdsByProductId.remove(productId);
+        if (documentId == null) {
+            return;
+        }
+
+        deletedDocuments.set(documentId);
+        liveDocumentCount--;
+        liveLength -= lengths[documentId];
+        if (documentCount - liveDocumentCount > Math.max(liveDocumentCount, 1024)) {
+            compact();
+        }
+    }
+
+    /**
+     * Drops deleted documents, renumbering the live ones in their current order so posting lists stay sorted.
+     */
+    private void compact() {
+        int[] newDocumentIds = new int[documentCount];
+        int liveDocuments = 0;
+        for (int documentId = 0; documentId < documentCount; documentId++) {
+            if (deletedDocuments.get(documentId)) {
+                newDocumentIds[documentId] = -1;
+                continue;
+            }
+            newDocumentIds[documentId] = liveDocuments;
+            productIds[liveDocuments] = productIds[documentId];
+            lengths[liveDocuments] = lengths[documentId];
+            documentIdsByProductId.put(productIds[liveDocuments], liveDocuments);
+            liveDocuments++;
+        }
+        Arrays.fill(productIds, liveDocuments, documentCount, null);
+
+        postingsByTerm.values().removeIf(postings -> postings.renumber(newDocumentIds) == 0);
+        deletedDocuments.clear();
+        documentCount = liveDocuments;
+    }
+
+    record Hits(List<UUID> productIds, int totalHits) {
+    }
+
+    private record ScoredDocument(int documentId, float score) {
+    }
+
+    /**
+     * Looks up documents of increasing id in the postings of a term. Postings about as long as the ones driving the
+     * intersection are put in a bitmap of their documents, since merging two long lists stalls on mispredicted
+     * branches; much longer ones are galloped through.
+     */
+    private static final class TermCursor {
+
+        private static final int MAX_BITMAP_SIZE_RATIO = 16;
+
+        private final Postings postings;
+        private final long[] bitmap;
+        // Number of postings before each word of the bitmap, to find the frequency of a document in it
+        private final int[] ranks;
+        private int position;
+
+        TermCursor(Postings postings, int drivingSize, int documentCount) {
+            this.postings = postings;
+            boolean dense = (long) drivingSize * Long.SIZE >= documentCount
+                    && postings.size <= (long) drivingSize * MAX_BITMAP_SIZE_RATIO;
+            if (!dense) {
+                this.bitmap = null;
+                this.ranks = null;
+                return;
+            }
+
+            this.bitmap = new long[(documentCount + Long.SIZE - 1) / Long.SIZE];
+            for (int i = 0; i < postings.size; i++) {
+                int documentId = postings.documentIds[i];
+                bitmap[documentId >>> 6] |= 1L << documentId;
+            }
+            this.ranks = new int[bitmap.length];
+            int rank = 0;
+            for (int word = 0; word < bitmap.length; word++) {
+                ranks[word] = rank;
+                rank += Long.bitCount(bitmap[word]);
+            }
+        }
+
+        /**
+         * @return weighted frequency of the term in the document, or 0 if the document does not contain it
+         */
+        int frequency(int documentId) {
+            if (bitmap != null) {
+                long word = bitmap[documentId >>> 6];
+                long bit = 1L << documentId;
+                if ((word & bit) == 0) {
+                    return 0;
+                }
+                return postings.frequencies[ranks[documentId >>> 6] + Long.bitCount(word & (bit - 1))];
+            }
+
+            position = postings.advance(position, documentId);
+            return position < postings.size && postings.documentIds[position] == documentId
+                    ? postings.frequencies[position]
+                    : 0;
+        }
+    }
+
+    /**
+     * Documents containing a term, with the weighted number of times it occurs in each, in document id order.
+     */
+    private static final class Postings {
+
+        private int[] documentIds = new int[2];
+        private int[] frequencies = new int[2];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void add(int documentId, int frequency) {
+            if (size == documentIds.length) {
+                documentIds = Arrays.copyOf(documentIds, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            documentIds[size] = documentId;
+            frequencies[size] = frequency;
+            size++;
+        }
+
+        /**
+         * @return the first position at or after {@code from} whose document id is not below the target, or the size
+         */
+        int advance(int from, int targetDocumentId) {
+            // Dense lists of common terms mostly hold the target right where the previous search stopped
+            if (from == size || documentIds[from] >= targetDocumentId) {
+                return from;
+            }
+            if (from + 1 < size && documentIds[from + 1] >= targetDocumentId) {
+                return from + 1;
+            }
+
+            int step = 1;
+            int low = from;
+            int high = from;
+            while (high < size && documentIds[high] < targetDocumentId) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, size);
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (documentIds[middle] < targetDocumentId) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        int renumber(int[] newDocumentIds) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int newDocumentId = newDocumentIds[documentIds[i]];
+                if (newDocumentId >= 0) {
+                    documentIds[kept] = newDocumentId;
+                    frequencies[kept] = frequencies[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            return kept;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.exception.SearchIndexNotReadyException;
+import com.ecmsp.productservice.repository.ProductSearchDocumentRepository;
+import com.ecmsp.productservice.repository.ProductSearchDocumentRepository.ProductSearchDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Full text search of products over the in-memory {@link ProductSearchIndex}, so searches never reach the database.
+ * The index is built on a dedicated thread once the context is refreshed, reading listed products in batches;
+ * searches are rejected until it is ready. Catalog writes notify the products they touched on the
+ * {@value ProductSearchDocumentRepository#REINDEX_CHANNEL} channel, which PostgreSQL delivers to every instance when
+ * they commit, and the same thread reloads those products into the index, so a write on any instance shows up in
+ * search shortly after it commits. The thread listens before the index is built, so writes that commit while it is
+ * being built are applied once it is done. Notifications sent while the listen connection is down are lost, so the
+ * index is built again whenever the connection is established anew.
+ */
+@Service
+@Slf4j
+public class ProductSearchService implements SmartLifecycle {
+
+    // Deeper pages are not served, so a query never ranks more than this many products
+    static final int MAX_RESULT_WINDOW = 1000;
+
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration NOTIFICATION_TIMEOUT = Duration.ofSeconds(1);
+
+    private final ProductSearchDocumentRepository productSearchDocumentRepository;
+    private final DataSourceProperties dataSourceProperties;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration retryDelay;
+
+    // Products whose reindex failed, retried before the next notifications
+    private final BlockingQueue<UUID> pendingProductIds = new LinkedBlockingQueue<>();
+
+    private volatile ProductSearchIndex index;
+    private volatile Thread indexerThread;
+    private volatile Connection listenConnection;
+    private boolean listenFailing;
+
+    public ProductSearchService(
+            ProductSearchDocumentRepository productSearchDocumentRepository,
+            DataSourceProperties dataSourceProperties,
+            @Value("${product.search.enabled:true}") boolean enabled,
+            @Value("${product.search.batch-size:1000}") int batchSize,
+            @Value("${product.search.retry-delay:5s}") Duration retryDelay) {
+        this.productSearchDocumentRepository = productSearchDocumentRepository;
+        this.dataSourceProperties = dataSourceProperties;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * @return ids of matching products on the page, best match first, and how many products match in total
+     */
+    public ProductSearchResult search(String query, int offset, int limit) {
+        ProductSearchIndex currentIndex = index;
+        if (currentIndex == null) {
+            throw new SearchIndexNotReadyException();
+        }
+        if (offset >= MAX_RESULT_WINDOW) {
+            return new ProductSearchResult(List.of(), currentIndex.search(query, 0, 0).totalHits());
+        }
+
+        ProductSearchIndex.Hits hits = currentIndex.search(query, offset, Math.min(limit, MAX_RESULT_WINDOW - offset));
+        return new ProductSearchResult(hits.productIds(), hits.totalHits());
+    }
+
+    /**
+     * Reindexes the product on every instance once the current transaction commits, or right away outside a
+     * transaction.
+     */
+    void reindexAfterCommit(UUID productId) {
+        if (!enabled) {
+            return;
+        }
+        productSearchDocumentRepository.notifyReindex(productId);
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        indexerThread = Thread.ofPlatform()
+                .name("product-search-indexer")
+                .daemon()
+                .start(this::run);
+    }
+
+    @Override
+    public void stop() {
+        Thread thread = indexerThread;
+        if (thread == null) {
+            return;
+        }
+
+        thread.interrupt();
+        closeListenConnection();
+        try {
+            thread.join(SHUTDOWN_TIMEOUT.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        indexerThread = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return indexerThread != null;
+    }
+
+    private void run() {
+        boolean rebuild = true;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // Writes committed while not listening were missed, so the index is built again once listening
+                if (listenConnection == null && listen()) {
+                    rebuild = true;
+                }
+                if (rebuild) {
+                    index = buildIndex();
+                    rebuild = false;
+                }
+
+                if (listenConnection == null) {
+                    Thread.sleep(retryDelay.toMillis());
+                    continue;
+                }
+                List<UUID> productIds = awaitReindexRequests();
+                if (!productIds.isEmpty()) {
+                    reindex(productIds);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                // The products being reindexed stay as they were until they change again or the index is rebuilt
+                log.error("Error updating the product search index", e);
+                try {
+                    Thread.sleep(retryDelay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        closeListenConnection();
+    }
+
+    /**
+     * @return products to reindex: the ones whose reindex failed, and the ones notified within the timeout
+     */
+    private List<UUID> awaitReindexRequests() {
+        List<UUID> productIds = new ArrayList<>(batchSize);
+        pendingProductIds.drainTo(productIds, batchSize);
+
+        try {
+            PGConnection connection = listenConnection.unwrap(PGConnection.class);
+            PGNotification[] notifications = productIds.isEmpty()
+                    ? connection.getNotifications((int) NOTIFICATION_TIMEOUT.toMillis())
+                    : connection.getNotifications();
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    try {
+                        productIds.add(UUID.fromString(notification.getParameter()));
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Ignoring reindex request of an invalid product id: {}", notification.getParameter());
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            if (!Thread.currentThread().isInterrupted()) {
+                log.warn("Product search listen connection lost - the index will be built again: {}", e.getMessage());
+            }
+            closeListenConnection();
+        }
+        return productIds;
+    }
+
+    /**
+     * @return whether listening started; notifications sent from then on are delivered to the listen connection
+     */
+    private boolean listen() {
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(
+                    dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(),
+                    dataSourceProperties.determinePassword());
+            connection.unwrap(PGConnection.class);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + ProductSearchDocumentRepository.REINDEX_CHANNEL);
+            }
+            listenConnection = connection;
+            listenFailing = false;
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            // Only the first failure of a streak is worth a warning
+            if (!listenFailing) {
+                log.warn("Cannot listen for product changes - retrying every {}: {}", retryDelay, e.getMessage());
+            } else {
+                log.debug("Cannot listen for product changes: {}", e.getMessage());
+            }
+            listenFailing = true;
+            close(connection);
+            return false;
+        }
+    }
+
+    private void closeListenConnection() {
+        Connection connection = listenConnection;
+        listenConnection = null;
+        close(connection);
+    }
+
+    private static void close(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Failed to close product search listen connection", e);
+        }
+    }
+
+    private ProductSearchIndex buildIndex() throws InterruptedException {
+        long startedAt = System.nanoTime();
+        ProductSearchIndex newIndex = new ProductSearchIndex();
+        UUID afterProductId = new UUID(0, 0);
+        List<ProductSearchDocument> documents;
+        do {
+            documents = loadDocumentsAfter(afterProductId);
+            documents.forEach(newIndex::put);
+            if (!documents.isEmpty()) {
+                afterProductId = documents.getLast().productId();
+            }
+        } while (documents.size() == batchSize);
+
+        log.info("Product search index built with {} products in {} ms",
+                newIndex.size(), Duration.ofNanos(System.nanoTime() - startedAt).toMillis());
+        return newIndex;
+    }
+
+    private List<ProductSearchDocument> loadDocumentsAfter(UUID afterProductId) throws InterruptedException {
+        while (true) {
+            try {
+                return productSearchDocumentRepository.findDocumentsAfter(afterProductId, batchSize);
+            } catch (DataAccessException e) {
+                log.warn("Failed to load products for the search index, retrying in {}", retryDelay, e);
+                Thread.sleep(retryDelay.toMillis());
+            }
+        }
+    }
+
+    private void reindex(List<UUID> productIds) throws InterruptedException {
+        Set<UUID> distinctProductIds = new LinkedHashSet<>(productIds);
+        Map<UUID, ProductSearchDocument> documents;
+        try {
+            documents = productSearchDocumentRepository.findDocuments(distinctProductIds).stream()
+                    .collect(Collectors.toMap(ProductSearchDocument::productId, Function.identity()));
+        } catch (DataAccessException e) {
+            log.warn("Failed to reindex {} products, retrying in {}", distinctProductIds.size(), retryDelay, e);
+            pendingProductIds.addAll(distinctProductIds);
+            Thread.sleep(retryDelay.toMillis());
+            return;
+        }
+
+        // Products no longer listed are not found and leave the index
+        for (UUID productId : distinctProductIds) {
+            ProductSearchDocument document = documents.get(productId);
+            if (document != null) {
+                index.put(document);
+            } else {
+                index.remove(productId);
+            }
+        }
+    }
+
+    public record ProductSearchResult(List<UUID> productIds, int totalHits) {
+    }
+}
@@ -20,10 +20,18 @@ import java.util.UUID;
 public class ProductService {
     private final ProductRepository productRepository;
     private final CategoryRepository categoryRepository;
-
-    public ProductService(ProductRepository productRepository, CategoryRepository categoryRepository) {
+    private final ProductListingCache productListingCache;
+    private final ProductSearchService productSearchService;
+
+    public ProductService(
+            ProductRepository productRepository,
+            CategoryRepository categoryRepository,
+            ProductListingCache productListingCache,
+            ProductSearchService productSearchService) {
         this.productRepository = productRepository;
         this.categoryRepository = categoryRepository;
+        this.productListingCache = productListingCache;
+        this.productSearchService = productSearchService;
     }
 
     private ProductResponseDTO convertToDto(Product product) {
@@ -70,6 +78,8 @@ public class ProductService {
     public ProductCreateResponseDTO createProduct(ProductCreateRequestDTO request) {
         Product product = convertToEntity(request);
         Product savedProduct = productRepository.save(product);
+        productListingCache.evictCategory(savedProduct.getCategory());
+        productSearchService.reindexAfterCommit(savedProduct.getId());
 
         return ProductCreateResponseDTO
                 .builder()
@@ -81,6 +91,8 @@ public class ProductService {
     public ProductResponseDTO updateProduct(UUID id, ProductUpdateRequestDTO request) {
         Product existingProduct = productRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Product", id));
+        productListingCache.evictCategory(existingProduct.getCategory());
+        productSearchService.reindexAfterCommit(id);
 
         if (request.getName() != null) {
             existingProduct.setName(request.getName());
@@ -105,6 +117,7 @@ public class ProductService {
             Category category = categoryRepository.findById(newCategoryId)
                     .orElseThrow(() -> new ResourceNotFoundException("Category", newCategoryId));
             existingProduct.setCategory(category);
+            productListingCache.evictCategory(category);
         }
 
         Product updatedProduct = productRepository.save(existingProduct);
@@ -115,6 +128,8 @@ public class ProductService {
     public void deleteProduct(UUID id) {
         Product product = productRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Product", id));
+        productListingCache.evictCategory(product.getCategory());
+        productSearchService.reindexAfterCommit(id);
         productRepository.delete(product);
     }
 }
@@ -0,0 +1,106 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository.ExpiryBacklog;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository.ReleasedStock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Returns stock held by reservations that were never completed. Overdue ACTIVE reservations are expired in
+ * bounded batches, each batch being a single statement, so a large backlog never holds locks on
+ * {@code variants} for long. Stock of hot variants reaches the ledger of their owner with its next refresh.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(
+        prefix = "product.reservation.expiry",
+        name = "enabled",
+        havingValue = "true",
+        matchIfMissing = true
+)
+public class ReservationExpiryService {
+
+    private final VariantReservationBatchRepository variantReservationBatchRepository;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+
+    private final Counter expiredReservationsCounter;
+    private final Counter releasedQuantityCounter;
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong lagSeconds = new AtomicLong();
+
+    public ReservationExpiryService(
+            VariantReservationBatchRepository variantReservationBatchRepository,
+            MeterRegistry meterRegistry,
+            @Value("${product.reservation.expiry.batch-size:500}") int batchSize,
+            @Value("${product.reservation.expiry.max-batches-per-run:20}") int maxBatchesPerRun) {
+        this.variantReservationBatchRepository = variantReservationBatchRepository;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+
+        this.expiredReservationsCounter = Counter.builder("product.reservation.expiry.expired")
+                .description("Reservations expired by the sweeper")
+                .register(meterRegistry);
+        this.releasedQuantityCounter = Counter.builder("product.reservation.expiry.released.quantity")
+                .description("Stock quantity returned from expired reservations")
+                .register(meterRegistry);
+        Gauge.builder("product.reservation.expiry.backlog", backlog, AtomicLong::get)
+                .description("Overdue ACTIVE reservations left after the last sweep")
+                .register(meterRegistry);
+        Gauge.builder("product.reservation.expiry.lag.seconds", lagSeconds, AtomicLong::get)
+                .description("How long the oldest overdue ACTIVE reservation has been waiting to be expired")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${product.reservation.expiry.interval-ms:30000}")
+    public void expireReservations() {
+        try {
+            int expired = 0;
+            int batches = 0;
+            boolean fullBatch = true;
+
+            while (fullBatch && batches < maxBatchesPerRun) {
+                List<ReleasedStock> releasedStock = variantReservationBatchRepository.expireReservations(LocalDateTime.now(), batchSize);
+
+                int batchExpired = releasedStock.stream().mapToInt(ReleasedStock::reservations).sum();
+                int batchQuantity = releasedStock.stream().mapToInt(ReleasedStock::quantity).sum();
+                expiredReservationsCounter.increment(batchExpired);
+                releasedQuantityCounter.increment(batchQuantity);
+
+                expired += batchExpired;
+                batches++;
+                fullBatch = batchExpired == batchSize;
+            }
+
+            if (expired > 0) {
+                log.info("Expired {} reservations in {} batches", expired, batches);
+            }
+
+            updateBacklog();
+        } catch (Exception e) {
+            log.error("Error expiring reservations", e);
+        }
+    }
+
+    private void updateBacklog() {
+        LocalDateTime now = LocalDateTime.now();
+        ExpiryBacklog expiryBacklog = variantReservationBatchRepository.findExpiryBacklog(now);
+
+        backlog.set(expiryBacklog.reservations());
+        lagSeconds.set(expiryBacklog.oldestExpiresAt() != null
+                ? Duration.between(expiryBacklog.oldestExpiresAt(), now).toSeconds()
+                : 0);
+    }
+}
@@ -0,0 +1,188 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.dto.variant_reservation.VariantReservationResultDTO;
+import com.ecmsp.productservice.dto.variant_reservation.VariantsReservationCreateRequestDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Savepoint;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for reservation requests. Requests arriving within a short window, up to a maximum group size,
+ * are reserved one after another in a single database transaction, each behind its own savepoint. A request
+ * that cannot be reserved is rolled back to its savepoint, so every order stays all-or-nothing while the group
+ * shares one commit. A deadlock or serialization failure aborts the whole transaction, so it is not rolled back to
+ * a savepoint but rolls back the group, which {@link ReservationRetryPolicy} then retries as a whole. Results are
+ * completed in the order the requests arrived.
+ */
+@Component
+@Slf4j
+public class ReservationGroupCommitter {
+
+    private final VariantReservationService variantReservationService;
+    private final ReservationRetryPolicy reservationRetryPolicy;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate groupTransaction;
+    private final boolean enabled;
+    private final Duration window;
+    private final int maxGroupSize;
+
+    private final BlockingQueue<PendingReservation> pendingReservations = new LinkedBlockingQueue<>();
+    private Thread committerThread;
+
+    public ReservationGroupCommitter(
+            VariantReservationService variantReservationService,
+            ReservationRetryPolicy reservationRetryPolicy,
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            @Value("${product.reservation.group-commit.enabled:false}") boolean enabled,
+            @Value("${product.reservation.group-commit.window:2ms}") Duration window,
+            @Value("${product.reservation.group-commit.max-group-size:64}") int maxGroupSize) {
+        this.variantReservationService = variantReservationService;
+        this.reservationRetryPolicy = reservationRetryPolicy;
+        this.jdbcTemplate = jdbcTemplate;
+        this.groupTransaction = new TransactionTemplate(transactionManager);
+        this.groupTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.enabled = enabled;
+        this.window = window;
+        this.maxGroupSize = maxGroupSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        committerThread = Thread.ofPlatform()
+                .name("reservation-group-commit")
+                .daemon()
+                .start(this::run);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (committerThread != null) {
+            committerThread.interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the request for the next group. Requests repeating an existing reservation are answered right away.
+     */
+    public CompletableFuture<VariantReservationResultDTO> submit(VariantsReservationCreateRequestDTO request) {
+        Optional<VariantReservationResultDTO> existingResult = variantReservationService.findExistingResult(request);
+        if (existingResult.isPresent()) {
+            return CompletableFuture.completedFuture(existingResult.get());
+        }
+
+        PendingReservation pendingReservation = new PendingReservation(request, new CompletableFuture<>());
+        pendingReservations.add(pendingReservation);
+        return pendingReservation.result();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                commitGroup(collectGroup());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        List<PendingReservation> abandoned = new ArrayList<>();
+        pendingReservations.drainTo(abandoned);
+        abandoned.forEach(pending -> pending.result().completeExceptionally(new IllegalStateException("Reservation group commit stopped")));
+    }
+
+    private List<PendingReservation> collectGroup() throws InterruptedException {
+        List<PendingReservation> group = new ArrayList<>();
+        group.add(pendingReservations.take());
+
+        long deadline = System.nanoTime() + window.toNanos();
+        while (group.size() < maxGroupSize) {
+            PendingReservation next = pendingReservations.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            group.add(next);
+        }
+
+        return group;
+    }
+
+    private void commitGroup(List<PendingReservation> group) {
+        List<GroupOutcome> outcomes;
+        try {
+            // A deadlock or serialization failure is rethrown by reserveGroup, so the group is retried as a whole
+            outcomes = reservationRetryPolicy.execute("group-create", () -> groupTransaction.execute(status -> reserveGroup(group)));
+        } catch (RuntimeException e) {
+            log.error("Error committing a group of {} reservations", group.size(), e);
+            group.forEach(pending -> pending.result().completeExceptionally(e));
+            return;
+        }
+
+        for (int i = 0; i < group.size(); i++) {
+            PendingReservation pending = group.get(i);
+            GroupOutcome outcome = outcomes.get(i);
+            if (outcome.error() != null) {
+                pending.result().completeExceptionally(outcome.error());
+            } else {
+                variantReservationService.rememberResult(pending.request().getReservationId(), outcome.result());
+                pending.result().complete(outcome.result());
+            }
+        }
+    }
+
+    private List<GroupOutcome> reserveGroup(List<PendingReservation> group) {
+        List<GroupOutcome> outcomes = new ArrayList<>();
+
+        for (PendingReservation pending : group) {
+            Savepoint savepoint = jdbcTemplate.execute((ConnectionCallback<Savepoint>) connection -> connection.setSavepoint());
+            Runnable rollbackToSavepoint = () -> jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                connection.rollback(savepoint);
+                return null;
+            });
+
+            try {
+                outcomes.add(new GroupOutcome(variantReservationService.reserve(pending.request(), rollbackToSavepoint), null));
+            } catch (RuntimeException e) {
+                if (ReservationRetryPolicy.isRetryable(e)) {
+                    throw e;
+                }
+                rollbackToSavepoint.run();
+                outcomes.add(new GroupOutcome(null, e));
+            }
+        }
+
+        return outcomes;
+    }
+
+    private record GroupOutcome(VariantReservationResultDTO result, RuntimeException error) {
+    }
+
+    private record PendingReservation(
+            VariantsReservationCreateRequestDTO request,
+            CompletableFuture<VariantReservationResultDTO> result) {
+    }
+}
@@ -0,0 +1,116 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.exception.ReservationConflictException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Retries reservation transactions that lost a deadlock or a serialization conflict. Attempts are separated
+ * by exponential backoff with full jitter, so transactions that collided do not collide again in lockstep.
+ * When the attempts run out a {@link ReservationConflictException} is thrown, which callers can report as a
+ * retryable error. The action must start its own transaction, so each attempt runs from a clean state.
+ */
+@Component
+@Slf4j
+public class ReservationRetryPolicy {
+
+    private static final Set<String> RETRYABLE_SQL_STATES = Set.of(
+            "40001", // serialization_failure
+            "40P01"  // deadlock_detected
+    );
+
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+
+    public ReservationRetryPolicy(
+            MeterRegistry meterRegistry,
+            @Value("${product.reservation.retry.max-attempts:5}") int maxAttempts,
+            @Value("${product.reservation.retry.initial-backoff:10ms}") Duration initialBackoff,
+            @Value("${product.reservation.retry.max-backoff:200ms}") Duration maxBackoff) {
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public <T> T execute(String operation, Supplier<T> action) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = action.get();
+                recordAttempts(operation, attempt);
+                return result;
+            } catch (RuntimeException e) {
+                if (!isRetryable(e)) {
+                    throw e;
+                }
+
+                if (attempt >= maxAttempts) {
+                    recordAttempts(operation, attempt);
+                    counter("product.reservation.aborts", "Reservation transactions aborted after running out of retries", operation).increment();
+                    throw new ReservationConflictException(operation, attempt, e);
+                }
+
+                counter("product.reservation.retries", "Reservation transactions retried after a deadlock or serialization failure", operation).increment();
+                log.debug("Retrying reservation {} after attempt {} failed: {}", operation, attempt, e.getMessage());
+                backOff(attempt);
+            }
+        }
+    }
+
+    public void executeWithoutResult(String operation, Runnable action) {
+        execute(operation, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private void backOff(int attempt) {
+        long ceiling = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off a reservation retry", e);
+        }
+    }
+
+    private void recordAttempts(String operation, int attempts) {
+        DistributionSummary.builder("product.reservation.attempts")
+                .description("Attempts a reservation transaction needed")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(attempts);
+    }
+
+    private Counter counter(String name, String description, String operation) {
+        return Counter.builder(name)
+                .description(description)
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Whether the error is a deadlock or serialization failure, which aborts the whole transaction.
+     */
+    static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && RETRYABLE_SQL_STATES.contains(sqlException.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,80 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.dto.variant.VariantAvailabilityDTO;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Stock availability of many variants at once, for cart and checkout pages. Stock missing from the near cache
+ * is read with a single query for all requested variants. The near cache is short-lived, so it only absorbs
+ * repeated reads of the same variants and never serves stale stock for long; a zero TTL disables it.
+ */
+@Service
+public class VariantAvailabilityService {
+
+    private final VariantReservationBatchRepository variantReservationBatchRepository;
+    private final HotVariantStockLedger hotVariantStockLedger;
+    private final Cache<UUID, Integer> stockQuantities;
+
+    public VariantAvailabilityService(
+            VariantReservationBatchRepository variantReservationBatchRepository,
+            HotVariantStockLedger hotVariantStockLedger,
+            @Value("${product.variant.availability.cache-ttl:1s}") Duration cacheTtl,
+            @Value("${product.variant.availability.cache-size:50000}") long cacheSize) {
+        this.variantReservationBatchRepository = variantReservationBatchRepository;
+        this.hotVariantStockLedger = hotVariantStockLedger;
+        this.stockQuantities = cacheTtl.isZero()
+                ? null
+                : Caffeine.newBuilder()
+                        .expireAfterWrite(cacheTtl)
+                        .maximumSize(cacheSize)
+                        .build();
+    }
+
+    /**
+     * Finds stock of the given variants. Variants that do not exist are absent from the result.
+     * @param variantIds ids of variants, possibly repeated
+     * @return availability of each distinct existing variant, in request order
+     */
+    public List<VariantAvailabilityDTO> getAvailability(List<UUID> variantIds) {
+        Set<UUID> distinctVariantIds = new LinkedHashSet<>(variantIds);
+
+        Map<UUID, Integer> stock = new HashMap<>();
+        List<UUID> missingVariantIds = new ArrayList<>();
+        for (UUID variantId : distinctVariantIds) {
+            Optional<Integer> ledgerStock = hotVariantStockLedger.getAvailableStock(variantId);
+            Integer cachedStock = stockQuantities != null ? stockQuantities.getIfPresent(variantId) : null;
+
+            if (ledgerStock.isPresent()) {
+                stock.put(variantId, ledgerStock.get());
+            } else if (cachedStock != null) {
+                stock.put(variantId, cachedStock);
+            } else {
+                missingVariantIds.add(variantId);
+            }
+        }
+
+        if (!missingVariantIds.isEmpty()) {
+            Map<UUID, Integer> loadedStock = variantReservationBatchRepository.findStockQuantities(missingVariantIds);
+            stock.putAll(loadedStock);
+            if (stockQuantities != null) {
+                stockQuantities.putAll(loadedStock);
+            }
+        }
+
+        return distinctVariantIds.stream()
+                .filter(stock::containsKey)
+                .map(variantId -> VariantAvailabilityDTO.builder()
+                        .variantId(variantId)
+                        .stockQuantity(stock.get(variantId))
+                        .available(stock.get(variantId) > 0)
+                        .build())
+                .toList();
+    }
+}
@@ -20,13 +20,16 @@ import java.util.UUID;
 public class VariantImageService {
     private final VariantImageRepository variantImageRepository;
     private final VariantService variantService;
+    private final ProductListingCache productListingCache;
 
     public VariantImageService(
             VariantImageRepository variantImageRepository,
-            VariantService variantService
+            VariantService variantService,
+            ProductListingCache productListingCache
     ) {
         this.variantImageRepository = variantImageRepository;
         this.variantService = variantService;
+        this.productListingCache = productListingCache;
     }
 
 
@@ -62,6 +65,7 @@ public class VariantImageService {
                 .build();
 
         VariantImage savedVariantImage = variantImageRepository.save(variantImage);
+        productListingCache.evictCategory(variant.getProduct().getCategory());
         return convertToDto(savedVariantImage);
     }
 
@@ -26,15 +26,19 @@ public class VariantPropertyService {
     private final PropertyRepository propertyRepository;
 
     private final DefaultPropertyOptionRepository defaultPropertyOptionRepository;
+    private final ProductSearchService productSearchService;
+
     public VariantPropertyService(
             VariantPropertyRepository variantPropertyRepository,
             VariantRepository variantRepository,
             PropertyRepository propertyRepository,
-            DefaultPropertyOptionRepository defaultPropertyOptionRepository) {
+            DefaultPropertyOptionRepository defaultPropertyOptionRepository,
+            ProductSearchService productSearchService) {
         this.variantPropertyRepository = variantPropertyRepository;
         this.variantRepository = variantRepository;
         this.propertyRepository = propertyRepository;
         this.defaultPropertyOptionRepository = defaultPropertyOptionRepository;
+        this.productSearchService = productSearchService;
     }
 
     public interface PropertyOptionRequest {
@@ -162,6 +166,7 @@ public class VariantPropertyService {
     public VariantPropertyCreateResponseDTO createVariantProperty(VariantPropertyCreateRequestDTO request) {
         VariantProperty variantProperty = convertToEntity(request);
         VariantProperty savedVariantProperty = variantPropertyRepository.save(variantProperty);
+        productSearchService.reindexAfterCommit(savedVariantProperty.getVariant().getProduct().getId());
 
         return VariantPropertyCreateResponseDTO
                 .builder()
@@ -197,14 +202,15 @@ public class VariantPropertyService {
         }
 
         VariantProperty updatedVariantProperty = variantPropertyRepository.save(variantProperty);
+        productSearchService.reindexAfterCommit(variant.getProduct().getId());
         return convertToDto(updatedVariantProperty);
     }
 
     @Transactional
     public void deleteVariantProperty(UUID id) {
-        if (!variantPropertyRepository.existsById(id)) {
-            throw new ResourceNotFoundException("VariantProperty", id);
-        }
+        VariantProperty variantProperty = variantPropertyRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("VariantProperty", id));
+        productSearchService.reindexAfterCommit(variantProperty.getVariant().getProduct().getId());
         variantPropertyRepository.deleteById(id);
     }
 
@@ -1,168 +1,364 @@
 package com.ecmsp.productservice.service;
 import com.ecmsp.productservice.domain.ReservationStatus;
-import com.ecmsp.productservice.domain.Variant;
 import com.ecmsp.productservice.domain.VariantReservation;
 import com.ecmsp.productservice.dto.variant_reservation.*;
 import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantSoldEvent;
+import com.ecmsp.productservice.kafka.repository.OutboxMessage;
 import com.ecmsp.productservice.kafka.repository.OutboxService;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository.SoldVariant;
 import com.ecmsp.productservice.repository.VariantReservationRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
 @Service
 public class VariantReservationService {
     private final VariantReservationRepository variantReservationRepository;
-    private final VariantService variantService;
     private final OutboxService outboxService;
     private final Supplier<UUID> eventIdSupplier;
-
-
+    private final VariantReservationBatchRepository variantReservationBatchRepository;
+    private final HotVariantStockLedger hotVariantStockLedger;
+    private final ReservationRetryPolicy reservationRetryPolicy;
+    private final Duration reservationTtl;
+    private final TransactionTemplate reservationTransaction;
+
+    // Results of created reservations by reservation id, so a retried request is answered without the database
+    private final Cache<UUID, VariantReservationResultDTO> reservationResults;
+    private final Counter cacheDuplicateCounter;
+    private final Counter databaseDuplicateCounter;
+    private final Counter concurrentDuplicateCounter;
 
     public VariantReservationService(
             VariantReservationRepository variantReservationRepository,
-            VariantService variantService,
+            VariantReservationBatchRepository variantReservationBatchRepository,
             OutboxService outboxService,
-            @Qualifier("eventIdSupplier") Supplier<UUID> eventIdSupplier) {
+            @Qualifier("eventIdSupplier") Supplier<UUID> eventIdSupplier,
+            HotVariantStockLedger hotVariantStockLedger,
+            ReservationRetryPolicy reservationRetryPolicy,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${product.reservation.ttl:24h}") Duration reservationTtl,
+            @Value("${product.reservation.idempotency.cache-ttl:10m}") Duration resultCacheTtl,
+            @Value("${product.reservation.idempotency.cache-size:10000}") long resultCacheSize) {
         this.variantReservationRepository = variantReservationRepository;
-        this.variantService = variantService;
+        this.variantReservationBatchRepository = variantReservationBatchRepository;
         this.outboxService = outboxService;
         this.eventIdSupplier = eventIdSupplier;
-    }
+        this.hotVariantStockLedger = hotVariantStockLedger;
+        this.reservationRetryPolicy = reservationRetryPolicy;
+        this.reservationTtl = reservationTtl;
 
-    private VariantReservation convertToEntity(VariantReservationCreateRequestDTO request) {
+        this.reservationTransaction = new TransactionTemplate(transactionManager);
+        this.reservationTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
 
-        Variant variant = variantService.getVariantEntityById(request.getVariantId())
-                .orElseThrow(() -> new IllegalArgumentException("Variant not found"));
-
-        return VariantReservation.builder()
-                .reservationId(request.getReservationId())
-                .variant(variant)
-                .reservedQuantity(request.getQuantity())
-                .status(ReservationStatus.ACTIVE)
+        this.reservationResults = Caffeine.newBuilder()
+                .expireAfterWrite(resultCacheTtl)
+                .maximumSize(resultCacheSize)
                 .build();
+        this.cacheDuplicateCounter = duplicateCounter(meterRegistry, "cache");
+        this.databaseDuplicateCounter = duplicateCounter(meterRegistry, "database");
+        this.concurrentDuplicateCounter = duplicateCounter(meterRegistry, "concurrent");
     }
 
-    protected VariantReservation createVariantReservation(VariantReservationCreateRequestDTO request) {
-        boolean reserved = variantService.reserveVariant(request.getVariantId(), request.getQuantity());
+    private static Counter duplicateCounter(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("product.reservation.idempotent.hits")
+                .description("Repeated reservation requests answered with the original result")
+                .tag("source", source)
+                .register(meterRegistry);
+    }
 
-        if (!reserved) {
-            throw new IllegalStateException("Failed to reserve variant " + request.getVariantId() +
-                    " - insufficient stock (race condition detected)");
+    /**
+     * Reserves all variants of the request or none of them. The request is idempotent on its reservation id:
+     * a repeated request gets the result of the reservation already created under it and does not touch stock.
+     */
+    public VariantReservationResultDTO createVariantsReservation(VariantsReservationCreateRequestDTO request) {
+        Optional<VariantReservationResultDTO> existingResult = findExistingResult(request);
+        if (existingResult.isPresent()) {
+            return existingResult.get();
         }
 
-        VariantReservation variantReservation = convertToEntity(request);
-        return variantReservationRepository.save(variantReservation);
+        VariantReservationResultDTO result = reservationRetryPolicy.execute(
+                "create",
+                () -> reservationTransaction.execute(status -> reserve(request, status::setRollbackOnly))
+        );
+        rememberResult(request.getReservationId(), result);
+        return result;
     }
 
-    @Transactional(isolation = Isolation.SERIALIZABLE)
-    public VariantReservationResultDTO createVariantsReservation(VariantsReservationCreateRequestDTO request) {
-        List<FailedReservationVariantDTO> failedVariants = new ArrayList<>();
+    /**
+     * Finds the result of a reservation already created under the id of the request, first in memory, then in the
+     * database. A reservation whose stock was given back since - its payment failed, or it expired or was
+     * cancelled - is reported as failed.
+     */
+    Optional<VariantReservationResultDTO> findExistingResult(VariantsReservationCreateRequestDTO request) {
+        UUID reservationId = request.getReservationId();
+        VariantReservationResultDTO cachedResult = reservationResults.getIfPresent(reservationId);
+        if (cachedResult != null) {
+            cacheDuplicateCounter.increment();
+            return Optional.of(cachedResult);
+        }
 
-        // Phase 1: Validation - check all variants have sufficient stock
-        for (var entry : request.getVariants().entrySet()) {
-            UUID variantId = entry.getKey();
-            int requestedQuantity = entry.getValue();
+        Map<UUID, ReservationStatus> existingStatuses = variantReservationBatchRepository.findReservationStatuses(reservationId);
+        if (!existingStatuses.isEmpty()) {
+            databaseDuplicateCounter.increment();
+            return Optional.of(cacheResult(reservationId, buildExistingResult(request, existingStatuses)));
+        }
 
-            var availableStock = variantService.getAvailableStock(variantId);
+        return Optional.empty();
+    }
 
-            if(availableStock.isEmpty() || availableStock.get() < requestedQuantity){
-                failedVariants.add(FailedReservationVariantDTO.builder()
-                        .variantId(variantId)
-                        .requestedQuantity(requestedQuantity)
-                        .availableQuantity(availableStock.orElse(0))
-                        .build());
+    /**
+     * Remembers the result of a committed reservation. Failed reservations are not remembered, a retry may find
+     * the stock it was missing.
+     */
+    void rememberResult(UUID reservationId, VariantReservationResultDTO result) {
+        if (result.getFailedVariants().isEmpty()) {
+            cacheResult(reservationId, result);
+        }
+    }
 
+    /**
+     * Reserves the request within the current transaction.
+     * @param rollback undoes the database changes of this request when it cannot be reserved; rolls back the
+     *                 whole transaction, or only up to a savepoint when several requests share the transaction
+     */
+    VariantReservationResultDTO reserve(VariantsReservationCreateRequestDTO request, Runnable rollback) {
+        Map<UUID, Integer> hotLines = new HashMap<>();
+        List<UUID> variantIds = new ArrayList<>();
+        List<Integer> quantities = new ArrayList<>();
+        request.getVariants().forEach((variantId, quantity) -> {
+            if (hotVariantStockLedger.isHot(variantId)) {
+                hotLines.put(variantId, quantity);
+            } else {
+                variantIds.add(variantId);
+                quantities.add(quantity);
             }
+        });
 
+        // Phase 1: reserve hot variants in memory - all of them or none
+        HotVariantStockLedger.Grant hotGrant = hotVariantStockLedger.reserveAll(hotLines);
+        if (!hotGrant.shortfall().isEmpty()) {
+            Map<UUID, Integer> availableStock = new HashMap<>(hotGrant.shortfall());
+            variantReservationBatchRepository.findStockQuantities(variantIds).forEach((variantId, stockQuantity) -> {
+                if (stockQuantity < request.getVariants().get(variantId)) {
+                    availableStock.put(variantId, stockQuantity);
+                }
+            });
+            return buildFailedResult(request, availableStock);
         }
 
-        // If any validation failed, return immediately without reserving
-        if (!failedVariants.isEmpty()) {
-            return VariantReservationResultDTO.builder()
-                    .reservedVariantIds(List.of())
-                    .failedVariants(failedVariants)
-                    .build();
+        // Hot lines granted so far go back to the ledger whenever this request does not end up reserved
+        AtomicBoolean rolledBack = new AtomicBoolean();
+        try {
+            VariantReservationResultDTO result = reserveInDatabase(request, variantIds, quantities, hotLines, () -> {
+                rolledBack.set(true);
+                rollback.run();
+            });
+            if (rolledBack.get()) {
+                hotGrant.release();
+            } else {
+                hotGrant.releaseOnRollback();
+            }
+            return result;
+        } catch (RuntimeException e) {
+            hotGrant.release();
+            throw e;
         }
+    }
 
-        // Phase 2: Atomic Reservation - all validations passed
-        List<UUID> reservedVariantIds = reserveAllVariantsAtomically(request);
+    private VariantReservationResultDTO reserveInDatabase(
+            VariantsReservationCreateRequestDTO request,
+            List<UUID> variantIds,
+            List<Integer> quantities,
+            Map<UUID, Integer> hotLines,
+            Runnable rollback) {
+        // Phase 2: decrement stock of the other variants in one statement - lines without enough stock are left untouched
+        Set<UUID> reservedVariantIds = new HashSet<>(variantReservationBatchRepository.reserveStock(variantIds, quantities));
+
+        // If any line could not be reserved, report the shortfall and roll back the lines that were
+        if (reservedVariantIds.size() < variantIds.size()) {
+            List<UUID> failedVariantIds = variantIds.stream()
+                    .filter(variantId -> !reservedVariantIds.contains(variantId))
+                    .toList();
+            Map<UUID, Integer> availableStock = new HashMap<>();
+            failedVariantIds.forEach(variantId -> availableStock.put(variantId, 0));
+            availableStock.putAll(variantReservationBatchRepository.findStockQuantities(failedVariantIds));
+
+            rollback.run();
+
+            return buildFailedResult(request, availableStock);
+        }
 
+        // Phase 3: all lines reserved - record them, hot lines are left for the ledger to flush
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expiresAt = now.plus(reservationTtl);
+        int inserted = 0;
+        if (!variantIds.isEmpty()) {
+            inserted += variantReservationBatchRepository.insertReservations(
+                    request.getReservationId(),
+                    variantIds,
+                    quantities,
+                    ReservationStatus.ACTIVE,
+                    now,
+                    expiresAt,
+                    true
+            );
+        }
+        if (!hotLines.isEmpty()) {
+            List<UUID> hotVariantIds = new ArrayList<>(hotLines.keySet());
+            inserted += variantReservationBatchRepository.insertReservations(
+                    request.getReservationId(),
+                    hotVariantIds,
+                    hotVariantIds.stream().map(hotLines::get).toList(),
+                    ReservationStatus.ACTIVE,
+                    now,
+                    expiresAt,
+                    false
+            );
+        }
+
+        // A concurrent request with the same reservation id created it first - keep that one and give our stock back
+        if (inserted < request.getVariants().size()) {
+            rollback.run();
+            concurrentDuplicateCounter.increment();
+            return buildExistingResult(request, variantReservationBatchRepository.findReservationStatuses(request.getReservationId()));
+        }
+
+        return buildReservedResult(new ArrayList<>(request.getVariants().keySet()));
+    }
+
+    private VariantReservationResultDTO buildExistingResult(
+            VariantsReservationCreateRequestDTO request,
+            Map<UUID, ReservationStatus> existingStatuses) {
+        List<UUID> heldVariantIds = existingStatuses.entrySet().stream()
+                .filter(existing -> existing.getValue() == ReservationStatus.ACTIVE
+                        || existing.getValue() == ReservationStatus.PAYMENT_COMPLETED)
+                .map(Map.Entry::getKey)
+                .toList();
+        if (!heldVariantIds.isEmpty()) {
+            return buildReservedResult(heldVariantIds);
+        }
+
+        // The stock was given back and the reservation id cannot be reserved again, so nothing is available under it
+        Map<UUID, Integer> availableStock = new HashMap<>();
+        request.getVariants().keySet().forEach(variantId -> availableStock.put(variantId, 0));
+        return buildFailedResult(request, availableStock);
+    }
+
+    private VariantReservationResultDTO buildReservedResult(List<UUID> reservedVariantIds) {
         return VariantReservationResultDTO.builder()
                 .reservedVariantIds(reservedVariantIds)
                 .failedVariants(List.of())
                 .build();
     }
 
-    protected List<UUID> reserveAllVariantsAtomically(VariantsReservationCreateRequestDTO request) {
-        List<UUID> reservedIds = new ArrayList<>();
+    private VariantReservationResultDTO cacheResult(UUID reservationId, VariantReservationResultDTO result) {
+        reservationResults.put(reservationId, result);
+        return result;
+    }
 
-        for (var entry : request.getVariants().entrySet()) {
-            UUID variantId = entry.getKey();
-            int quantity = entry.getValue();
+    private VariantReservationResultDTO buildFailedResult(
+            VariantsReservationCreateRequestDTO request,
+            Map<UUID, Integer> availableStockByFailedVariantId) {
+        List<FailedReservationVariantDTO> failedVariants = request.getVariants().keySet().stream()
+                .filter(availableStockByFailedVariantId::containsKey)
+                .map(variantId -> FailedReservationVariantDTO.builder()
+                        .variantId(variantId)
+                        .requestedQuantity(request.getVariants().get(variantId))
+                        .availableQuantity(availableStockByFailedVariantId.get(variantId))
+                        .build())
+                .toList();
 
-            VariantReservationCreateRequestDTO variantRequest = VariantReservationCreateRequestDTO.builder()
-                    .reservationId(request.getReservationId())
-                    .variantId(variantId)
-                    .quantity(quantity)
-                    .build();
+        return VariantReservationResultDTO.builder()
+                .reservedVariantIds(List.of())
+                .failedVariants(failedVariants)
+                .build();
+    }
 
-            createVariantReservation(variantRequest);
-            reservedIds.add(variantId);
+    public void updateVariantsReservation(ReservationUpdateRequestDTO request) {
+        reservationRetryPolicy.executeWithoutResult(
+                "update",
+                () -> reservationTransaction.executeWithoutResult(status -> transitionReservation(request))
+        );
+        // Dropped once committed, so a repeated create request reads the released rows instead of the cached result.
+        // Other instances keep theirs until it expires
+        if (request.getStatus() == ReservationStatus.PAYMENT_FAILED) {
+            reservationResults.invalidate(request.getReservationId());
         }
-
-        return reservedIds;
     }
 
-    @Transactional
-    public void updateVariantsReservation(ReservationUpdateRequestDTO request){
+    private void transitionReservation(ReservationUpdateRequestDTO request) {
         UUID reservationId = request.getReservationId();
-        List<VariantReservation> reservedVariants = variantReservationRepository.getAllByReservationId(reservationId);
-
-        reservedVariants.forEach(reservedVariant -> {
-            reservedVariant.setStatus(request.getStatus());
+        // Only ACTIVE rows are transitioned - rows already expired by the sweeper have given their stock back.
+        // Each branch is a single statement, however many lines the order has. Released stock of hot variants
+        // reaches the ledger of their owner with its next refresh.
+        if (request.getStatus() == ReservationStatus.PAYMENT_FAILED) {
+            variantReservationBatchRepository.releaseReservation(reservationId, request.getStatus());
+            return;
+        }
 
-            if(request.getStatus() == ReservationStatus.PAYMENT_FAILED){
-                variantService.releaseReservedVariantStock(
-                        reservedVariant.getVariant().getId(),
-                        reservedVariant.getReservedQuantity()
+        List<SoldVariant> soldVariants = variantReservationBatchRepository.sellReservation(reservationId, request.getStatus());
+
+        // Stock of hot variants is taken in the ledger of their owner before it is flushed to variants, so on any
+        // other instance it is read with the reservations not flushed yet left out
+        Map<UUID, Integer> stockRemaining = new HashMap<>();
+        List<UUID> unownedHotVariantIds = new ArrayList<>();
+        soldVariants.forEach(soldVariant -> {
+            UUID variantId = soldVariant.variantId();
+            if (!hotVariantStockLedger.isHot(variantId)) {
+                stockRemaining.put(variantId, soldVariant.stockQuantity());
+            } else {
+                hotVariantStockLedger.getAvailableStock(variantId).ifPresentOrElse(
+                        available -> stockRemaining.put(variantId, available),
+                        () -> unownedHotVariantIds.add(variantId)
                 );
-            }else{
-                UUID variantId = reservedVariant.getVariant().getId();
-                Integer stockRemaining = variantService.getAvailableStock(variantId).orElse(0);
-
-                //save outbox event that the stock has been sold
-                UUID eventId = eventIdSupplier.get();
-                KafkaVariantSoldEvent variantSoldEvent = new KafkaVariantSoldEvent(
-                        eventId.toString(),
-                        variantId.toString(),
-                        reservedVariant.getVariant().getProduct().getId().toString(),
-                        reservedVariant.getVariant().getProduct().getName(),
-                        reservedVariant.getVariant().getPrice(),
-                        reservedVariant.getReservedQuantity(),
-                        reservedVariant.getVariant().getMargin(),
-                        stockRemaining
-                );
-
-                outboxService.save(variantSoldEvent, eventId, KafkaVariantSoldEvent.class.getName());
             }
-
-            variantReservationRepository.save(reservedVariant);
         });
+        if (!unownedHotVariantIds.isEmpty()) {
+            stockRemaining.putAll(variantReservationBatchRepository.findStockQuantities(unownedHotVariantIds));
+        }
 
-
+        //save outbox events that the stock has been sold
+        List<OutboxMessage> variantSoldEvents = soldVariants.stream()
+                .map(soldVariant -> {
+                    UUID eventId = eventIdSupplier.get();
+                    KafkaVariantSoldEvent variantSoldEvent = new KafkaVariantSoldEvent(
+                            eventId.toString(),
+                            soldVariant.variantId().toString(),
+                            soldVariant.productId().toString(),
+                            soldVariant.productName(),
+                            soldVariant.price(),
+                            soldVariant.quantity(),
+                            soldVariant.margin(),
+                            stockRemaining.get(soldVariant.variantId())
+                    );
+                    return new OutboxMessage(eventId, variantSoldEvent, KafkaVariantSoldEvent.class.getName());
+                })
+                .toList();
+
+        outboxService.saveAll(variantSoldEvents);
     }
 
 
     @Transactional
     public void deleteVariantsReservation(UUID reservationId) {
         variantReservationRepository.deleteVariantReservationByReservationId(reservationId);
+        reservationResults.invalidate(reservationId);
     }
 
     public List<VariantReservation> getReservation(UUID reservationId) {
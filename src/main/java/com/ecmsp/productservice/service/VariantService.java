@@ -8,6 +8,7 @@ import com.ecmsp.productservice.dto.variant.VariantResponseDTO;
 import com.ecmsp.productservice.dto.variant.VariantUpdateRequestDTO;
 import com.ecmsp.productservice.exception.ResourceNotFoundException;
 import com.ecmsp.productservice.repository.VariantRepository;
+import com.ecmsp.productservice.repository.VariantStockBucketRepository;
 import com.ecmsp.productservice.repository.ProductRepository;
 import jakarta.transaction.Transactional;
 import org.springframework.data.domain.Page;
@@ -24,10 +25,24 @@ public class VariantService {
 
     private final VariantRepository variantRepository;
     private final ProductRepository productRepository;
-
-    public VariantService(VariantRepository variantRepository, ProductRepository productRepository) {
+    private final VariantStockBucketRepository variantStockBucketRepository;
+    private final HotVariantStockLedger hotVariantStockLedger;
+    private final ProductListingCache productListingCache;
+    private final ProductSearchService productSearchService;
+
+    public VariantService(
+            VariantRepository variantRepository,
+            ProductRepository productRepository,
+            VariantStockBucketRepository variantStockBucketRepository,
+            HotVariantStockLedger hotVariantStockLedger,
+            ProductListingCache productListingCache,
+            ProductSearchService productSearchService) {
         this.variantRepository = variantRepository;
         this.productRepository = productRepository;
+        this.variantStockBucketRepository = variantStockBucketRepository;
+        this.hotVariantStockLedger = hotVariantStockLedger;
+        this.productListingCache = productListingCache;
+        this.productSearchService = productSearchService;
     }
 
     private VariantResponseDTO convertToDto(Variant variant) {
@@ -95,6 +110,8 @@ public class VariantService {
     public VariantResponseDTO createVariant(VariantCreateRequestDTO request) {
         Variant variant = convertToEntity(request);
         Variant savedVariant = variantRepository.save(variant);
+        productListingCache.evictCategory(savedVariant.getProduct().getCategory());
+        productSearchService.reindexAfterCommit(savedVariant.getProduct().getId());
         return convertToDto(savedVariant);
     }
 
@@ -102,6 +119,8 @@ public class VariantService {
     public VariantResponseDTO updateVariant(UUID id, VariantUpdateRequestDTO request) {
         Variant existingVariant = variantRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Variant", id));
+        productListingCache.evictCategory(existingVariant.getProduct().getCategory());
+        productSearchService.reindexAfterCommit(existingVariant.getProduct().getId());
 
         if (request.getPrice() != null) {
             existingVariant.setPrice(request.getPrice());
@@ -127,38 +146,57 @@ public class VariantService {
                 Product newProduct = productRepository.findById(request.getProductId())
                         .orElseThrow(() -> new ResourceNotFoundException("Product", request.getProductId()));
                 existingVariant.setProduct(newProduct);
+                productListingCache.evictCategory(newProduct.getCategory());
+                productSearchService.reindexAfterCommit(newProductId);
             }
         }
 
         Variant updatedVariant = variantRepository.save(existingVariant);
+        if (request.getStockQuantity() != null) {
+            variantStockBucketRepository.setStock(id, request.getStockQuantity());
+        }
         return convertToDto(updatedVariant);
     }
 
     @Transactional
     boolean reserveVariant(UUID variantId, int quantity) {
+        if (variantStockBucketRepository.reserveFromBuckets(variantId, quantity)) {
+            return true;
+        }
+        // Stock of a bucketed variant is never taken from the variant row
+        if (variantStockBucketRepository.existsByVariantId(variantId)) {
+            return false;
+        }
         int rowsAffected = variantRepository.reserveVariant(variantId, quantity);
         return rowsAffected > 0;
     }
 
     @Transactional
     public void releaseReservedVariantStock(UUID variantId, int quantity) {
-        variantRepository.releaseReservedVariantStock(variantId, quantity);
+        if (variantStockBucketRepository.releaseToRandomBucket(variantId, quantity) == 0) {
+            variantRepository.releaseReservedVariantStock(variantId, quantity);
+        }
     }
 
     @Transactional
     public void increaseStock(UUID variantId, int quantity) {
-        variantRepository.addVariantToStock(variantId, quantity);
+        if (variantStockBucketRepository.releaseToRandomBucket(variantId, quantity) == 0) {
+            variantRepository.addVariantToStock(variantId, quantity);
+        }
     }
 
     public Optional<Integer> getAvailableStock(UUID variantId) {
-        return variantRepository.findStockQuantityById(variantId);
+        // Stock of hot variants in the database lags behind reservations until the ledger flushes it
+        return hotVariantStockLedger.getAvailableStock(variantId)
+                .or(() -> variantRepository.findStockQuantityById(variantId));
     }
 
     @Transactional
     public void deleteVariant(UUID id) {
-        if (!variantRepository.existsById(id)) {
-            throw new ResourceNotFoundException("Variant", id);
-        }
+        Variant variant = variantRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Variant", id));
+        productListingCache.evictCategory(variant.getProduct().getCategory());
+        productSearchService.reindexAfterCommit(variant.getProduct().getId());
         variantRepository.deleteById(id);
     }
 
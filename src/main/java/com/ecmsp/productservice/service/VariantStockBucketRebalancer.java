@@ -0,0 +1,75 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.repository.VariantStockBucketRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps stock buckets usable. Configured variants are split into buckets on startup, buckets that ran low are
+ * refilled by spreading the variant's stock evenly again, and {@code variants.stock_quantity} of bucketed
+ * variants is brought back in line with the sum of their buckets.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(
+        prefix = "product.stock.buckets",
+        name = "enabled",
+        havingValue = "true",
+        matchIfMissing = true
+)
+public class VariantStockBucketRebalancer {
+
+    private final VariantStockBucketRepository variantStockBucketRepository;
+    private final Set<UUID> bucketedVariantIds;
+    private final int bucketCount;
+    private final int minBucketStock;
+    private final int batchSize;
+
+    public VariantStockBucketRebalancer(
+            VariantStockBucketRepository variantStockBucketRepository,
+            @Value("${product.stock.buckets.variant-ids:}") Set<UUID> bucketedVariantIds,
+            @Value("${product.stock.buckets.count:8}") int bucketCount,
+            @Value("${product.stock.buckets.min-bucket-stock:1}") int minBucketStock,
+            @Value("${product.stock.buckets.batch-size:100}") int batchSize) {
+        this.variantStockBucketRepository = variantStockBucketRepository;
+        this.bucketedVariantIds = bucketedVariantIds;
+        this.bucketCount = bucketCount;
+        this.minBucketStock = minBucketStock;
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void splitConfiguredVariants() {
+        if (bucketedVariantIds.isEmpty()) {
+            return;
+        }
+
+        int created = variantStockBucketRepository.splitIntoBuckets(new ArrayList<>(bucketedVariantIds), bucketCount);
+        if (created > 0) {
+            log.info("Split stock of {} variants into {} buckets each", created / bucketCount, bucketCount);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${product.stock.buckets.rebalance-interval-ms:1000}")
+    public void rebalance() {
+        try {
+            List<UUID> rebalancedVariantIds = variantStockBucketRepository.rebalance(minBucketStock, batchSize);
+            int synced = variantStockBucketRepository.syncVariantStock();
+
+            if (!rebalancedVariantIds.isEmpty()) {
+                log.debug("Rebalanced stock buckets of {} variants, synced stock of {} variants", rebalancedVariantIds.size(), synced);
+            }
+        } catch (Exception e) {
+            log.error("Error rebalancing stock buckets", e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.ecmsp.productservice;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+/**
+ * Base of tests against an embedded PostgreSQL loaded with {@code docker/init.sql}. Every test class gets a database
+ * server of its own, started before its first test and stopped after its last. Data a whole test class needs is
+ * inserted from a {@code @BeforeAll} method of the class, which must not be named {@code startDatabase}.
+ */
+public abstract class EmbeddedPostgresTest {
+
+    private static EmbeddedPostgres postgres;
+
+    // Transactions are bound to the data source instance, so everything in a test class shares this one
+    protected static DataSource dataSource;
+    protected static JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    static void startDatabase() throws IOException, SQLException {
+        postgres = EmbeddedPostgres.builder().start();
+        dataSource = postgres.getPostgresDatabase();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        // The driver splits the script itself, so dollar-quoted function bodies are kept intact
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(Files.readString(Path.of("docker/init.sql")));
+        }
+    }
+
+    @AfterAll
+    static void stopDatabase() throws IOException {
+        postgres.close();
+    }
+
+    /**
+     * @return JDBC URL of the database, for tests that build their own connection pool
+     */
+    protected static String jdbcUrl() {
+        return postgres.getJdbcUrl("postgres", "postgres");
+    }
+
+    /**
+     * @return id of a new top-level category
+     */
+    protected static UUID createCategory() {
+        UUID categoryId = UUID.randomUUID();
+        jdbcTemplate.update("INSERT INTO categories (id, name) VALUES (?, 'Category')", categoryId);
+        return categoryId;
+    }
+
+    /**
+     * @return id of a new product in the category, without variants
+     */
+    protected static UUID createProduct(UUID categoryId) {
+        UUID productId = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO products (id, category_id, name, approximate_price, delivery_price)
+                VALUES (?, ?, 'Product', 10.00, 0.00)
+                """, productId, categoryId);
+        return productId;
+    }
+}
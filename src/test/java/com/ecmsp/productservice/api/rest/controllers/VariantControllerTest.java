@@ -0,0 +1,100 @@
+package com.ecmsp.productservice.api.rest.controllers;
+
+import com.ecmsp.productservice.dto.variant.VariantAvailabilityDTO;
+import com.ecmsp.productservice.service.ProductDisplayService;
+import com.ecmsp.productservice.service.PropertyService;
+import com.ecmsp.productservice.service.VariantAvailabilityService;
+import com.ecmsp.productservice.service.VariantPropertyService;
+import com.ecmsp.productservice.service.VariantService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class VariantControllerTest {
+
+    private final VariantAvailabilityService variantAvailabilityService = mock(VariantAvailabilityService.class);
+    private final MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new VariantController(
+            mock(VariantService.class),
+            mock(VariantPropertyService.class),
+            mock(PropertyService.class),
+            mock(ProductDisplayService.class),
+            variantAvailabilityService
+    )).build();
+
+    @Test
+    void should_return_the_availability_of_the_requested_variants() throws Exception {
+        // Given
+        UUID variantId = UUID.randomUUID();
+        UUID unknownVariantId = UUID.randomUUID();
+        when(variantAvailabilityService.getAvailability(List.of(variantId, unknownVariantId)))
+                .thenReturn(List.of(new VariantAvailabilityDTO(variantId, 3, true)));
+
+        // When / Then - unknown variants are left out
+        mockMvc.perform(availability(variantIdsJson(Stream.of(variantId, unknownVariantId).map(UUID::toString))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.variants.length()").value(1))
+                .andExpect(jsonPath("$.variants[0].variantId").value(variantId.toString()))
+                .andExpect(jsonPath("$.variants[0].stockQuantity").value(3))
+                .andExpect(jsonPath("$.variants[0].available").value(true));
+    }
+
+    @Test
+    void should_accept_up_to_5000_variant_ids() throws Exception {
+        // Given
+        when(variantAvailabilityService.getAvailability(anyList())).thenReturn(List.of());
+
+        // When / Then
+        mockMvc.perform(availability(variantIdsJson(Stream.generate(() -> UUID.randomUUID().toString()).limit(5000))))
+                .andExpect(status().isOk());
+        verify(variantAvailabilityService).getAvailability(anyList());
+    }
+
+    @Test
+    void should_reject_more_than_5000_variant_ids() throws Exception {
+        mockMvc.perform(availability(variantIdsJson(Stream.generate(() -> UUID.randomUUID().toString()).limit(5001))))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(variantAvailabilityService);
+    }
+
+    @Test
+    void should_reject_a_null_variant_id() throws Exception {
+        mockMvc.perform(availability(variantIdsJson(Stream.of(UUID.randomUUID().toString(), null))))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(variantAvailabilityService);
+    }
+
+    @Test
+    void should_reject_an_empty_request() throws Exception {
+        mockMvc.perform(availability("{\"variantIds\": []}"))
+                .andExpect(status().isBadRequest());
+        verifyNoInteractions(variantAvailabilityService);
+    }
+
+    private static MockHttpServletRequestBuilder availability(String body) {
+        return post("/api/variants/availability")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body);
+    }
+
+    private static String variantIdsJson(Stream<String> variantIds) {
+        return variantIds
+                .map(variantId -> variantId == null ? "null" : "\"" + variantId + "\"")
+                .collect(Collectors.joining(",", "{\"variantIds\": [", "]}"));
+    }
+}
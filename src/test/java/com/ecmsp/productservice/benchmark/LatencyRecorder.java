@@ -0,0 +1,48 @@
+package com.ecmsp.productservice.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Latency samples of a single benchmark client. Each client records into its own recorder, so recording needs
+ * no synchronization; recorders are merged once the run is over.
+ */
+class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int size;
+
+    void record(long nanos) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+        samples[size++] = nanos;
+    }
+
+    int size() {
+        return size;
+    }
+
+    static LatencyRecorder merge(List<LatencyRecorder> recorders) {
+        LatencyRecorder merged = new LatencyRecorder();
+        for (LatencyRecorder recorder : recorders) {
+            for (int i = 0; i < recorder.size; i++) {
+                merged.record(recorder.samples[i]);
+            }
+        }
+        Arrays.sort(merged.samples, 0, merged.size);
+        return merged;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.999
+     * @return latency in milliseconds at the quantile of a merged recorder, 0 if nothing was recorded
+     */
+    double percentileMillis(double quantile) {
+        if (size == 0) {
+            return 0;
+        }
+        int index = Math.max(0, (int) Math.ceil(quantile * size) - 1);
+        return samples[index] / 1_000_000.0;
+    }
+}
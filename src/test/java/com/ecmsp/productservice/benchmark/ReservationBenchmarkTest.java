@@ -0,0 +1,376 @@
+package com.ecmsp.productservice.benchmark;
+
+import com.ecmsp.productservice.domain.ReservationStatus;
+import com.ecmsp.productservice.dto.variant_reservation.ReservationUpdateRequestDTO;
+import com.ecmsp.productservice.dto.variant_reservation.VariantReservationResultDTO;
+import com.ecmsp.productservice.dto.variant_reservation.VariantsReservationCreateRequestDTO;
+import com.ecmsp.productservice.exception.ReservationConflictException;
+import com.ecmsp.productservice.kafka.publisher.EventRoute;
+import com.ecmsp.productservice.kafka.publisher.cart.KafkaCartEventPublisher;
+import com.ecmsp.productservice.kafka.publisher.statistics.KafkaStatisticsEventPublisher;
+import com.ecmsp.productservice.service.VariantReservationService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Throughput and contention benchmark of the reservation path. Concurrent virtual-thread clients create
+ * reservations through {@link VariantReservationService} and then complete or fail their payment, against an
+ * embedded PostgreSQL loaded with {@code docker/init.sql}. A share of order lines goes to a few hot variants,
+ * which is where reservations contend.
+ * <p>
+ * Run with {@code mvn test -Pbenchmark}. The workload is set with system properties, e.g.
+ * {@code -Dbenchmark.clients=256 -Dbenchmark.hot-share=0.8 -Dbenchmark.hot-variant-mode=buckets}:
+ * <ul>
+ *     <li>{@code benchmark.clients} - concurrent clients, default 64</li>
+ *     <li>{@code benchmark.warmup} and {@code benchmark.duration} - default 5s and 30s</li>
+ *     <li>{@code benchmark.variants} and {@code benchmark.hot-variants} - default 10000 and 10</li>
+ *     <li>{@code benchmark.hot-share} - probability that an order line reserves a hot variant, default 0.5</li>
+ *     <li>{@code benchmark.min-order-size} and {@code benchmark.max-order-size} - lines per order, default 1 and 5</li>
+ *     <li>{@code benchmark.max-quantity} - quantity per line, default 3</li>
+ *     <li>{@code benchmark.payment-failure-rate} - share of reservations released instead of sold, default 0.1</li>
+ *     <li>{@code benchmark.hot-variant-mode} - {@code rows}, {@code buckets} or {@code ledger}, default rows</li>
+ *     <li>{@code benchmark.pool-size} - database connections, default 32</li>
+ * </ul>
+ * Other service properties, e.g. {@code -Dproduct.reservation.retry.max-attempts=1}, are passed through.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@DirtiesContext
+class ReservationBenchmarkTest {
+
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 64);
+    private static final Duration WARMUP = DurationStyle.detectAndParse(System.getProperty("benchmark.warmup", "5s"));
+    private static final Duration DURATION = DurationStyle.detectAndParse(System.getProperty("benchmark.duration", "30s"));
+    private static final int VARIANTS = Integer.getInteger("benchmark.variants", 10_000);
+    private static final int HOT_VARIANTS = Integer.getInteger("benchmark.hot-variants", 10);
+    private static final double HOT_SHARE = Double.parseDouble(System.getProperty("benchmark.hot-share", "0.5"));
+    private static final int MIN_ORDER_SIZE = Integer.getInteger("benchmark.min-order-size", 1);
+    private static final int MAX_ORDER_SIZE = Integer.getInteger("benchmark.max-order-size", 5);
+    private static final int MAX_QUANTITY = Integer.getInteger("benchmark.max-quantity", 3);
+    private static final double PAYMENT_FAILURE_RATE = Double.parseDouble(System.getProperty("benchmark.payment-failure-rate", "0.1"));
+    private static final String HOT_VARIANT_MODE = System.getProperty("benchmark.hot-variant-mode", "rows");
+    private static final int POOL_SIZE = Integer.getInteger("benchmark.pool-size", 32);
+
+    private static final int INITIAL_STOCK = 1_000_000_000;
+    private static final Duration LOCK_WAIT_SAMPLE_INTERVAL = Duration.ofMillis(10);
+
+    private static final String COUNT_LOCK_WAITS_SQL = """
+            SELECT COUNT(*)
+            FROM pg_stat_activity a
+            WHERE a.wait_event_type = 'Lock'
+              AND a.datname = current_database()
+            """;
+
+    private static EmbeddedPostgres postgres;
+    private static List<UUID> variantIds;
+
+    @Autowired
+    private VariantReservationService variantReservationService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @MockitoBean
+    private KafkaCartEventPublisher kafkaCartEventPublisher;
+
+    @MockitoBean
+    private KafkaStatisticsEventPublisher kafkaStatisticsEventPublisher;
+
+    @MockitoBean
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException, SQLException {
+        postgres = EmbeddedPostgres.builder().start();
+        variantIds = IntStream.range(0, VARIANTS).mapToObj(i -> UUID.randomUUID()).toList();
+
+        try (Connection connection = postgres.getPostgresDatabase().getConnection()) {
+            createSchema(connection);
+            insertVariants(connection);
+        }
+
+        registry.add("spring.datasource.url", () -> postgres.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.driverClassName", () -> "org.postgresql.Driver");
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+        registry.add("spring.datasource.hikari.maximum-pool-size", () -> POOL_SIZE);
+        registry.add("spring.jpa.database-platform", () -> "org.hibernate.dialect.PostgreSQLDialect");
+        registry.add("spring.flyway.enabled", () -> false);
+        registry.add("spring.jpa.show-sql", () -> false);
+        registry.add("grpc.server.port", () -> -1);
+
+        String hotVariantIds = hotVariantIds().stream().map(UUID::toString).collect(Collectors.joining(","));
+        switch (HOT_VARIANT_MODE) {
+            case "rows" -> {
+            }
+            case "buckets" -> registry.add("product.stock.buckets.variant-ids", () -> hotVariantIds);
+            case "ledger" -> {
+                registry.add("product.reservation.hot-variants.enabled", () -> true);
+                registry.add("product.reservation.hot-variants.ids", () -> hotVariantIds);
+            }
+            default -> throw new IllegalArgumentException("Unknown hot variant mode: " + HOT_VARIANT_MODE);
+        }
+    }
+
+    @BeforeEach
+    void routeEvents() {
+        when(kafkaCartEventPublisher.route(any())).thenReturn(new EventRoute("benchmark-cart", "benchmark"));
+        when(kafkaStatisticsEventPublisher.route(any())).thenReturn(new EventRoute("benchmark-statistics", "benchmark"));
+        when(kafkaTemplate.send(anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    void reservations_under_contention() throws Exception {
+        List<LatencyRecorder> createLatencies = new ArrayList<>();
+        List<LatencyRecorder> updateLatencies = new ArrayList<>();
+        AtomicLong reserved = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong aborted = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+
+        double retriesBefore = counterTotal("product.reservation.retries");
+        LockWaitSampler lockWaitSampler = new LockWaitSampler();
+
+        long measureFrom = System.nanoTime() + WARMUP.toNanos();
+        long measureUntil = measureFrom + DURATION.toNanos();
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < CLIENTS; i++) {
+                LatencyRecorder createLatency = new LatencyRecorder();
+                LatencyRecorder updateLatency = new LatencyRecorder();
+                createLatencies.add(createLatency);
+                updateLatencies.add(updateLatency);
+
+                clients.submit(() -> {
+                    while (System.nanoTime() < measureUntil) {
+                        boolean measured = System.nanoTime() >= measureFrom;
+                        UUID reservationId = UUID.randomUUID();
+
+                        try {
+                            long start = System.nanoTime();
+                            VariantReservationResultDTO result = variantReservationService.createVariantsReservation(
+                                    new VariantsReservationCreateRequestDTO(reservationId, randomOrder())
+                            );
+                            long created = System.nanoTime();
+                            if (measured) {
+                                createLatency.record(created - start);
+                            }
+
+                            if (!result.getFailedVariants().isEmpty()) {
+                                if (measured) {
+                                    rejected.incrementAndGet();
+                                }
+                                continue;
+                            }
+
+                            ReservationStatus status = ThreadLocalRandom.current().nextDouble() < PAYMENT_FAILURE_RATE
+                                    ? ReservationStatus.PAYMENT_FAILED
+                                    : ReservationStatus.PAYMENT_COMPLETED;
+                            variantReservationService.updateVariantsReservation(new ReservationUpdateRequestDTO(reservationId, status));
+                            if (measured) {
+                                updateLatency.record(System.nanoTime() - created);
+                                reserved.incrementAndGet();
+                            }
+                        } catch (ReservationConflictException e) {
+                            if (measured) {
+                                aborted.incrementAndGet();
+                            }
+                        } catch (RuntimeException e) {
+                            if (measured) {
+                                failed.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                });
+            }
+
+            Thread.sleep(WARMUP.toMillis());
+            lockWaitSampler.start();
+        } finally {
+            lockWaitSampler.stop();
+        }
+
+        LatencyRecorder createLatency = LatencyRecorder.merge(createLatencies);
+        LatencyRecorder updateLatency = LatencyRecorder.merge(updateLatencies);
+        long orders = reserved.get() + rejected.get() + aborted.get() + failed.get();
+        double seconds = DURATION.toNanos() / 1_000_000_000.0;
+
+        System.out.printf("""
+
+                Reservation benchmark: %d clients, %s hot variant mode, %d of %d variants hot, %.0f%% hot lines, %d-%d lines per order
+                  orders             %d (%.1f/s)
+                  reserved and paid  %d (%.1f/s)
+                  rejected for stock %d
+                  aborted            %d (%.3f%%), retries %.0f
+                  failed             %d
+                  create latency ms  p50 %.2f  p99 %.2f  p999 %.2f  max %.2f
+                  update latency ms  p50 %.2f  p99 %.2f  p999 %.2f  max %.2f
+                  lock wait          %.2f s total, %.2f ms per order, up to %d waiting backends
+                %n""",
+                CLIENTS, HOT_VARIANT_MODE, HOT_VARIANTS, VARIANTS, HOT_SHARE * 100, MIN_ORDER_SIZE, MAX_ORDER_SIZE,
+                orders, orders / seconds,
+                reserved.get(), reserved.get() / seconds,
+                rejected.get(),
+                aborted.get(), orders == 0 ? 0 : aborted.get() * 100.0 / orders, counterTotal("product.reservation.retries") - retriesBefore,
+                failed.get(),
+                createLatency.percentileMillis(0.5), createLatency.percentileMillis(0.99), createLatency.percentileMillis(0.999), createLatency.percentileMillis(1),
+                updateLatency.percentileMillis(0.5), updateLatency.percentileMillis(0.99), updateLatency.percentileMillis(0.999), updateLatency.percentileMillis(1),
+                lockWaitSampler.lockWaitSeconds(), orders == 0 ? 0 : lockWaitSampler.lockWaitSeconds() * 1000 / orders, lockWaitSampler.maxWaiting()
+        );
+
+        assertThat(failed.get()).isZero();
+        assertThat(reserved.get()).isPositive();
+    }
+
+    private static Map<UUID, Integer> randomOrder() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int lines = random.nextInt(MIN_ORDER_SIZE, MAX_ORDER_SIZE + 1);
+
+        Map<UUID, Integer> order = new HashMap<>();
+        while (order.size() < lines) {
+            UUID variantId = random.nextDouble() < HOT_SHARE
+                    ? variantIds.get(random.nextInt(HOT_VARIANTS))
+                    : variantIds.get(random.nextInt(HOT_VARIANTS, VARIANTS));
+            order.putIfAbsent(variantId, random.nextInt(1, MAX_QUANTITY + 1));
+        }
+        return order;
+    }
+
+    private static List<UUID> hotVariantIds() {
+        return variantIds.subList(0, HOT_VARIANTS);
+    }
+
+    private double counterTotal(String name) {
+        return meterRegistry.find(name).counters().stream()
+                .mapToDouble(Counter::count)
+                .sum();
+    }
+
+    private static void createSchema(Connection connection) throws IOException, SQLException {
+        // The driver splits the script itself, so dollar-quoted function bodies are kept intact
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(Files.readString(Path.of("docker/init.sql")));
+        }
+    }
+
+    private static void insertVariants(Connection connection) throws SQLException {
+        UUID categoryId = UUID.randomUUID();
+        UUID productId = UUID.randomUUID();
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO categories (id, name) VALUES ('" + categoryId + "', 'Benchmark')");
+            statement.execute("""
+                    INSERT INTO products (id, category_id, name, approximate_price, delivery_price)
+                    VALUES ('%s', '%s', 'Benchmark product', 10.00, 0.00)
+                    """.formatted(productId, categoryId));
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("""
+                INSERT INTO variants (id, product_id, price, margin, stock_quantity, created_at, updated_at)
+                SELECT ids.id, ?, 10.00, 1.00, ?, now(), now()
+                FROM unnest(CAST(? AS uuid[])) AS ids(id)
+                """)) {
+            statement.setObject(1, productId);
+            statement.setInt(2, INITIAL_STOCK);
+            statement.setArray(3, connection.createArrayOf("uuid", variantIds.toArray()));
+            statement.executeUpdate();
+        }
+    }
+
+    @TestConfiguration
+    static class EmbeddedPostgresConfiguration {
+
+        // Closed with the context, once the scheduled jobs using the database have stopped
+        @Bean(destroyMethod = "close")
+        EmbeddedPostgres embeddedPostgres() {
+            return postgres;
+        }
+    }
+
+    /**
+     * Samples how many backends wait for a lock. Summed over the samples and multiplied by the interval, this
+     * approximates the total time transactions spent waiting for row locks.
+     */
+    private static class LockWaitSampler {
+
+        private final AtomicLong waitingSamples = new AtomicLong();
+        private final AtomicLong maxWaiting = new AtomicLong();
+        private Thread thread;
+
+        void start() {
+            thread = Thread.ofPlatform().name("lock-wait-sampler").daemon().start(this::sample);
+        }
+
+        void stop() throws InterruptedException {
+            if (thread != null) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+
+        double lockWaitSeconds() {
+            return waitingSamples.get() * LOCK_WAIT_SAMPLE_INTERVAL.toNanos() / 1_000_000_000.0;
+        }
+
+        long maxWaiting() {
+            return maxWaiting.get();
+        }
+
+        private void sample() {
+            try (Connection connection = postgres.getPostgresDatabase().getConnection();
+                 PreparedStatement statement = connection.prepareStatement(COUNT_LOCK_WAITS_SQL)) {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        resultSet.next();
+                        long waiting = resultSet.getLong(1);
+                        waitingSamples.addAndGet(waiting);
+                        maxWaiting.accumulateAndGet(waiting, Math::max);
+                    }
+                    Thread.sleep(LOCK_WAIT_SAMPLE_INTERVAL.toMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not sample lock waits", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.ecmsp.productservice.kafka.publisher;
+
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaProductDeletedEvent;
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantStockChangedEvent;
+import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantSoldEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactEventCodecTest {
+
+    @Test
+    void should_decode_variant_sold_event_it_encoded_in_a_fraction_of_its_json_size() throws JsonProcessingException {
+        // Given
+        KafkaVariantSoldEvent event = new KafkaVariantSoldEvent(
+                "550e8400-e29b-41d4-a716-446655440001",
+                "550e8400-e29b-41d4-a716-446655440002",
+                "550e8400-e29b-41d4-a716-446655440003",
+                "Test Product",
+                new BigDecimal("99.99"),
+                -5,
+                new BigDecimal("-1234567890123456789.0001"),
+                Integer.MAX_VALUE
+        );
+
+        // When
+        byte[] encoded = CompactEventCodec.encode(event);
+
+        // Then
+        assertThat(CompactEventCodec.decode(encoded)).isEqualTo(event);
+        assertThat(encoded.length).isLessThan(new ObjectMapper().writeValueAsBytes(event).length / 2);
+    }
+
+    @Test
+    void should_keep_null_fields_and_ids_that_are_not_uuids() {
+        // Given - an upper case UUID would not read back to the same string, so it is kept as text
+        KafkaProductDeletedEvent productDeleted = new KafkaProductDeletedEvent(
+                "product-1",
+                List.of("550E8400-E29B-41D4-A716-446655440002", "550e8400-e29b-41d4-a716-446655440003"));
+        KafkaVariantStockChangedEvent stockChanged = new KafkaVariantStockChangedEvent(null, null, null);
+
+        // When
+        Object decodedProductDeleted = CompactEventCodec.decode(CompactEventCodec.encode(productDeleted));
+        Object decodedStockChanged = CompactEventCodec.decode(CompactEventCodec.encode(stockChanged));
+
+        // Then
+        assertThat(decodedProductDeleted).isEqualTo(productDeleted);
+        assertThat(decodedStockChanged).isEqualTo(stockChanged);
+    }
+}
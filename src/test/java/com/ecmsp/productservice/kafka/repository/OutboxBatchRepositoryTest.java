@@ -0,0 +1,239 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Claiming and failure handling of outbox events, against an embedded PostgreSQL loaded with {@code docker/init.sql}.
+ */
+class OutboxBatchRepositoryTest extends EmbeddedPostgresTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2030, 3, 1, 12, 0);
+    private static final OutboxRetrySchedule RETRY_SCHEDULE = new OutboxRetrySchedule(3, Duration.ofSeconds(1), Duration.ofSeconds(10));
+
+    private final OutboxBatchRepository repository = new OutboxBatchRepository(jdbcTemplate);
+
+    @BeforeAll
+    static void createPartition() {
+        new OutboxPartitionRepository(jdbcTemplate).createPartitions(LocalDate.of(2030, 3, 1), 0);
+    }
+
+    @BeforeEach
+    void clearOutbox() {
+        jdbcTemplate.execute("TRUNCATE kafka_outbox");
+    }
+
+    @Test
+    void should_skip_events_locked_by_a_concurrent_claim() throws SQLException {
+        // Given - another instance is in the middle of claiming the oldest event
+        Outbox locked = event("first", NOW.minusMinutes(3));
+        Outbox second = event("second", NOW.minusMinutes(2));
+        Outbox third = event("third", NOW.minusMinutes(1));
+        repository.insertAll(List.of(locked, second, third));
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM kafka_outbox WHERE event_id = ? FOR UPDATE")) {
+                statement.setObject(1, locked.getEventId());
+                statement.execute();
+            }
+
+            // When
+            List<Outbox> claimed = repository.claim(NOW, NOW.plusMinutes(1), 10);
+
+            // Then - the claim does not wait for the locked row
+            assertThat(claimed).extracting(Outbox::getEventId).containsExactly(second.getEventId(), third.getEventId());
+            connection.rollback();
+        }
+    }
+
+    @Test
+    void should_skip_a_key_whose_earlier_event_is_being_claimed_concurrently() throws Exception {
+        // Given - another instance claimed the earlier event of a key but has not committed its lease yet
+        Outbox earlier = event("key", NOW.minusMinutes(3));
+        Outbox later = event("key", NOW.minusMinutes(2));
+        Outbox other = event("other", NOW.minusMinutes(1));
+        repository.insertAll(List.of(earlier, later, other));
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        CountDownLatch claimedByOther = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Outbox>> otherClaim = executor.submit(() -> transactionTemplate.execute(status -> {
+                List<Outbox> claimed = repository.claim(NOW, NOW.plusMinutes(1), 1);
+                claimedByOther.countDown();
+                await(commit);
+                return claimed;
+            }));
+            await(claimedByOther);
+
+            // When
+            List<Outbox> whileClaiming = transactionTemplate.execute(status -> repository.claim(NOW, NOW.plusMinutes(1), 10));
+            commit.countDown();
+            List<Outbox> otherClaimed = otherClaim.get(10, TimeUnit.SECONDS);
+            List<Outbox> afterCommit = transactionTemplate.execute(status -> repository.claim(NOW, NOW.plusMinutes(1), 10));
+
+            // Then - the later event of the key waits for the earlier one, other keys are claimed
+            assertThat(otherClaimed).extracting(Outbox::getEventId).containsExactly(earlier.getEventId());
+            assertThat(whileClaiming).extracting(Outbox::getEventId).containsExactly(other.getEventId());
+            assertThat(afterCommit).isEmpty();
+        } finally {
+            commit.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void should_claim_disjoint_batches_oldest_first() {
+        // Given
+        List<Outbox> events = List.of(
+                event("a", NOW.minusMinutes(4)),
+                event("b", NOW.minusMinutes(3)),
+                event("c", NOW.minusMinutes(2)),
+                event("d", NOW.minusMinutes(1))
+        );
+        repository.insertAll(events);
+
+        // When
+        List<Outbox> firstBatch = repository.claim(NOW, NOW.plusMinutes(1), 2);
+        List<Outbox> secondBatch = repository.claim(NOW, NOW.plusMinutes(1), 2);
+        List<Outbox> thirdBatch = repository.claim(NOW, NOW.plusMinutes(1), 2);
+
+        // Then
+        assertThat(firstBatch).extracting(Outbox::getEventId).containsExactly(events.get(0).getEventId(), events.get(1).getEventId());
+        assertThat(secondBatch).extracting(Outbox::getEventId).containsExactly(events.get(2).getEventId(), events.get(3).getEventId());
+        assertThat(thirdBatch).isEmpty();
+    }
+
+    @Test
+    void should_claim_an_event_again_once_its_lease_expired() {
+        // Given - the instance that claimed the event died before publishing it
+        Outbox outbox = event("key", NOW.minusMinutes(1));
+        repository.insertAll(List.of(outbox));
+        repository.claim(NOW, NOW.plusMinutes(1), 10);
+
+        // When
+        List<Outbox> whileLeased = repository.claim(NOW.plusSeconds(30), NOW.plusMinutes(2), 10);
+        List<Outbox> afterLease = repository.claim(NOW.plusMinutes(2), NOW.plusMinutes(3), 10);
+
+        // Then
+        assertThat(whileLeased).isEmpty();
+        assertThat(afterLease).extracting(Outbox::getEventId).containsExactly(outbox.getEventId());
+    }
+
+    @Test
+    void should_not_claim_an_event_while_an_earlier_event_of_its_key_is_leased() {
+        // Given
+        Outbox earlier = event("key", NOW.minusMinutes(2));
+        Outbox later = event("key", NOW.minusMinutes(1));
+        repository.insertAll(List.of(earlier, later));
+        repository.claim(NOW, NOW.plusMinutes(1), 1);
+
+        // When
+        List<Outbox> whileLeased = repository.claim(NOW, NOW.plusMinutes(1), 10);
+        repository.markProcessed(List.of(earlier.getEventId()), NOW);
+        List<Outbox> afterPublished = repository.claim(NOW, NOW.plusMinutes(1), 10);
+
+        // Then
+        assertThat(whileLeased).isEmpty();
+        assertThat(afterPublished).extracting(Outbox::getEventId).containsExactly(later.getEventId());
+    }
+
+    @Test
+    void should_retry_a_failed_event_after_its_backoff_and_keep_its_key_waiting() {
+        // Given
+        Outbox failed = event("key", NOW.minusMinutes(2));
+        Outbox later = event("key", NOW.minusMinutes(1));
+        repository.insertAll(List.of(failed, later));
+        repository.claim(NOW, NOW.plusMinutes(1), 1);
+
+        // When - the first attempt fails, the second one fails too
+        List<UUID> deadLettered = repository.recordFailures(Map.of(failed.getEventId(), "Broker unavailable"), RETRY_SCHEDULE, NOW);
+        List<Outbox> duringFirstBackoff = repository.claim(NOW.plus(Duration.ofMillis(999)), NOW.plusMinutes(1), 10);
+        List<Outbox> afterFirstBackoff = repository.claim(NOW.plusSeconds(1), NOW.plusMinutes(1), 1);
+        repository.recordFailures(Map.of(failed.getEventId(), "Broker unavailable"), RETRY_SCHEDULE, NOW.plusSeconds(1));
+        List<Outbox> duringSecondBackoff = repository.claim(NOW.plus(Duration.ofMillis(2999)), NOW.plusMinutes(1), 10);
+        List<Outbox> afterSecondBackoff = repository.claim(NOW.plusSeconds(3), NOW.plusMinutes(1), 1);
+
+        // Then - the backoff doubles and the later event of the key does not overtake the failed one
+        assertThat(deadLettered).isEmpty();
+        assertThat(duringFirstBackoff).isEmpty();
+        assertThat(afterFirstBackoff).extracting(Outbox::getEventId).containsExactly(failed.getEventId());
+        assertThat(duringSecondBackoff).isEmpty();
+        assertThat(afterSecondBackoff).extracting(Outbox::getEventId).containsExactly(failed.getEventId());
+        assertThat(afterSecondBackoff.get(0).getAttempts()).isEqualTo(2);
+        assertThat(lastError(failed)).isEqualTo("Broker unavailable");
+    }
+
+    @Test
+    void should_dead_letter_an_event_on_its_last_attempt() {
+        // Given
+        Outbox poison = event("poison", NOW.minusMinutes(2));
+        Outbox later = event("poison", NOW.minusMinutes(1));
+        repository.insertAll(List.of(poison, later));
+
+        // When
+        List<List<UUID>> deadLettered = new ArrayList<>();
+        LocalDateTime attemptAt = NOW;
+        for (int attempt = 1; attempt <= RETRY_SCHEDULE.maxAttempts(); attempt++) {
+            repository.claim(attemptAt, attemptAt.plusMinutes(1), 1);
+            deadLettered.add(repository.recordFailures(Map.of(poison.getEventId(), "Cannot serialize"), RETRY_SCHEDULE, attemptAt));
+            attemptAt = attemptAt.plusMinutes(1);
+        }
+        List<Outbox> claimedAfterwards = repository.claim(attemptAt, attemptAt.plusMinutes(1), 10);
+
+        // Then - the poison event is never claimed again and no longer holds back its key
+        assertThat(deadLettered).containsExactly(List.of(), List.of(), List.of(poison.getEventId()));
+        assertThat(claimedAfterwards).extracting(Outbox::getEventId).containsExactly(later.getEventId());
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT processed AND dead_lettered FROM kafka_outbox WHERE event_id = ?", Boolean.class, poison.getEventId()
+        )).isTrue();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String lastError(Outbox outbox) {
+        return jdbcTemplate.queryForObject("SELECT last_error FROM kafka_outbox WHERE event_id = ?", String.class, outbox.getEventId());
+    }
+
+    private static Outbox event(String messageKey, LocalDateTime createdAt) {
+        return Outbox.builder()
+                .eventId(UUID.randomUUID())
+                .payload("{}")
+                .createdAt(createdAt)
+                .eventType("VARIANT_STOCK_UPDATED")
+                .topic("variant-stock-updated")
+                .messageKey(messageKey)
+                .build();
+    }
+}
@@ -0,0 +1,97 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Wake-ups of the outbox dispatcher, against an embedded PostgreSQL loaded with {@code docker/init.sql}. The poll
+ * interval is a minute, so a run within seconds can only come from a notification or a reported backlog.
+ */
+class OutboxDispatcherTest extends EmbeddedPostgresTest {
+
+    private static final Duration POLL_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final OutboxEventProcessor outboxEventProcessor = mock(OutboxEventProcessor.class);
+    private OutboxDispatcher dispatcher;
+
+    @BeforeAll
+    static void createPartition() {
+        new OutboxPartitionRepository(jdbcTemplate).createPartitions(LocalDate.now(), 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Test
+    void should_run_the_processor_as_soon_as_an_event_is_inserted() {
+        // Given
+        start();
+        verify(outboxEventProcessor, timeout(TIMEOUT.toMillis())).processOutboxEvents();
+        await(() -> Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_stat_activity WHERE query = 'LISTEN kafka_outbox')", Boolean.class)));
+
+        // When
+        jdbcTemplate.update("""
+                INSERT INTO kafka_outbox (event_id, payload, created_at, event_type)
+                VALUES (?, '{}', now(), 'VARIANT_STOCK_UPDATED')
+                """, UUID.randomUUID());
+
+        // Then
+        verify(outboxEventProcessor, timeout(TIMEOUT.toMillis()).times(2)).processOutboxEvents();
+    }
+
+    @Test
+    void should_run_the_processor_again_while_it_reports_a_backlog() {
+        // Given - two full batches, then nothing left
+        when(outboxEventProcessor.processOutboxEvents()).thenReturn(true, true, false);
+
+        // When
+        start();
+
+        // Then
+        verify(outboxEventProcessor, timeout(TIMEOUT.toMillis()).atLeast(3)).processOutboxEvents();
+        dispatcher.stop();
+        verify(outboxEventProcessor, times(3)).processOutboxEvents();
+    }
+
+    private void start() {
+        DataSourceProperties dataSourceProperties = new DataSourceProperties();
+        dataSourceProperties.setUrl(jdbcUrl());
+        dataSourceProperties.setUsername("postgres");
+
+        dispatcher = new OutboxDispatcher(outboxEventProcessor, dataSourceProperties, true, POLL_INTERVAL, POLL_INTERVAL);
+        dispatcher.start();
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition met in time").isLessThan(deadline);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.ecmsp.productservice.kafka.repository;
 
 import com.ecmsp.productservice.kafka.publisher.cart.KafkaCartEventPublisher;
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantStockChangedEvent;
 import com.ecmsp.productservice.kafka.publisher.statistics.KafkaStatisticsEventPublisher;
 import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantSoldEvent;
 import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantStockUpdatedEvent;
@@ -8,6 +9,7 @@ import com.ecmsp.productservice.kafka.publisher.statistics.events.StatisticsEven
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -16,9 +18,13 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -27,6 +33,10 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 class OutboxEventProcessorTest {
 
+    private static final int BATCH_SIZE = 100;
+    private static final Duration LEASE_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration ACK_TIMEOUT = Duration.ofSeconds(1);
+
     @Mock
     private OutboxService outboxService;
 
@@ -36,6 +46,12 @@ class OutboxEventProcessorTest {
     @Mock
     private KafkaStatisticsEventPublisher statisticsEventPublisher;
 
+    @Mock
+    private OutboxMessageSender outboxMessageSender;
+
+    @Mock
+    private OutboxMetrics outboxMetrics;
+
     private ObjectMapper objectMapper;
     private OutboxEventProcessor processor;
 
@@ -46,7 +62,17 @@ class OutboxEventProcessorTest {
                 outboxService,
                 cartEventPublisher,
                 statisticsEventPublisher,
-                objectMapper
+                objectMapper,
+                outboxMessageSender,
+                new OutboxDispatchLanes(new SimpleMeterRegistry(), 2, 10),
+                outboxMetrics,
+                BATCH_SIZE,
+                LEASE_TIMEOUT,
+                ACK_TIMEOUT,
+                1,
+                3,
+                Duration.ofSeconds(1),
+                Duration.ofMinutes(1)
         );
     }
 
@@ -65,7 +91,8 @@ class OutboxEventProcessorTest {
         );
 
         Outbox outbox = createOutboxWithEvent(event, KafkaVariantSoldEvent.class.getName());
-        when(outboxService.getUnprocessedEvents()).thenReturn(List.of(outbox));
+        when(outboxService.claimUnprocessedEvents(BATCH_SIZE, LEASE_TIMEOUT)).thenReturn(List.of(outbox));
+        when(statisticsEventPublisher.publish(any())).thenReturn(CompletableFuture.completedFuture(null));
 
         // When
         processor.processOutboxEvents();
@@ -74,7 +101,7 @@ class OutboxEventProcessorTest {
         ArgumentCaptor<StatisticsEvent> captor = ArgumentCaptor.forClass(StatisticsEvent.class);
         verify(statisticsEventPublisher).publish(captor.capture());
         verify(cartEventPublisher, never()).publish(any());
-        verify(outboxService).markAsProcessed(outbox.getEventId());
+        verify(outboxService).markAsProcessed(List.of(outbox.getEventId()));
 
         StatisticsEvent publishedEvent = captor.getValue();
         assertThat(publishedEvent).isInstanceOf(KafkaVariantSoldEvent.class);
@@ -101,7 +128,8 @@ class OutboxEventProcessorTest {
         );
 
         Outbox outbox = createOutboxWithEvent(event, KafkaVariantStockUpdatedEvent.class.getName());
-        when(outboxService.getUnprocessedEvents()).thenReturn(List.of(outbox));
+        when(outboxService.claimUnprocessedEvents(BATCH_SIZE, LEASE_TIMEOUT)).thenReturn(List.of(outbox));
+        when(statisticsEventPublisher.publish(any())).thenReturn(CompletableFuture.completedFuture(null));
 
         // When
         processor.processOutboxEvents();
@@ -110,7 +138,7 @@ class OutboxEventProcessorTest {
         ArgumentCaptor<StatisticsEvent> captor = ArgumentCaptor.forClass(StatisticsEvent.class);
         verify(statisticsEventPublisher).publish(captor.capture());
         verify(cartEventPublisher, never()).publish(any());
-        verify(outboxService).markAsProcessed(outbox.getEventId());
+        verify(outboxService).markAsProcessed(List.of(outbox.getEventId()));
 
         StatisticsEvent publishedEvent = captor.getValue();
         assertThat(publishedEvent).isInstanceOf(KafkaVariantStockUpdatedEvent.class);
@@ -122,6 +150,122 @@ class OutboxEventProcessorTest {
         assertThat(stockEvent.deliveredAt()).isEqualTo(event.deliveredAt());
     }
 
+    @Test
+    void should_forward_stored_payload_to_stored_topic_without_deserializing() {
+        // Given - the event type does not resolve to a class, so any attempt to deserialize would fail
+        Outbox outbox = Outbox.builder()
+                .eventId(UUID.randomUUID())
+                .payload("{\"eventId\":\"550e8400-e29b-41d4-a716-446655440001\"}")
+                .eventType("com.ecmsp.productservice.UnknownEvent")
+                .topic("product-variant-sold")
+                .messageKey("550e8400-e29b-41d4-a716-446655440001")
+                .createdAt(LocalDateTime.now())
+                .processed(false)
+                .build();
+        when(outboxService.claimUnprocessedEvents(BATCH_SIZE, LEASE_TIMEOUT)).thenReturn(List.of(outbox));
+        when(outboxMessageSender.send(outbox))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        // When
+        processor.processOutboxEvents();
+
+        // Then
+        verify(outboxMessageSender).send(outbox);
+        verifyNoInteractions(cartEventPublisher, statisticsEventPublisher);
+        verify(outboxService).markAsProcessed(List.of(outbox.getEventId()));
+    }
+
+    @Test
+    void should_mark_only_acknowledged_events_as_processed() {
+        // Given
+        Outbox acknowledged = createForwardedOutbox("acknowledged");
+        Outbox rejected = createForwardedOutbox("rejected");
+        when(outboxService.claimUnprocessedEvents(BATCH_SIZE, LEASE_TIMEOUT)).thenReturn(List.of(acknowledged, rejected));
+        when(outboxMessageSender.send(acknowledged))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        when(outboxMessageSender.send(rejected))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker unavailable")));
+
+        // When
+        processor.processOutboxEvents();
+
+        // Then - the rejected event stays unprocessed, to be claimed again after its backoff
+        verify(outboxService).markAsProcessed(List.of(acknowledged.getEventId()));
+        verify(outboxService).recordFailures(
+                argThat(failures -> failures.keySet().equals(Set.of(rejected.getEventId()))),
+                any(OutboxRetrySchedule.class));
+    }
+
+    @Test
+    void should_hold_back_later_events_of_a_key_whose_earlier_event_failed_to_send() {
+        // Given
+        Outbox failed = createForwardedOutbox("failing-key");
+        Outbox heldBack = createForwardedOutbox("failing-key");
+        Outbox unrelated = createForwardedOutbox("other-key");
+        when(outboxService.claimUnprocessedEvents(BATCH_SIZE, LEASE_TIMEOUT)).thenReturn(List.of(failed, heldBack, unrelated));
+        when(outboxMessageSender.send(failed))
+                .thenThrow(new IllegalStateException("producer closed"));
+        when(outboxMessageSender.send(unrelated))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        // When
+        processor.processOutboxEvents();
+
+        // Then - the later event of the failing key is not sent ahead of the failed one
+        verify(outboxMessageSender).send(failed);
+        verify(outboxMessageSender, never()).send(heldBack);
+        verify(outboxService).markAsProcessed(List.of(unrelated.getEventId()));
+        verify(outboxService).recordFailures(
+                argThat(failures -> failures.keySet().equals(Set.of(failed.getEventId()))),
+                any(OutboxRetrySchedule.class));
+        verify(outboxService).releaseLeases(List.of(heldBack.getEventId()));
+    }
+
+    @Test
+    void should_send_the_next_event_of_a_key_only_once_the_previous_one_was_acknowledged() {
+        // Given - the broker fails the first send of the key after it was handed over
+        Outbox failed = createForwardedOutbox("failing-key");
+        Outbox heldBack = createForwardedOutbox("failing-key");
+        CompletableFuture<Object> failedAck = new CompletableFuture<>();
+        when(outboxService.claimUnprocessedEvents(BATCH_SIZE, LEASE_TIMEOUT)).thenReturn(List.of(failed, heldBack));
+        when(outboxMessageSender.send(failed)).thenAnswer(invocation -> {
+            CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS)
+                    .execute(() -> failedAck.completeExceptionally(new IllegalStateException("not enough replicas")));
+            return failedAck;
+        });
+
+        // When
+        processor.processOutboxEvents();
+
+        // Then
+        verify(outboxMessageSender, never()).send(heldBack);
+        verify(outboxService).recordFailures(
+                argThat(failures -> failures.keySet().equals(Set.of(failed.getEventId()))),
+                any(OutboxRetrySchedule.class));
+        verify(outboxService).releaseLeases(List.of(heldBack.getEventId()));
+    }
+
+    @Test
+    void should_publish_only_newest_stock_change_per_variant_and_keep_every_sale() {
+        // Given
+        Outbox olderStockChange = createForwardedOutbox("variant", KafkaVariantStockChangedEvent.class.getName(), "{\"stockQuantity\":5}");
+        Outbox sale = createForwardedOutbox("variant", KafkaVariantSoldEvent.class.getName(), "{\"quantitySold\":1}");
+        Outbox newerSale = createForwardedOutbox("variant", KafkaVariantSoldEvent.class.getName(), "{\"quantitySold\":2}");
+        Outbox newestStockChange = createForwardedOutbox("variant", KafkaVariantStockChangedEvent.class.getName(), "{\"stockQuantity\":2}");
+        when(outboxService.claimUnprocessedEvents(BATCH_SIZE, LEASE_TIMEOUT))
+                .thenReturn(List.of(olderStockChange, sale, newerSale, newestStockChange));
+        when(outboxMessageSender.send(any(Outbox.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        // When
+        processor.processOutboxEvents();
+
+        // Then
+        verify(outboxService).markAsSuperseded(List.of(olderStockChange.getEventId()));
+        verify(outboxMessageSender, never()).send(olderStockChange);
+        verify(outboxService).markAsProcessed(List.of(sale.getEventId(), newerSale.getEventId(), newestStockChange.getEventId()));
+    }
+
     @Test
     void should_serialize_kafka_variant_sold_event_to_correct_json_format() throws JsonProcessingException {
         // Given - create event with known values matching the expected format
@@ -177,6 +321,22 @@ class OutboxEventProcessorTest {
         assertThat(jsonNode.get("productId").isTextual()).isTrue();
     }
 
+    private Outbox createForwardedOutbox(String messageKey) {
+        return createForwardedOutbox(messageKey, KafkaVariantSoldEvent.class.getName(), "{}");
+    }
+
+    private Outbox createForwardedOutbox(String messageKey, String eventType, String payload) {
+        return Outbox.builder()
+                .eventId(UUID.randomUUID())
+                .payload(payload)
+                .eventType(eventType)
+                .topic("product-variant-sold")
+                .messageKey(messageKey)
+                .createdAt(LocalDateTime.now())
+                .processed(false)
+                .build();
+    }
+
     private Outbox createOutboxWithEvent(Object event, String eventType) throws JsonProcessingException {
         String payload = objectMapper.writeValueAsString(event);
         return Outbox.builder()
@@ -0,0 +1,63 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.kafka.publisher.cart.events.KafkaVariantStockChangedEvent;
+import com.ecmsp.productservice.kafka.repository.OutboxBatchRepository.OutboxBacklog;
+import com.ecmsp.productservice.kafka.repository.OutboxMetrics.OutboxSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxMetricsTest {
+
+    @Mock
+    private OutboxBatchRepository outboxBatchRepository;
+
+    @Test
+    void should_report_backlog_and_per_event_type_counts_in_snapshot() throws JsonProcessingException {
+        // Given
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        OutboxMetrics outboxMetrics = new OutboxMetrics(meterRegistry, outboxBatchRepository);
+        when(outboxBatchRepository.findBacklog()).thenReturn(new OutboxBacklog(42, LocalDateTime.now().minusMinutes(2)));
+
+        Outbox event = Outbox.builder()
+                .eventId(UUID.randomUUID())
+                .eventType(KafkaVariantStockChangedEvent.class.getName())
+                .createdAt(LocalDateTime.now().minusSeconds(1))
+                .build();
+
+        // When
+        outboxMetrics.recordBatch(2);
+        outboxMetrics.recordPublished(event);
+        outboxMetrics.recordFailed(event);
+        outboxMetrics.refreshBacklog();
+        OutboxSnapshot snapshot = outboxMetrics.snapshot();
+
+        // Then
+        assertThat(snapshot.backlog()).isEqualTo(42);
+        assertThat(snapshot.oldestPendingAgeSeconds()).isGreaterThanOrEqualTo(120);
+        assertThat(snapshot.batches()).isEqualTo(1);
+        assertThat(snapshot.eventTypes()).containsOnlyKeys("KafkaVariantStockChangedEvent");
+        assertThat(snapshot.eventTypes().get("KafkaVariantStockChangedEvent").published()).isEqualTo(1);
+        assertThat(snapshot.eventTypes().get("KafkaVariantStockChangedEvent").failed()).isEqualTo(1);
+        assertThat(snapshot.eventTypes().get("KafkaVariantStockChangedEvent").meanLatencyMillis()).isGreaterThanOrEqualTo(1000);
+        assertThat(meterRegistry.get("product.outbox.published").tag("event_type", "KafkaVariantStockChangedEvent").counter().count())
+                .isEqualTo(1);
+
+        // The actuator endpoint serves the snapshot as JSON
+        JsonNode json = new ObjectMapper().readTree(new ObjectMapper().writeValueAsString(snapshot));
+        assertThat(json.get("backlog").asLong()).isEqualTo(42);
+        assertThat(json.get("eventTypes").get("KafkaVariantStockChangedEvent").get("published").asLong()).isEqualTo(1);
+    }
+}
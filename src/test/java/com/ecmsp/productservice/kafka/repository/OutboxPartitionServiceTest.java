@@ -0,0 +1,68 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Creation of {@code kafka_outbox} partitions, against an embedded PostgreSQL loaded with {@code docker/init.sql}.
+ */
+class OutboxPartitionServiceTest extends EmbeddedPostgresTest {
+
+    // The conversion service reads durations such as "1s" from @Value, as in the application
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withInitializer(context -> context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance()))
+            .withBean(JdbcTemplate.class, () -> jdbcTemplate)
+            .withBean(PlatformTransactionManager.class, () -> new DataSourceTransactionManager(dataSource))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(OutboxPartitionRepository.class)
+            .withBean(OutboxBatchRepository.class)
+            .withUserConfiguration(OutboxPartitionService.class, OutboxRetentionService.class);
+
+    @Test
+    void should_keep_events_writable_with_retention_disabled() {
+        // Given - three weeks on, the partitions created by the schema ran out
+        LocalDate today = LocalDate.now().plusWeeks(3);
+
+        contextRunner.withPropertyValues("product.outbox.retention.enabled=false").run(context -> {
+            OutboxBatchRepository batchRepository = context.getBean(OutboxBatchRepository.class);
+            assertThat(context).doesNotHaveBean(OutboxRetentionService.class);
+            assertThatThrownBy(() -> batchRepository.insertAll(List.of(event(today))))
+                    .isInstanceOf(DataAccessException.class);
+
+            // When
+            context.getBean(OutboxPartitionService.class).createPartitions(today);
+
+            // Then - events can be written up to a week ahead
+            batchRepository.insertAll(List.of(event(today), event(today.plusDays(7))));
+            assertThat(jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM kafka_outbox WHERE created_at >= ?", Integer.class, today.atStartOfDay()
+            )).isEqualTo(2);
+        });
+    }
+
+    private static Outbox event(LocalDate day) {
+        return Outbox.builder()
+                .eventId(UUID.randomUUID())
+                .payload("{}")
+                .createdAt(day.atTime(12, 0))
+                .eventType("VARIANT_STOCK_UPDATED")
+                .topic("variant-stock-updated")
+                .messageKey("key")
+                .build();
+    }
+}
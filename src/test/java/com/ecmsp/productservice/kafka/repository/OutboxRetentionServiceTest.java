@@ -0,0 +1,90 @@
+package com.ecmsp.productservice.kafka.repository;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Partition maintenance of {@code kafka_outbox}, against an embedded PostgreSQL loaded with {@code docker/init.sql}.
+ */
+class OutboxRetentionServiceTest extends EmbeddedPostgresTest {
+
+    private final OutboxPartitionRepository outboxPartitionRepository = new OutboxPartitionRepository(jdbcTemplate);
+    private final OutboxRetentionService outboxRetentionService = new OutboxRetentionService(
+            outboxPartitionRepository,
+            new DataSourceTransactionManager(dataSource),
+            new SimpleMeterRegistry(),
+            Duration.ofDays(7),
+            Duration.ofSeconds(1)
+    );
+
+    @Test
+    void should_create_the_other_days_when_one_day_cannot_be_created() {
+        // Given - a table covering the second day makes its partition overlap
+        LocalDate firstDay = LocalDate.of(2030, 1, 1);
+        jdbcTemplate.execute("""
+                CREATE TABLE kafka_outbox_overlapping PARTITION OF kafka_outbox
+                FOR VALUES FROM ('2030-01-02') TO ('2030-01-03')
+                """);
+
+        // When
+        int created = outboxPartitionRepository.createPartitions(firstDay, 2);
+        int createdAgain = outboxPartitionRepository.createPartitions(firstDay, 2);
+
+        // Then
+        assertThat(created).isEqualTo(2);
+        assertThat(createdAgain).isZero();
+        assertThat(tableExists("kafka_outbox_p20300101")).isTrue();
+        assertThat(tableExists("kafka_outbox_p20300102")).isFalse();
+        assertThat(tableExists("kafka_outbox_p20300103")).isTrue();
+    }
+
+    @Test
+    void should_drop_expired_partitions_once_all_their_events_are_processed() {
+        // Given
+        outboxPartitionRepository.createPartitions(LocalDate.of(2020, 1, 1), 1);
+        insertEvent(LocalDateTime.of(2020, 1, 1, 12, 0), true);
+        insertEvent(LocalDateTime.of(2020, 1, 2, 12, 0), false);
+
+        // When
+        outboxRetentionService.maintainOutbox();
+
+        // Then
+        assertThat(tableExists("kafka_outbox_p20200101")).isFalse();
+        assertThat(tableExists("kafka_outbox_p20200102")).isTrue();
+    }
+
+    @Test
+    void should_drop_an_expired_partition_left_detached_by_an_earlier_run() {
+        // Given
+        outboxPartitionRepository.createPartitions(LocalDate.of(2021, 1, 1), 0);
+        insertEvent(LocalDateTime.of(2021, 1, 1, 12, 0), true);
+        jdbcTemplate.execute("ALTER TABLE kafka_outbox DETACH PARTITION kafka_outbox_p20210101");
+
+        // When
+        outboxRetentionService.maintainOutbox();
+
+        // Then
+        assertThat(tableExists("kafka_outbox_p20210101")).isFalse();
+    }
+
+    private static void insertEvent(LocalDateTime createdAt, boolean processed) {
+        jdbcTemplate.update("""
+                INSERT INTO kafka_outbox (event_id, payload, created_at, processed)
+                VALUES (?, '{}', ?, ?)
+                """, UUID.randomUUID(), Timestamp.valueOf(createdAt), processed);
+    }
+
+    private static boolean tableExists(String name) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, name));
+    }
+}
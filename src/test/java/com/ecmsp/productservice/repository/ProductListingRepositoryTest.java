@@ -0,0 +1,297 @@
+package com.ecmsp.productservice.repository;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import com.ecmsp.productservice.repository.ProductListingRepository.ProductListingItem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Locks in the number of statements a listing page costs, and that the triggers keep the product listing read model
+ * in step with the catalog, against an embedded PostgreSQL loaded with {@code docker/init.sql}.
+ */
+class ProductListingRepositoryTest extends EmbeddedPostgresTest {
+
+    private static final int PRODUCTS_PER_CATEGORY = 30;
+    private static final int IMAGES_PER_VARIANT = 3;
+
+    private static UUID rootCategoryId;
+    private static List<UUID> categoryIds;
+
+    private final AtomicInteger statements = new AtomicInteger();
+    private ProductListingRepository repository;
+
+    @BeforeAll
+    static void seedCategories() throws SQLException {
+        rootCategoryId = UUID.randomUUID();
+        categoryIds = List.of(UUID.randomUUID(), UUID.randomUUID());
+
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO categories (id, name) VALUES ('" + rootCategoryId + "', 'Root')");
+            for (UUID categoryId : categoryIds) {
+                insertCategory(statement, categoryId);
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        repository = new ProductListingRepository(
+                new JdbcTemplate(countingStatements(dataSource)),
+                new ObjectMapper()
+        );
+    }
+
+    @Test
+    void should_read_a_page_of_a_category_tree_with_the_first_image_in_one_statement() {
+        // When
+        List<ProductListingItem> page = repository.findPage(rootCategoryId, 0, 50);
+
+        // Then
+        assertThat(statements.get()).isEqualTo(1);
+        assertThat(page).hasSize(50);
+        assertThat(page).allSatisfy(item -> {
+            assertThat(item.productName()).startsWith("Product ");
+            assertThat(item.price()).isEqualByComparingTo("10.00");
+            assertThat(item.stockQuantity()).isEqualTo(5);
+            assertThat(item.additionalProperties()).containsEntry("color", "red");
+            assertThat(item.imageUrl()).isEqualTo("https://images/1.jpg");
+        });
+    }
+
+    @Test
+    void should_read_every_product_once_when_paging_by_cursor_in_one_statement_per_page() {
+        // Given
+        List<UUID> productIds = new ArrayList<>();
+        String afterCategoryPath = "";
+        UUID afterProductId = new UUID(0, 0);
+        int pages = 0;
+
+        // When
+        List<ProductListingItem> page;
+        do {
+            page = repository.findPageAfter(rootCategoryId, afterCategoryPath, afterProductId, 25);
+            page.forEach(item -> productIds.add(item.productId()));
+            if (!page.isEmpty()) {
+                afterCategoryPath = page.getLast().categoryPath();
+                afterProductId = page.getLast().productId();
+            }
+            pages++;
+        } while (page.size() == 25);
+
+        // Then
+        assertThat(productIds)
+                .hasSize(categoryIds.size() * PRODUCTS_PER_CATEGORY)
+                .doesNotHaveDuplicates();
+        assertThat(statements.get()).isEqualTo(pages);
+        assertThat(repository.countProducts(rootCategoryId)).isEqualTo(productIds.size());
+        assertThat(repository.countProducts(categoryIds.getFirst())).isEqualTo(PRODUCTS_PER_CATEGORY);
+    }
+
+    @Test
+    void should_list_the_variant_that_became_the_cheapest_with_its_first_image() {
+        // Given
+        UUID categoryId = insertCategoryTree(null);
+        UUID productId = insertProduct(categoryId);
+        insertVariant(productId, "10.00");
+        UUID dearVariantId = insertVariant(productId, "20.00");
+        insertImage(dearVariantId, 1);
+
+        // When
+        jdbcTemplate.update("UPDATE variants SET price = 5.00 WHERE id = ?", dearVariantId);
+
+        // Then
+        ProductListingItem item = listing(productId);
+        assertThat(item.variantId()).isEqualTo(dearVariantId);
+        assertThat(item.price()).isEqualByComparingTo("5.00");
+        assertThat(item.imageUrl()).isEqualTo("https://images/1.jpg");
+    }
+
+    @Test
+    void should_follow_deleted_images_and_variants_and_unlist_a_product_without_variants() {
+        // Given
+        UUID categoryId = insertCategoryTree(null);
+        UUID productId = insertProduct(categoryId);
+        UUID cheapVariantId = insertVariant(productId, "10.00");
+        UUID dearVariantId = insertVariant(productId, "20.00");
+        UUID firstImageId = insertImage(cheapVariantId, 1);
+        insertImage(cheapVariantId, 2);
+
+        // When - the first image is deleted
+        jdbcTemplate.update("DELETE FROM variant_images WHERE id = ?", firstImageId);
+
+        // Then
+        assertThat(listing(productId).imageUrl()).isEqualTo("https://images/2.jpg");
+
+        // When - the cheapest variant is deleted along with its images
+        jdbcTemplate.update("DELETE FROM variant_images WHERE variant_id = ?", cheapVariantId);
+        jdbcTemplate.update("DELETE FROM variants WHERE id = ?", cheapVariantId);
+
+        // Then
+        assertThat(listing(productId).variantId()).isEqualTo(dearVariantId);
+        assertThat(listing(productId).imageUrl()).isNull();
+
+        // When - the last variant is deleted
+        jdbcTemplate.update("DELETE FROM variants WHERE id = ?", dearVariantId);
+
+        // Then
+        assertThat(repository.findByProductIds(List.of(productId))).isEmpty();
+    }
+
+    @Test
+    void should_read_the_current_stock_without_refreshing_the_listing() {
+        // Given
+        UUID productId = insertProduct(insertCategoryTree(null));
+        insertVariant(productId, "10.00");
+
+        // When
+        jdbcTemplate.update("UPDATE variants SET stock_quantity = 0 WHERE product_id = ?", productId);
+
+        // Then
+        assertThat(listing(productId).stockQuantity()).isZero();
+    }
+
+    @Test
+    void should_list_the_products_of_a_moved_category_under_its_new_parent() {
+        // Given
+        UUID oldRootId = insertCategoryTree(null);
+        UUID newRootId = insertCategoryTree(null);
+        UUID movedCategoryId = insertCategoryTree(oldRootId);
+        UUID productId = insertProduct(movedCategoryId);
+        insertVariant(productId, "10.00");
+
+        // When
+        jdbcTemplate.update("UPDATE categories SET parent_category_id = ? WHERE id = ?", newRootId, movedCategoryId);
+
+        // Then
+        assertThat(listing(productId).categoryPath()).isEqualTo("/" + newRootId + "/" + movedCategoryId + "/");
+        assertThat(repository.countProducts(oldRootId)).isZero();
+        assertThat(repository.findPage(newRootId, 0, 10)).extracting(ProductListingItem::productId).containsExactly(productId);
+    }
+
+    @Test
+    void should_continue_after_where_the_product_is_listed_now_when_the_cursor_has_no_category_path() {
+        // Given
+        List<ProductListingItem> firstPage = repository.findPage(rootCategoryId, 0, 10);
+
+        // When
+        List<ProductListingItem> nextPage = repository.findPageAfter(rootCategoryId, null, firstPage.getLast().productId(), 10);
+
+        // Then
+        assertThat(nextPage).isEqualTo(repository.findPage(rootCategoryId, 10, 10));
+    }
+
+    private UUID insertCategoryTree(UUID parentCategoryId) {
+        UUID categoryId = UUID.randomUUID();
+        jdbcTemplate.update("INSERT INTO categories (id, name, parent_category_id) VALUES (?, 'Category', ?)", categoryId, parentCategoryId);
+        return categoryId;
+    }
+
+    private UUID insertProduct(UUID categoryId) {
+        UUID productId = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO products (id, category_id, name, approximate_price, delivery_price)
+                VALUES (?, ?, 'Product', 10.00, 0.00)
+                """, productId, categoryId);
+        return productId;
+    }
+
+    private UUID insertVariant(UUID productId, String price) {
+        UUID variantId = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO variants (id, product_id, price, stock_quantity, created_at, updated_at)
+                VALUES (?, ?, ?, 5, now(), now())
+                """, variantId, productId, new BigDecimal(price));
+        return variantId;
+    }
+
+    private UUID insertImage(UUID variantId, int position) {
+        UUID imageId = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO variant_images (id, variant_id, url, position, created_at, updated_at)
+                VALUES (?, ?, ?, ?, now(), now())
+                """, imageId, variantId, "https://images/" + position + ".jpg", position);
+        return imageId;
+    }
+
+    private ProductListingItem listing(UUID productId) {
+        return repository.findByProductIds(List.of(productId)).getFirst();
+    }
+
+    private static void insertCategory(Statement statement, UUID categoryId) throws SQLException {
+        statement.execute("INSERT INTO categories (id, name, parent_category_id) VALUES ('%s', 'Category', '%s')"
+                .formatted(categoryId, rootCategoryId));
+        for (int i = 0; i < PRODUCTS_PER_CATEGORY; i++) {
+            UUID productId = UUID.randomUUID();
+            statement.execute("""
+                    INSERT INTO products (id, category_id, name, approximate_price, delivery_price)
+                    VALUES ('%s', '%s', 'Product %d', 10.00, 0.00)
+                    """.formatted(productId, categoryId, i));
+
+            // The cheapest variant is listed with its first image; the rest must not show up
+            UUID cheapVariantId = insertVariant(statement, productId, new BigDecimal("10.00"));
+            insertVariant(statement, productId, new BigDecimal("20.00"));
+            for (int position = IMAGES_PER_VARIANT; position >= 1; position--) {
+                statement.execute("""
+                        INSERT INTO variant_images (id, variant_id, url, position, created_at, updated_at)
+                        VALUES ('%s', '%s', 'https://images/%d.jpg', %d, now(), now())
+                        """.formatted(UUID.randomUUID(), cheapVariantId, position, position));
+            }
+        }
+    }
+
+    private static UUID insertVariant(Statement statement, UUID productId, BigDecimal price) throws SQLException {
+        UUID variantId = UUID.randomUUID();
+        statement.execute("""
+                INSERT INTO variants (id, product_id, price, stock_quantity, additional_properties, created_at, updated_at)
+                VALUES ('%s', '%s', %s, 5, '{"color": "red"}', now(), now())
+                """.formatted(variantId, productId, price));
+        return variantId;
+    }
+
+    /**
+     * Counts statements prepared on connections of the data source, one per round trip of the repository.
+     */
+    private DataSource countingStatements(DataSource dataSource) {
+        return proxy(DataSource.class, dataSource, (method, result) -> method.getName().equals("getConnection")
+                ? proxy(Connection.class, (Connection) result, (connectionMethod, statement) -> {
+                    if (connectionMethod.getName().startsWith("prepare") || connectionMethod.getName().equals("createStatement")) {
+                        statements.incrementAndGet();
+                    }
+                    return statement;
+                })
+                : result);
+    }
+
+    private static <T> T proxy(Class<T> type, T target, ResultHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            try {
+                return handler.handle(method, method.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }));
+    }
+
+    private interface ResultHandler {
+        Object handle(Method method, Object result);
+    }
+}
@@ -0,0 +1,202 @@
+package com.ecmsp.productservice.repository;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import com.ecmsp.productservice.domain.ReservationStatus;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository.ReleasedStock;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * Behavior of the set-based reservation statements, against an embedded PostgreSQL loaded with
+ * {@code docker/init.sql}.
+ */
+class VariantReservationBatchRepositoryTest extends EmbeddedPostgresTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2030, 6, 1, 12, 0);
+
+    private static UUID productId;
+
+    private final VariantReservationBatchRepository repository = new VariantReservationBatchRepository(jdbcTemplate);
+    private final VariantStockBucketRepository bucketRepository = new VariantStockBucketRepository(jdbcTemplate);
+
+    @BeforeAll
+    static void seedProduct() {
+        productId = createProduct(createCategory());
+    }
+
+    @Test
+    void should_reserve_every_line_with_enough_stock_in_one_statement() {
+        // Given
+        UUID firstVariantId = insertVariant(5);
+        UUID secondVariantId = insertVariant(3);
+
+        // When
+        List<UUID> reserved = repository.reserveStock(List.of(firstVariantId, secondVariantId), List.of(2, 3));
+
+        // Then
+        assertThat(reserved).containsExactlyInAnyOrder(firstVariantId, secondVariantId);
+        assertThat(repository.findStockQuantities(List.of(firstVariantId, secondVariantId)))
+                .containsEntry(firstVariantId, 3)
+                .containsEntry(secondVariantId, 0);
+    }
+
+    @Test
+    void should_leave_lines_without_enough_stock_untouched() {
+        // Given
+        UUID availableVariantId = insertVariant(5);
+        UUID shortVariantId = insertVariant(1);
+        UUID missingVariantId = UUID.randomUUID();
+
+        // When
+        List<UUID> reserved = repository.reserveStock(
+                List.of(availableVariantId, shortVariantId, missingVariantId),
+                List.of(2, 2, 1)
+        );
+
+        // Then - only the line with enough stock is decremented, the caller rolls it back to keep the order whole
+        assertThat(reserved).containsExactly(availableVariantId);
+        assertThat(repository.findStockQuantities(List.of(availableVariantId, shortVariantId, missingVariantId)))
+                .containsOnly(entry(availableVariantId, 3), entry(shortVariantId, 1));
+    }
+
+    @Test
+    void should_reserve_across_buckets_when_no_single_bucket_holds_the_quantity() {
+        // Given - 8 units spread one per bucket
+        UUID variantId = insertVariant(8);
+        bucketRepository.splitIntoBuckets(List.of(variantId), 8);
+
+        // When
+        List<UUID> reserved = repository.reserveStock(List.of(variantId), List.of(3));
+
+        // Then - the first buckets in bucket order give one unit each
+        assertThat(reserved).containsExactly(variantId);
+        assertThat(bucketStock(variantId)).containsExactly(0, 0, 0, 1, 1, 1, 1, 1);
+        assertThat(repository.findStockQuantities(List.of(variantId))).containsEntry(variantId, 5);
+    }
+
+    @Test
+    void should_take_nothing_from_buckets_holding_less_than_the_quantity_in_total() {
+        // Given
+        UUID variantId = insertVariant(8);
+        bucketRepository.splitIntoBuckets(List.of(variantId), 8);
+
+        // When
+        List<UUID> reserved = repository.reserveStock(List.of(variantId), List.of(9));
+        boolean reservedFromBuckets = bucketRepository.reserveFromBuckets(variantId, 9);
+
+        // Then
+        assertThat(reserved).isEmpty();
+        assertThat(reservedFromBuckets).isFalse();
+        assertThat(bucketStock(variantId)).containsOnly(1);
+    }
+
+    @Test
+    void should_reserve_a_single_variant_across_buckets() {
+        // Given
+        UUID variantId = insertVariant(8);
+        bucketRepository.splitIntoBuckets(List.of(variantId), 4);
+
+        // When
+        boolean reserved = bucketRepository.reserveFromBuckets(variantId, 5);
+
+        // Then
+        assertThat(reserved).isTrue();
+        assertThat(bucketStock(variantId)).containsExactly(0, 0, 1, 2);
+    }
+
+    @Test
+    void should_give_expired_reservations_back_to_stock() {
+        // Given
+        UUID variantId = insertVariant(5);
+        UUID bucketedVariantId = insertVariant(8);
+        bucketRepository.splitIntoBuckets(List.of(bucketedVariantId), 4);
+        repository.reserveStock(List.of(variantId, bucketedVariantId), List.of(2, 3));
+        UUID reservationId = insertReservation(List.of(variantId, bucketedVariantId), List.of(2, 3), true);
+
+        // When
+        List<ReleasedStock> released = repository.expireReservations(NOW, 100);
+
+        // Then
+        assertThat(released).contains(new ReleasedStock(variantId, 2, 1), new ReleasedStock(bucketedVariantId, 3, 1));
+        assertThat(repository.findStockQuantities(List.of(variantId, bucketedVariantId)))
+                .containsEntry(variantId, 5)
+                .containsEntry(bucketedVariantId, 8);
+        assertThat(reservationStatuses(reservationId)).containsOnly("EXPIRED");
+        assertThat(repository.expireReservations(NOW, 100)).isEmpty();
+    }
+
+    @Test
+    void should_not_count_an_expired_reservation_that_was_never_flushed_twice() {
+        // Given - a reservation granted by the hot variant ledger, not subtracted from variants.stock_quantity yet
+        UUID variantId = insertVariant(5);
+        insertReservation(List.of(variantId), List.of(2), false);
+
+        // When
+        repository.expireReservations(NOW, 100);
+        int availableBeforeFlush = repository.findLedgerStock(List.of(variantId)).get(variantId);
+        repository.flushReservedStock(List.of(variantId));
+
+        // Then - the flush subtracts what the expiry gave back, so the stock ends where it started
+        assertThat(availableBeforeFlush).isEqualTo(5);
+        assertThat(repository.findLedgerStock(List.of(variantId))).containsEntry(variantId, 5);
+        assertThat(variantStock(variantId)).isEqualTo(5);
+    }
+
+    @Test
+    void should_expire_only_overdue_reservations_up_to_the_limit() {
+        // Given
+        UUID variantId = insertVariant(10);
+        insertReservation(List.of(variantId), List.of(1), true);
+        insertReservation(List.of(variantId), List.of(1), true);
+        repository.insertReservations(UUID.randomUUID(), List.of(variantId), List.of(1), ReservationStatus.ACTIVE,
+                NOW, NOW.plusHours(1), true);
+
+        // When
+        List<ReleasedStock> firstBatch = repository.expireReservations(NOW, 1);
+        List<ReleasedStock> secondBatch = repository.expireReservations(NOW, 100);
+
+        // Then
+        assertThat(firstBatch).containsExactly(new ReleasedStock(variantId, 1, 1));
+        assertThat(secondBatch).containsExactly(new ReleasedStock(variantId, 1, 1));
+        assertThat(variantStock(variantId)).isEqualTo(12);
+    }
+
+    private UUID insertReservation(List<UUID> variantIds, List<Integer> quantities, boolean stockFlushed) {
+        UUID reservationId = UUID.randomUUID();
+        repository.insertReservations(reservationId, variantIds, quantities, ReservationStatus.ACTIVE,
+                NOW.minusHours(2), NOW.minusHours(1), stockFlushed);
+        return reservationId;
+    }
+
+    private static UUID insertVariant(int stockQuantity) {
+        UUID variantId = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO variants (id, product_id, price, stock_quantity, created_at, updated_at)
+                VALUES (?, ?, 10.00, ?, now(), now())
+                """, variantId, productId, stockQuantity);
+        return variantId;
+    }
+
+    private static int variantStock(UUID variantId) {
+        return jdbcTemplate.queryForObject("SELECT stock_quantity FROM variants WHERE id = ?", Integer.class, variantId);
+    }
+
+    private static List<String> reservationStatuses(UUID reservationId) {
+        return jdbcTemplate.queryForList("SELECT status FROM variant_reservations WHERE reservation_id = ?", String.class, reservationId);
+    }
+
+    private static List<Integer> bucketStock(UUID variantId) {
+        return jdbcTemplate.queryForList(
+                "SELECT stock_quantity FROM variant_stock_buckets WHERE variant_id = ? ORDER BY bucket",
+                Integer.class,
+                variantId
+        );
+    }
+}
@@ -0,0 +1,221 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import com.ecmsp.productservice.domain.ReservationStatus;
+import com.ecmsp.productservice.dto.variant_reservation.ReservationUpdateRequestDTO;
+import com.ecmsp.productservice.dto.variant_reservation.VariantReservationResultDTO;
+import com.ecmsp.productservice.dto.variant_reservation.VariantsReservationCreateRequestDTO;
+import com.ecmsp.productservice.exception.HotVariantNotOwnedException;
+import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantSoldEvent;
+import com.ecmsp.productservice.kafka.repository.OutboxMessage;
+import com.ecmsp.productservice.kafka.repository.OutboxService;
+import com.ecmsp.productservice.repository.HotVariantLeaseRepository;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Two service instances sharing an embedded PostgreSQL loaded with {@code docker/init.sql}, each with its own
+ * hot variant ledger.
+ */
+class HotVariantStockLedgerTest extends EmbeddedPostgresTest {
+
+    private static UUID productId;
+
+    private UUID variantId;
+    private Instance first;
+    private Instance second;
+
+    @BeforeAll
+    static void seedProduct() {
+        productId = createProduct(createCategory());
+    }
+
+    @BeforeEach
+    void setUp() {
+        variantId = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO variants (id, product_id, price, stock_quantity, created_at, updated_at)
+                VALUES (?, ?, 10.00, 10, now(), now())
+                """, variantId, productId);
+
+        first = new Instance();
+        second = new Instance();
+        first.ledger.refresh();
+        second.ledger.refresh();
+    }
+
+    @Test
+    void should_reserve_on_the_owner_only_and_pick_up_releases_and_flushes_from_any_instance() {
+        // Given
+        UUID reservationId = UUID.randomUUID();
+        first.reserve(reservationId, 4);
+
+        // When - the reservation is released on the instance that does not own the variant
+        assertThatThrownBy(() -> second.reserve(UUID.randomUUID(), 1)).isInstanceOf(HotVariantNotOwnedException.class);
+        second.service.updateVariantsReservation(new ReservationUpdateRequestDTO(reservationId, ReservationStatus.PAYMENT_FAILED));
+
+        // Then - the owner sees the released stock once it refreshes
+        assertThat(first.ledger.getAvailableStock(variantId)).contains(6);
+        assertThat(second.ledger.getAvailableStock(variantId)).isEmpty();
+        first.ledger.refresh();
+        assertThat(first.ledger.getAvailableStock(variantId)).contains(10);
+
+        // When - another reservation is granted and both are flushed
+        first.reserve(UUID.randomUUID(), 3);
+        first.ledger.flush();
+        first.ledger.refresh();
+
+        // Then
+        assertThat(stockQuantity()).isEqualTo(7);
+        assertThat(first.ledger.getAvailableStock(variantId)).contains(7);
+    }
+
+    @Test
+    void should_take_over_an_expired_lease_with_everything_granted_by_the_previous_owner() {
+        // Given
+        first.reserve(UUID.randomUUID(), 4);
+        jdbcTemplate.update("UPDATE hot_variant_leases SET expires_at = now() - INTERVAL '1 second' WHERE variant_id = ?", variantId);
+
+        // When
+        second.ledger.refresh();
+        first.ledger.refresh();
+
+        // Then
+        assertThat(second.ledger.getAvailableStock(variantId)).contains(6);
+        assertThat(first.ledger.getAvailableStock(variantId)).isEmpty();
+        assertThatThrownBy(() -> first.reserve(UUID.randomUUID(), 1)).isInstanceOf(HotVariantNotOwnedException.class);
+        assertThat(second.reserve(UUID.randomUUID(), 6).getFailedVariants()).isEmpty();
+        assertThat(second.reserve(UUID.randomUUID(), 1).getFailedVariants()).isNotEmpty();
+    }
+
+    @Test
+    void should_grant_without_waiting_for_the_lease_row() throws SQLException {
+        // Given - the lease row is locked, as by an instance trying to take the variant over
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM hot_variant_leases WHERE variant_id = ? FOR UPDATE")) {
+                statement.setObject(1, variantId);
+                statement.execute();
+            }
+
+            // When
+            VariantReservationResultDTO result = first.reserve(UUID.randomUUID(), 4);
+
+            // Then
+            assertThat(result.getFailedVariants()).isEmpty();
+            assertThat(first.ledger.getAvailableStock(variantId)).contains(6);
+            connection.rollback();
+        }
+    }
+
+    @Test
+    void should_keep_granting_after_a_failed_refresh_until_the_lease_is_about_to_expire() throws InterruptedException {
+        // Given - an owner whose lease runs for three seconds, of which it grants for two
+        jdbcTemplate.update("UPDATE hot_variant_leases SET expires_at = now() - INTERVAL '1 second' WHERE variant_id = ?", variantId);
+        Instance owner = new Instance(Duration.ofSeconds(3), Duration.ofSeconds(1));
+        owner.ledger.refresh();
+
+        // When - the next refresh fails
+        jdbcTemplate.execute("ALTER TABLE hot_variant_leases RENAME TO hot_variant_leases_unavailable");
+        try {
+            owner.ledger.refresh();
+
+            // Then - the counters are kept until the lease is about to expire
+            assertThat(owner.reserve(UUID.randomUUID(), 4).getFailedVariants()).isEmpty();
+            assertThat(owner.ledger.getAvailableStock(variantId)).contains(6);
+            Thread.sleep(2_100);
+            assertThatThrownBy(() -> owner.reserve(UUID.randomUUID(), 1)).isInstanceOf(HotVariantNotOwnedException.class);
+            assertThat(owner.ledger.getAvailableStock(variantId)).isEmpty();
+        } finally {
+            jdbcTemplate.execute("ALTER TABLE hot_variant_leases_unavailable RENAME TO hot_variant_leases");
+        }
+    }
+
+    @Test
+    void should_report_the_stock_left_after_unflushed_grants_when_a_sale_completes_on_another_instance() {
+        // Given - the owner granted two reservations, neither flushed to variants yet
+        UUID reservationId = UUID.randomUUID();
+        first.reserve(reservationId, 4);
+        first.reserve(UUID.randomUUID(), 1);
+
+        // When - the payment of one completes on the instance that does not own the variant
+        second.service.updateVariantsReservation(new ReservationUpdateRequestDTO(reservationId, ReservationStatus.PAYMENT_COMPLETED));
+
+        // Then
+        assertThat(stockQuantity()).isEqualTo(10);
+        ArgumentCaptor<List<OutboxMessage>> messages = ArgumentCaptor.captor();
+        verify(second.outboxService).saveAll(messages.capture());
+        assertThat(messages.getValue())
+                .extracting(message -> ((KafkaVariantSoldEvent) message.payload()).stockRemaining())
+                .containsExactly(5);
+    }
+
+    private int stockQuantity() {
+        return jdbcTemplate.queryForObject("SELECT stock_quantity FROM variants WHERE id = ?", Integer.class, variantId);
+    }
+
+    private class Instance {
+
+        private final OutboxService outboxService = mock(OutboxService.class);
+        private final HotVariantStockLedger ledger;
+        private final VariantReservationService service;
+
+        Instance() {
+            this(Duration.ofSeconds(10), Duration.ofSeconds(2));
+        }
+
+        Instance(Duration leaseTimeout, Duration leaseMargin) {
+            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+            VariantReservationBatchRepository batchRepository = new VariantReservationBatchRepository(jdbcTemplate);
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+            ledger = new HotVariantStockLedger(
+                    batchRepository,
+                    new HotVariantLeaseRepository(jdbcTemplate),
+                    outboxService,
+                    UUID::randomUUID,
+                    transactionManager,
+                    true,
+                    Set.of(variantId),
+                    leaseTimeout,
+                    leaseMargin
+            );
+            service = new VariantReservationService(
+                    null,
+                    batchRepository,
+                    outboxService,
+                    UUID::randomUUID,
+                    ledger,
+                    new ReservationRetryPolicy(meterRegistry, 1, Duration.ZERO, Duration.ZERO),
+                    transactionManager,
+                    meterRegistry,
+                    Duration.ofHours(1),
+                    Duration.ofMinutes(1),
+                    100
+            );
+        }
+
+        VariantReservationResultDTO reserve(UUID reservationId, int quantity) {
+            return service.createVariantsReservation(new VariantsReservationCreateRequestDTO(reservationId, Map.of(variantId, quantity)));
+        }
+    }
+}
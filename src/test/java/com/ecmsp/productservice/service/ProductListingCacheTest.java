@@ -0,0 +1,65 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.domain.Category;
+import com.ecmsp.productservice.dto.rest.GetProductsResponseDTO;
+import com.ecmsp.productservice.service.ProductListingCache.ListingKey;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductListingCacheTest {
+
+    private final ProductListingCache cache = new ProductListingCache(Duration.ofMinutes(1), 100);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void should_evict_pages_of_the_changed_category_and_its_ancestors_only() {
+        // Given
+        Category root = Category.builder().id(UUID.randomUUID()).build();
+        Category child = Category.builder().id(UUID.randomUUID()).parentCategory(root).build();
+        Category sibling = Category.builder().id(UUID.randomUUID()).parentCategory(root).build();
+        List<ListingKey> keys = List.of(firstPage(root), firstPage(child), firstPage(sibling));
+        keys.forEach(key -> cache.get(key, this::load));
+
+        // When
+        cache.evictCategory(child);
+        keys.forEach(key -> cache.get(key, this::load));
+
+        // Then - root and child are loaded again, the sibling is served from the cache
+        assertThat(loads.get()).isEqualTo(5);
+    }
+
+    @Test
+    void should_not_cache_a_page_loaded_while_it_was_evicted() {
+        // Given
+        Category category = Category.builder().id(UUID.randomUUID()).build();
+        ListingKey key = firstPage(category);
+        Supplier<GetProductsResponseDTO> loadAcrossEviction = () -> {
+            GetProductsResponseDTO page = load();
+            cache.evictCategory(category);
+            return page;
+        };
+
+        // When
+        cache.get(key, loadAcrossEviction);
+        cache.get(key, this::load);
+
+        // Then
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    private GetProductsResponseDTO load() {
+        loads.incrementAndGet();
+        return GetProductsResponseDTO.builder().productsRepresentation(List.of()).build();
+    }
+
+    private static ListingKey firstPage(Category category) {
+        return new ListingKey(category.getId(), 10, 0, null, false);
+    }
+}
@@ -0,0 +1,52 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProductListingCursorTest {
+
+    @Test
+    void should_decode_the_cursor_it_encoded() {
+        // Given
+        ProductListingCursor cursor = new ProductListingCursor("/" + UUID.randomUUID() + "/", UUID.randomUUID());
+
+        // When
+        ProductListingCursor decoded = ProductListingCursor.decode(cursor.encode());
+
+        // Then
+        assertThat(decoded).isEqualTo(cursor);
+    }
+
+    @Test
+    void should_decode_a_version_1_cursor_without_a_category_path() {
+        // Given - version byte followed by the product id only
+        UUID productId = UUID.randomUUID();
+        byte[] bytes = ByteBuffer.allocate(1 + 16)
+                .put((byte) 1)
+                .putLong(productId.getMostSignificantBits())
+                .putLong(productId.getLeastSignificantBits())
+                .array();
+
+        // When
+        ProductListingCursor decoded = ProductListingCursor.decode(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes));
+
+        // Then
+        assertThat(decoded).isEqualTo(new ProductListingCursor(null, productId));
+    }
+
+    @Test
+    void should_reject_a_cursor_of_an_unknown_version() {
+        // Given
+        String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString(new byte[1 + 16]);
+
+        // When / Then
+        assertThatThrownBy(() -> ProductListingCursor.decode(cursor)).isInstanceOf(InvalidCursorException.class);
+    }
+}
@@ -0,0 +1,83 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.repository.ProductSearchDocumentRepository.ProductSearchDocument;
+import com.ecmsp.productservice.service.ProductSearchIndex.Hits;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductSearchIndexTest {
+
+    private final ProductSearchIndex index = new ProductSearchIndex();
+
+    @Test
+    void should_rank_products_matching_all_terms_with_name_matches_first() {
+        // Given
+        UUID inName = put("Bosch Washing Machine", "Quiet and efficient", "White", null);
+        UUID inDescription = put("Bosch Serie 6", "A washing machine for small flats", null, null);
+        UUID inProperties = put("Whirlpool FreshCare", null, "Silver", "Washing machine");
+        put("Bosch Dishwasher", "Washes dishes", null, null);
+
+        // When
+        Hits hits = index.search("washing MACHINE", 0, 10);
+
+        // Then
+        assertThat(hits.totalHits()).isEqualTo(3);
+        assertThat(hits.productIds().getFirst()).isEqualTo(inName);
+        assertThat(hits.productIds()).containsExactlyInAnyOrder(inName, inDescription, inProperties);
+        assertThat(index.search("żółć", 0, 10).productIds()).isEmpty();
+        assertThat(index.search("bosch dishwasher quiet", 0, 10).totalHits()).isZero();
+    }
+
+    @Test
+    void should_fold_diacritics_and_reflect_updates_and_removals() {
+        // Given
+        UUID productId = put("Lodówka Żółta", null, null, null);
+
+        // When
+        Hits beforeUpdate = index.search("zolta lodowka", 0, 10);
+        index.put(new ProductSearchDocument(productId, "Lodówka Biała", null, null, null));
+        Hits afterUpdate = index.search("zolta", 0, 10);
+        Hits updated = index.search("biała", 0, 10);
+        index.remove(productId);
+
+        // Then
+        assertThat(beforeUpdate.productIds()).containsExactly(productId);
+        assertThat(afterUpdate.totalHits()).isZero();
+        assertThat(updated.productIds()).containsExactly(productId);
+        assertThat(index.search("lodowka", 0, 10).totalHits()).isZero();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    void should_page_through_every_match_once_across_compactions() {
+        // Given - replacing every product twice leaves more deleted documents than live ones, which compacts the index
+        List<UUID> productIds = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            productIds.add(put("Phone " + i, "Smartphone", null, null));
+        }
+        for (int round = 0; round < 2; round++) {
+            productIds.forEach(productId -> index.put(new ProductSearchDocument(productId, "Phone", "Smartphone", null, null)));
+        }
+
+        // When
+        List<UUID> found = new ArrayList<>();
+        for (int page = 0; page < 4; page++) {
+            found.addAll(index.search("smartphone phone", page * 1000, 1000).productIds());
+        }
+
+        // Then
+        assertThat(index.size()).isEqualTo(3000);
+        assertThat(found).hasSize(3000).doesNotHaveDuplicates().containsExactlyInAnyOrderElementsOf(productIds);
+    }
+
+    private UUID put(String name, String description, String variantText, String propertyText) {
+        UUID productId = UUID.randomUUID();
+        index.put(new ProductSearchDocument(productId, name, description, variantText, propertyText));
+        return productId;
+    }
+}
@@ -0,0 +1,129 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import com.ecmsp.productservice.repository.ProductSearchDocumentRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+/**
+ * Search services of two instances sharing an embedded PostgreSQL loaded with {@code docker/init.sql}.
+ */
+class ProductSearchServiceTest extends EmbeddedPostgresTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private static UUID categoryId;
+
+    private final List<ProductSearchService> services = new ArrayList<>();
+
+    @BeforeAll
+    static void seedCategory() {
+        categoryId = createCategory();
+    }
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(ProductSearchService::stop);
+    }
+
+    @Test
+    void should_find_a_product_written_on_another_instance() {
+        // Given
+        ProductSearchService writer = start(new ProductSearchDocumentRepository(jdbcTemplate));
+        ProductSearchService reader = start(new ProductSearchDocumentRepository(jdbcTemplate));
+        awaitReady(writer);
+        awaitReady(reader);
+
+        // When
+        UUID productId = insertProduct("Mahogany Bookshelf");
+        writer.reindexAfterCommit(productId);
+
+        // Then
+        await(() -> reader.search("mahogany", 0, 10).productIds().contains(productId));
+        await(() -> writer.search("mahogany", 0, 10).productIds().contains(productId));
+    }
+
+    @Test
+    void should_keep_indexing_after_an_unexpected_error() {
+        // Given - the first reindex fails with an error that is not a data access error
+        ProductSearchDocumentRepository repository = spy(new ProductSearchDocumentRepository(jdbcTemplate));
+        CountDownLatch failed = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            failed.countDown();
+            throw new IllegalStateException("Unexpected");
+        }).doCallRealMethod().when(repository).findDocuments(any());
+        ProductSearchService service = start(repository);
+        awaitReady(service);
+
+        // When
+        service.reindexAfterCommit(insertProduct("Walnut Desk"));
+        await(() -> failed.getCount() == 0);
+        UUID productId = insertProduct("Teak Wardrobe");
+        service.reindexAfterCommit(productId);
+
+        // Then
+        await(() -> service.search("teak", 0, 10).productIds().contains(productId));
+    }
+
+    private ProductSearchService start(ProductSearchDocumentRepository repository) {
+        DataSourceProperties dataSourceProperties = new DataSourceProperties();
+        dataSourceProperties.setUrl(jdbcUrl());
+        dataSourceProperties.setUsername("postgres");
+
+        ProductSearchService service = new ProductSearchService(repository, dataSourceProperties, true, 100, Duration.ofMillis(100));
+        service.start();
+        services.add(service);
+        return service;
+    }
+
+    private static UUID insertProduct(String name) {
+        UUID productId = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO products (id, category_id, name, approximate_price, delivery_price)
+                VALUES (?, ?, ?, 10.00, 0.00)
+                """, productId, categoryId, name);
+        jdbcTemplate.update("""
+                INSERT INTO variants (id, product_id, price, stock_quantity, created_at, updated_at)
+                VALUES (?, ?, 10.00, 5, now(), now())
+                """, UUID.randomUUID(), productId);
+        return productId;
+    }
+
+    private static void awaitReady(ProductSearchService service) {
+        await(() -> {
+            try {
+                service.search("ready", 0, 1);
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        });
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition met in time").isLessThan(deadline);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
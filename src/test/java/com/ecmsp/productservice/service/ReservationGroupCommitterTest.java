@@ -0,0 +1,113 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import com.ecmsp.productservice.dto.variant_reservation.VariantReservationResultDTO;
+import com.ecmsp.productservice.dto.variant_reservation.VariantsReservationCreateRequestDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReservationGroupCommitterTest extends EmbeddedPostgresTest {
+
+    @Mock
+    private VariantReservationService variantReservationService;
+
+    private ReservationGroupCommitter committer;
+
+    @BeforeEach
+    void setUp() {
+        committer = new ReservationGroupCommitter(
+                variantReservationService,
+                new ReservationRetryPolicy(new SimpleMeterRegistry(), 3, Duration.ZERO, Duration.ZERO),
+                new JdbcTemplate(dataSource),
+                new DataSourceTransactionManager(dataSource),
+                true,
+                Duration.ofSeconds(1),
+                2
+        );
+        committer.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        committer.stop();
+    }
+
+    @Test
+    void should_retry_the_whole_group_when_a_request_hits_a_deadlock() {
+        // Given - the second request of the group loses a deadlock on the first attempt
+        VariantsReservationCreateRequestDTO first = request();
+        VariantsReservationCreateRequestDTO second = request();
+        AtomicInteger secondAttempts = new AtomicInteger();
+        when(variantReservationService.reserve(eq(first), any())).thenReturn(reserved(first));
+        when(variantReservationService.reserve(eq(second), any())).thenAnswer(invocation -> {
+            if (secondAttempts.incrementAndGet() == 1) {
+                throw new CannotAcquireLockException("Deadlock", new SQLException("deadlock detected", "40P01"));
+            }
+            return reserved(second);
+        });
+
+        // When
+        CompletableFuture<VariantReservationResultDTO> firstResult = committer.submit(first);
+        CompletableFuture<VariantReservationResultDTO> secondResult = committer.submit(second);
+
+        // Then - both requests are reserved again in a new transaction
+        assertThat(firstResult.join().getReservedVariantIds()).isEqualTo(variantIds(first));
+        assertThat(secondResult.join().getReservedVariantIds()).isEqualTo(variantIds(second));
+        verify(variantReservationService, times(2)).reserve(eq(first), any());
+        verify(variantReservationService, times(2)).reserve(eq(second), any());
+    }
+
+    @Test
+    void should_fail_only_the_request_whose_error_is_not_retryable() {
+        // Given
+        VariantsReservationCreateRequestDTO first = request();
+        VariantsReservationCreateRequestDTO second = request();
+        when(variantReservationService.reserve(eq(first), any())).thenThrow(new IllegalStateException("Broken request"));
+        when(variantReservationService.reserve(eq(second), any())).thenReturn(reserved(second));
+
+        // When
+        CompletableFuture<VariantReservationResultDTO> firstResult = committer.submit(first);
+        CompletableFuture<VariantReservationResultDTO> secondResult = committer.submit(second);
+
+        // Then
+        assertThat(secondResult.join().getReservedVariantIds()).isEqualTo(variantIds(second));
+        assertThat(firstResult).isCompletedExceptionally();
+        verify(variantReservationService, times(1)).reserve(eq(first), any());
+    }
+
+    private static VariantsReservationCreateRequestDTO request() {
+        return new VariantsReservationCreateRequestDTO(UUID.randomUUID(), Map.of(UUID.randomUUID(), 1));
+    }
+
+    private static List<UUID> variantIds(VariantsReservationCreateRequestDTO request) {
+        return List.copyOf(request.getVariants().keySet());
+    }
+
+    private static VariantReservationResultDTO reserved(VariantsReservationCreateRequestDTO request) {
+        return VariantReservationResultDTO.builder()
+                .reservedVariantIds(variantIds(request))
+                .failedVariants(List.of())
+                .build();
+    }
+}
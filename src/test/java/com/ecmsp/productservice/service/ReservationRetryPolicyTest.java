@@ -0,0 +1,149 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import com.ecmsp.productservice.exception.ReservationConflictException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Retries of {@link ReservationRetryPolicy}, including a real deadlock on an embedded PostgreSQL.
+ */
+class ReservationRetryPolicyTest extends EmbeddedPostgresTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ReservationRetryPolicy retryPolicy = new ReservationRetryPolicy(meterRegistry, 3, Duration.ZERO, Duration.ZERO);
+
+    @BeforeAll
+    static void createCounters() {
+        jdbcTemplate.execute("CREATE TABLE counters (id int PRIMARY KEY, value int NOT NULL)");
+        jdbcTemplate.execute("INSERT INTO counters VALUES (1, 0), (2, 0)");
+    }
+
+    @Test
+    void should_complete_both_transactions_of_a_real_deadlock() throws Exception {
+        // Given - two transactions update the same rows in opposite order, each waiting until the other holds its first row
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        CountDownLatch firstRowsLocked = new CountDownLatch(2);
+        AtomicInteger attempts = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // When
+        try {
+            List<Future<Object>> results = executor.invokeAll(List.of(
+                    () -> retryPolicy.execute("create", () -> transactionTemplate.execute(status ->
+                            incrementInOrder(1, 2, firstRowsLocked, attempts))),
+                    () -> retryPolicy.execute("create", () -> transactionTemplate.execute(status ->
+                            incrementInOrder(2, 1, firstRowsLocked, attempts)))
+            ));
+            for (Future<Object> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Then - the transaction that lost the deadlock ran again
+        assertThat(jdbcTemplate.queryForList("SELECT value FROM counters ORDER BY id", Integer.class)).containsExactly(2, 2);
+        assertThat(attempts).hasValue(3);
+        assertThat(meterRegistry.counter("product.reservation.retries", "operation", "create").count()).isEqualTo(1);
+    }
+
+    @Test
+    void should_retry_after_a_deadlock() {
+        // Given
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        String result = retryPolicy.execute("create", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new CannotAcquireLockException("Deadlock", new SQLException("deadlock detected", "40P01"));
+            }
+            return "reserved";
+        });
+
+        // Then
+        assertThat(result).isEqualTo("reserved");
+        assertThat(attempts).hasValue(2);
+        assertThat(meterRegistry.counter("product.reservation.retries", "operation", "create").count()).isEqualTo(1);
+    }
+
+    @Test
+    void should_retry_after_a_serialization_failure() {
+        // Given
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        String result = retryPolicy.execute("update", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new PessimisticLockingFailureException("Conflict",
+                        new SQLException("could not serialize access due to concurrent update", "40001"));
+            }
+            return "updated";
+        });
+
+        // Then
+        assertThat(result).isEqualTo("updated");
+        assertThat(attempts).hasValue(3);
+    }
+
+    @Test
+    void should_not_retry_other_errors() {
+        // Given
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When / Then
+        assertThatThrownBy(() -> retryPolicy.execute("create", () -> {
+            attempts.incrementAndGet();
+            throw new DataIntegrityViolationException("Duplicate", new SQLException("duplicate key", "23505"));
+        })).isInstanceOf(DataIntegrityViolationException.class);
+        assertThat(attempts).hasValue(1);
+    }
+
+    @Test
+    void should_give_up_after_the_last_attempt() {
+        // Given
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When / Then
+        assertThatThrownBy(() -> retryPolicy.execute("create", () -> {
+            attempts.incrementAndGet();
+            throw new CannotAcquireLockException("Deadlock", new SQLException("deadlock detected", "40P01"));
+        })).isInstanceOf(ReservationConflictException.class)
+                .hasCauseInstanceOf(CannotAcquireLockException.class);
+        assertThat(attempts).hasValue(3);
+        assertThat(meterRegistry.counter("product.reservation.aborts", "operation", "create").count()).isEqualTo(1);
+    }
+
+    private static Object incrementInOrder(int firstId, int secondId, CountDownLatch firstRowsLocked, AtomicInteger attempts) {
+        attempts.incrementAndGet();
+        jdbcTemplate.update("UPDATE counters SET value = value + 1 WHERE id = ?", firstId);
+        firstRowsLocked.countDown();
+        try {
+            firstRowsLocked.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        jdbcTemplate.update("UPDATE counters SET value = value + 1 WHERE id = ?", secondId);
+        return null;
+    }
+}
@@ -0,0 +1,67 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.dto.variant.VariantAvailabilityDTO;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VariantAvailabilityServiceTest {
+
+    private final VariantReservationBatchRepository batchRepository = mock(VariantReservationBatchRepository.class);
+    private final HotVariantStockLedger ledger = mock(HotVariantStockLedger.class);
+    private final VariantAvailabilityService service = new VariantAvailabilityService(batchRepository, ledger, Duration.ofMinutes(1), 100);
+
+    @Test
+    void should_merge_ledger_cached_and_loaded_stock_and_drop_unknown_variants() {
+        // Given - one hot variant owned here, one variant read before and one not read yet
+        UUID hotVariantId = UUID.randomUUID();
+        UUID cachedVariantId = UUID.randomUUID();
+        UUID loadedVariantId = UUID.randomUUID();
+        UUID unknownVariantId = UUID.randomUUID();
+        when(ledger.getAvailableStock(any())).thenReturn(Optional.empty());
+        when(ledger.getAvailableStock(hotVariantId)).thenReturn(Optional.of(7));
+        when(batchRepository.findStockQuantities(List.of(cachedVariantId))).thenReturn(Map.of(cachedVariantId, 3));
+        service.getAvailability(List.of(cachedVariantId));
+        when(batchRepository.findStockQuantities(List.of(loadedVariantId, unknownVariantId))).thenReturn(Map.of(loadedVariantId, 0));
+
+        // When
+        List<VariantAvailabilityDTO> availability = service.getAvailability(
+                List.of(loadedVariantId, hotVariantId, unknownVariantId, cachedVariantId, loadedVariantId)
+        );
+
+        // Then - one entry per distinct existing variant, in request order, from a single query
+        assertThat(availability).containsExactly(
+                new VariantAvailabilityDTO(loadedVariantId, 0, false),
+                new VariantAvailabilityDTO(hotVariantId, 7, true),
+                new VariantAvailabilityDTO(cachedVariantId, 3, true)
+        );
+        verify(batchRepository).findStockQuantities(List.of(loadedVariantId, unknownVariantId));
+    }
+
+    @Test
+    void should_not_query_the_database_when_every_variant_is_cached_or_owned() {
+        // Given
+        UUID hotVariantId = UUID.randomUUID();
+        when(ledger.getAvailableStock(hotVariantId)).thenReturn(Optional.of(2));
+
+        // When
+        List<VariantAvailabilityDTO> availability = service.getAvailability(List.of(hotVariantId));
+
+        // Then
+        assertThat(availability).containsExactly(new VariantAvailabilityDTO(hotVariantId, 2, true));
+        verify(batchRepository, never()).findStockQuantities(anyList());
+    }
+}
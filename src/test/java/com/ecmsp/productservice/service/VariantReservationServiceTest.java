@@ -0,0 +1,246 @@
+package com.ecmsp.productservice.service;
+
+import com.ecmsp.productservice.EmbeddedPostgresTest;
+import com.ecmsp.productservice.domain.ReservationStatus;
+import com.ecmsp.productservice.dto.variant_reservation.FailedReservationVariantDTO;
+import com.ecmsp.productservice.dto.variant_reservation.ReservationUpdateRequestDTO;
+import com.ecmsp.productservice.dto.variant_reservation.VariantReservationResultDTO;
+import com.ecmsp.productservice.dto.variant_reservation.VariantsReservationCreateRequestDTO;
+import com.ecmsp.productservice.kafka.publisher.statistics.events.KafkaVariantSoldEvent;
+import com.ecmsp.productservice.kafka.repository.OutboxMessage;
+import com.ecmsp.productservice.kafka.repository.OutboxService;
+import com.ecmsp.productservice.repository.HotVariantLeaseRepository;
+import com.ecmsp.productservice.repository.VariantReservationBatchRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Reservation creation and status updates, against an embedded PostgreSQL loaded with {@code docker/init.sql}.
+ */
+class VariantReservationServiceTest extends EmbeddedPostgresTest {
+
+    private static UUID productId;
+
+    private final OutboxService outboxService = mock(OutboxService.class);
+
+    @BeforeAll
+    static void seedProduct() {
+        productId = createProduct(createCategory());
+    }
+
+    @Test
+    void should_reserve_stock_once_when_the_same_request_is_repeated() {
+        // Given
+        VariantReservationService service = service();
+        UUID variantId = insertVariant(5);
+        VariantsReservationCreateRequestDTO request = new VariantsReservationCreateRequestDTO(UUID.randomUUID(), Map.of(variantId, 2));
+
+        // When
+        VariantReservationResultDTO first = service.createVariantsReservation(request);
+        VariantReservationResultDTO repeated = service.createVariantsReservation(request);
+
+        // Then
+        assertThat(first.getReservedVariantIds()).containsExactly(variantId);
+        assertThat(repeated.getReservedVariantIds()).containsExactly(variantId);
+        assertThat(stockQuantity(variantId)).isEqualTo(3);
+        assertThat(reservationRows(request.getReservationId())).isEqualTo(1);
+    }
+
+    @Test
+    void should_answer_a_request_repeated_on_another_instance_from_the_database() {
+        // Given - the other instance has not cached the result
+        UUID variantId = insertVariant(5);
+        VariantsReservationCreateRequestDTO request = new VariantsReservationCreateRequestDTO(UUID.randomUUID(), Map.of(variantId, 2));
+        service().createVariantsReservation(request);
+
+        // When - the repeated request asks for more than is left, which must not matter
+        VariantReservationResultDTO repeated = service().createVariantsReservation(
+                new VariantsReservationCreateRequestDTO(request.getReservationId(), Map.of(variantId, 4))
+        );
+
+        // Then
+        assertThat(repeated.getReservedVariantIds()).containsExactly(variantId);
+        assertThat(repeated.getFailedVariants()).isEmpty();
+        assertThat(stockQuantity(variantId)).isEqualTo(3);
+        assertThat(reservationRows(request.getReservationId())).isEqualTo(1);
+    }
+
+    @Test
+    void should_give_stock_back_when_the_reservation_rows_already_exist() {
+        // Given - a concurrent request with the same reservation id committed its rows first
+        VariantReservationService service = service();
+        UUID variantId = insertVariant(5);
+        VariantsReservationCreateRequestDTO request = new VariantsReservationCreateRequestDTO(UUID.randomUUID(), Map.of(variantId, 2));
+        service().createVariantsReservation(request);
+
+        // When - reserving past the idempotency lookup, as a request that checked before those rows committed
+        VariantReservationResultDTO result = new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(
+                status -> service.reserve(request, status::setRollbackOnly)
+        );
+
+        // Then
+        assertThat(result.getReservedVariantIds()).containsExactly(variantId);
+        assertThat(stockQuantity(variantId)).isEqualTo(3);
+        assertThat(reservationRows(request.getReservationId())).isEqualTo(1);
+    }
+
+    @Test
+    void should_answer_a_request_repeated_after_its_reservation_was_released_as_failed() {
+        // Given - the result of the reservation is cached before its payment fails
+        VariantReservationService service = service();
+        UUID variantId = insertVariant(5);
+        VariantsReservationCreateRequestDTO request = new VariantsReservationCreateRequestDTO(UUID.randomUUID(), Map.of(variantId, 2));
+        service.createVariantsReservation(request);
+        service.updateVariantsReservation(new ReservationUpdateRequestDTO(request.getReservationId(), ReservationStatus.PAYMENT_FAILED));
+
+        // When
+        VariantReservationResultDTO repeated = service.createVariantsReservation(request);
+        VariantReservationResultDTO repeatedElsewhere = service().createVariantsReservation(request);
+
+        // Then - the stock given back is not reserved again
+        assertThat(repeated.getReservedVariantIds()).isEmpty();
+        assertThat(repeated.getFailedVariants())
+                .extracting(FailedReservationVariantDTO::getVariantId, FailedReservationVariantDTO::getRequestedQuantity, FailedReservationVariantDTO::getAvailableQuantity)
+                .containsExactly(tuple(variantId, 2, 0));
+        assertThat(repeatedElsewhere.getReservedVariantIds()).isEmpty();
+        assertThat(repeatedElsewhere.getFailedVariants()).hasSize(1);
+        assertThat(stockQuantity(variantId)).isEqualTo(5);
+        assertThat(reservationStatuses(request.getReservationId())).containsOnly("PAYMENT_FAILED");
+    }
+
+    @Test
+    void should_sell_every_line_of_a_paid_reservation_together() {
+        // Given
+        VariantReservationService service = service();
+        UUID firstVariantId = insertVariant(5);
+        UUID secondVariantId = insertVariant(4);
+        UUID reservationId = UUID.randomUUID();
+        service.createVariantsReservation(new VariantsReservationCreateRequestDTO(reservationId, Map.of(firstVariantId, 2, secondVariantId, 1)));
+
+        // When
+        service.updateVariantsReservation(new ReservationUpdateRequestDTO(reservationId, ReservationStatus.PAYMENT_COMPLETED));
+
+        // Then - the stock stays taken and one sold event per line is written in one batch
+        assertThat(stockQuantity(firstVariantId)).isEqualTo(3);
+        assertThat(stockQuantity(secondVariantId)).isEqualTo(3);
+        assertThat(reservationStatuses(reservationId)).containsOnly("PAYMENT_COMPLETED");
+        ArgumentCaptor<List<OutboxMessage>> messages = ArgumentCaptor.captor();
+        verify(outboxService).saveAll(messages.capture());
+        assertThat(messages.getValue())
+                .extracting(message -> (KafkaVariantSoldEvent) message.payload())
+                .extracting(KafkaVariantSoldEvent::variantId, KafkaVariantSoldEvent::quantitySold, KafkaVariantSoldEvent::stockRemaining)
+                .containsExactlyInAnyOrder(
+                        tuple(firstVariantId.toString(), 2, 3),
+                        tuple(secondVariantId.toString(), 1, 3)
+                );
+    }
+
+    @Test
+    void should_give_the_stock_of_a_failed_payment_back_once() {
+        // Given
+        VariantReservationService service = service();
+        UUID firstVariantId = insertVariant(5);
+        UUID secondVariantId = insertVariant(4);
+        UUID reservationId = UUID.randomUUID();
+        service.createVariantsReservation(new VariantsReservationCreateRequestDTO(reservationId, Map.of(firstVariantId, 2, secondVariantId, 1)));
+
+        // When
+        service.updateVariantsReservation(new ReservationUpdateRequestDTO(reservationId, ReservationStatus.PAYMENT_FAILED));
+        service.updateVariantsReservation(new ReservationUpdateRequestDTO(reservationId, ReservationStatus.PAYMENT_FAILED));
+
+        // Then
+        assertThat(stockQuantity(firstVariantId)).isEqualTo(5);
+        assertThat(stockQuantity(secondVariantId)).isEqualTo(4);
+        assertThat(reservationStatuses(reservationId)).containsOnly("PAYMENT_FAILED");
+        verifyNoInteractions(outboxService);
+    }
+
+    @Test
+    void should_leave_a_reservation_expired_by_the_sweeper_alone() {
+        // Given - the sweeper already gave the stock back
+        VariantReservationService service = service();
+        UUID variantId = insertVariant(5);
+        UUID reservationId = UUID.randomUUID();
+        service.createVariantsReservation(new VariantsReservationCreateRequestDTO(reservationId, Map.of(variantId, 2)));
+        jdbcTemplate.update("UPDATE variant_reservations SET expires_at = now() - INTERVAL '1 minute' WHERE reservation_id = ?", reservationId);
+        new VariantReservationBatchRepository(jdbcTemplate).expireReservations(LocalDateTime.now(), 100);
+
+        // When - a late payment event arrives
+        service.updateVariantsReservation(new ReservationUpdateRequestDTO(reservationId, ReservationStatus.PAYMENT_FAILED));
+        service.updateVariantsReservation(new ReservationUpdateRequestDTO(reservationId, ReservationStatus.PAYMENT_COMPLETED));
+
+        // Then
+        assertThat(stockQuantity(variantId)).isEqualTo(5);
+        assertThat(reservationStatuses(reservationId)).containsOnly("EXPIRED");
+        verify(outboxService).saveAll(List.of());
+    }
+
+    private VariantReservationService service() {
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        VariantReservationBatchRepository batchRepository = new VariantReservationBatchRepository(jdbcTemplate);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        HotVariantStockLedger ledger = new HotVariantStockLedger(
+                batchRepository,
+                new HotVariantLeaseRepository(jdbcTemplate),
+                outboxService,
+                UUID::randomUUID,
+                transactionManager,
+                false,
+                Set.of(),
+                Duration.ofSeconds(10),
+                Duration.ofSeconds(2)
+        );
+        return new VariantReservationService(
+                null,
+                batchRepository,
+                outboxService,
+                UUID::randomUUID,
+                ledger,
+                new ReservationRetryPolicy(meterRegistry, 1, Duration.ZERO, Duration.ZERO),
+                transactionManager,
+                meterRegistry,
+                Duration.ofHours(1),
+                Duration.ofMinutes(1),
+                100
+        );
+    }
+
+    private static UUID insertVariant(int stockQuantity) {
+        UUID variantId = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO variants (id, product_id, price, stock_quantity, created_at, updated_at)
+                VALUES (?, ?, 10.00, ?, now(), now())
+                """, variantId, productId, stockQuantity);
+        return variantId;
+    }
+
+    private static int stockQuantity(UUID variantId) {
+        return jdbcTemplate.queryForObject("SELECT stock_quantity FROM variants WHERE id = ?", Integer.class, variantId);
+    }
+
+    private static List<String> reservationStatuses(UUID reservationId) {
+        return jdbcTemplate.queryForList("SELECT status FROM variant_reservations WHERE reservation_id = ?", String.class, reservationId);
+    }
+
+    private static int reservationRows(UUID reservationId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM variant_reservations WHERE reservation_id = ?", Integer.class, reservationId);
+    }
+}